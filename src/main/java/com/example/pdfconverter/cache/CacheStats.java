@@ -0,0 +1,4 @@
+package com.example.pdfconverter.cache;
+
+public record CacheStats(long memoryHits, long diskHits, long misses, long evictions,
+                         int memoryEntries, long memoryBytes, double hitRate) {}
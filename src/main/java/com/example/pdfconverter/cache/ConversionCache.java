@@ -0,0 +1,279 @@
+package com.example.pdfconverter.cache;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+// Converted pdfs keyed by upload content hash, format and converter version.
+// Small results live in an in-memory LRU, every result is also kept on disk under pdf.output-dir/cache.
+@Component
+@Slf4j
+public class ConversionCache {
+    @Value("${pdf.output-dir}")
+    private String outputDir;
+    @Value("${pdf.cache.enabled:true}")
+    private boolean enabled;
+    @Value("${pdf.cache.memory-max-size:64MB}")
+    private DataSize memoryMaxSize;
+    // bigger results are only cached on disk
+    @Value("${pdf.cache.memory-max-entry-size:4MB}")
+    private DataSize memoryMaxEntrySize;
+    @Value("${pdf.cache.disk-max-size:1GB}")
+    private DataSize diskMaxSize;
+    @Value("${pdf.cache.ttl:24h}")
+    private Duration ttl;
+
+    private final LinkedHashMap<String, MemoryEntry> memory = new LinkedHashMap<>(256, 0.75f, true);
+    private long memoryBytes;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    @PostConstruct
+    public void start() throws IOException {
+        Files.createDirectories(cacheDir());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public static String key(String contentHash, String variant) {
+        return contentHash + "-" + variant;
+    }
+
+    // writes the cached pdf to the output and returns true, or returns false on a miss
+    public boolean serve(String key, OutputStream outputStream) throws IOException {
+        MemoryEntry entry = getFromMemory(key);
+        if (entry != null) {
+            memoryHits.incrementAndGet();
+            outputStream.write(entry.pdf);
+            return true;
+        }
+
+        Path path = diskPath(key);
+        try {
+            if (isExpired(Files.getLastModifiedTime(path).toInstant())) {
+                Files.deleteIfExists(path);
+                misses.incrementAndGet();
+                return false;
+            }
+            long size = Files.size(path);
+            if (size <= memoryMaxEntrySize.toBytes()) {
+                byte[] pdf = Files.readAllBytes(path);
+                putInMemory(key, pdf);
+                outputStream.write(pdf);
+            } else {
+                Files.copy(path, outputStream);
+            }
+            diskHits.incrementAndGet();
+            return true;
+        } catch (NoSuchFileException e) {
+            misses.incrementAndGet();
+            return false;
+        }
+    }
+
+    // whether serve would hit right now, without counting it; the entry may expire before it is served
+    public boolean contains(String key) throws IOException {
+        if (getFromMemory(key) != null) {
+            return true;
+        }
+        try {
+            return !isExpired(Files.getLastModifiedTime(diskPath(key)).toInstant());
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    // collects a freshly converted pdf, it only becomes visible once committed
+    public Entry begin(String key) throws IOException {
+        return new Entry(key);
+    }
+
+    public CacheStats stats() {
+        long hits = memoryHits.get() + diskHits.get();
+        long total = hits + misses.get();
+        synchronized (this) {
+            return new CacheStats(memoryHits.get(), diskHits.get(), misses.get(), evictions.get(),
+                    memory.size(), memoryBytes, total == 0 ? 0 : (double) hits / total);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${pdf.cache.cleanup-interval:10m}")
+    public void evictFromDisk() throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(cacheDir())) {
+            // leftover .part files of crashed conversions expire like any other entry
+            files = walk.filter(path -> path.toString().endsWith(".pdf") || path.toString().endsWith(".part")).toList();
+        }
+
+        List<Path> alive = new ArrayList<>();
+        long totalBytes = 0;
+        for (Path file : files) {
+            try {
+                if (isExpired(Files.getLastModifiedTime(file).toInstant())) {
+                    delete(file);
+                } else if (file.toString().endsWith(".pdf")) {
+                    alive.add(file);
+                    totalBytes += Files.size(file);
+                }
+            } catch (NoSuchFileException ignored) {
+                // removed concurrently
+            }
+        }
+
+        // over quota: the oldest results go first
+        alive.sort(Comparator.comparing(ConversionCache::lastModified));
+        for (Iterator<Path> it = alive.iterator(); it.hasNext() && totalBytes > diskMaxSize.toBytes(); ) {
+            Path file = it.next();
+            long size = Files.size(file);
+            delete(file);
+            totalBytes -= size;
+        }
+    }
+
+    private synchronized MemoryEntry getFromMemory(String key) {
+        MemoryEntry entry = memory.get(key);
+        if (entry != null && isExpired(entry.createdAt)) {
+            memory.remove(key);
+            memoryBytes -= entry.pdf.length;
+            return null;
+        }
+        return entry;
+    }
+
+    private synchronized void putInMemory(String key, byte[] pdf) {
+        MemoryEntry previous = memory.put(key, new MemoryEntry(pdf, Instant.now()));
+        memoryBytes += pdf.length - (previous != null ? previous.pdf.length : 0);
+        Iterator<MemoryEntry> eldest = memory.values().iterator();
+        while (memoryBytes > memoryMaxSize.toBytes() && eldest.hasNext()) {
+            memoryBytes -= eldest.next().pdf.length;
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private boolean isExpired(Instant createdAt) {
+        return createdAt.plus(ttl).isBefore(Instant.now());
+    }
+
+    private void delete(Path file) throws IOException {
+        if (Files.deleteIfExists(file)) {
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static Instant lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toInstant();
+        } catch (IOException e) {
+            return Instant.EPOCH;
+        }
+    }
+
+    private Path cacheDir() {
+        return Paths.get(outputDir, "cache");
+    }
+
+    // two-character shards keep directories small
+    private Path diskPath(String key) {
+        return cacheDir().resolve(key.substring(0, 2)).resolve(key + ".pdf");
+    }
+
+    private record MemoryEntry(byte[] pdf, Instant createdAt) {}
+
+    public class Entry extends OutputStream {
+        private final String key;
+        private final Path tempFile;
+        private final OutputStream fileStream;
+        // small results are kept in memory as well so they can go to the memory tier without a re-read
+        private ByteArrayOutputStream memoryCopy = new ByteArrayOutputStream();
+        private boolean committed;
+
+        private Entry(String key) throws IOException {
+            this.key = key;
+            this.tempFile = cacheDir().resolve("tmp-" + UUID.randomUUID() + ".part");
+            this.fileStream = Files.newOutputStream(tempFile);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            fileStream.write(b);
+            copyToMemory(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            fileStream.write(b, off, len);
+            copyToMemory(b, off, len);
+        }
+
+        public void commit() throws IOException {
+            fileStream.close();
+            Path target = diskPath(key);
+            Files.createDirectories(target.getParent());
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.setLastModifiedTime(target, FileTime.from(Instant.now()));
+            if (memoryCopy != null) {
+                putInMemory(key, memoryCopy.toByteArray());
+            }
+            committed = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            fileStream.close();
+        }
+
+        // drops an entry that was never committed, never throws
+        public void discard() {
+            if (committed) {
+                return;
+            }
+            try {
+                fileStream.close();
+                Files.deleteIfExists(tempFile);
+            } catch (IOException e) {
+                log.warn("Failed to clean up cache entry {}: {}", tempFile, e.getMessage());
+            }
+        }
+
+        private void copyToMemory(byte[] b, int off, int len) {
+            if (memoryCopy == null) {
+                return;
+            }
+            if (memoryCopy.size() + len > memoryMaxEntrySize.toBytes()) {
+                memoryCopy = null;
+            } else {
+                memoryCopy.write(b, off, len);
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.pdfconverter.config;
 
 import com.example.pdfconverter.filter.RateLimitFilter;
+import com.example.pdfconverter.filter.UploadIngestFilter;
 import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -8,11 +9,22 @@ import org.springframework.context.annotation.Configuration;
 @Configuration
 public class LimitFilterConfig {
 
+    // uploads are read before the rate limiter, which needs their size and hash
+    @Bean
+    public FilterRegistrationBean<UploadIngestFilter> uploadIngestFilterRegistration(UploadIngestFilter filter) {
+        FilterRegistrationBean<UploadIngestFilter> registration = new FilterRegistrationBean<>();
+        registration.setFilter(filter);
+        registration.addUrlPatterns("/api/convert", "/api/convert/jobs", "/api/convert/batch", "/api/convert/album");
+        registration.setOrder(0);
+        return registration;
+    }
+
     @Bean
     public FilterRegistrationBean<RateLimitFilter> rateLimitFilterRegistration(RateLimitFilter filter) {
         FilterRegistrationBean<RateLimitFilter> registration = new FilterRegistrationBean<>();
         registration.setFilter(filter);
-        registration.addUrlPatterns("/api/convert");
+        registration.addUrlPatterns("/api/convert", "/api/convert/jobs", "/api/convert/batch", "/api/convert/album",
+                "/api/uploads/*");
         registration.setOrder(1);
         return registration;
     }
@@ -0,0 +1,40 @@
+package com.example.pdfconverter.controller;
+
+import com.example.pdfconverter.cache.CacheStats;
+import com.example.pdfconverter.cache.ConversionCache;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/cache")
+@RequiredArgsConstructor
+public class CacheController {
+
+    private final ConversionCache conversionCache;
+
+    @Operation(summary = "Get hit/miss statistics of the conversion result cache (admins only)")
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Cache statistics"),
+            @ApiResponse(responseCode = "401", description = "Unauthorized"),
+            @ApiResponse(responseCode = "403", description = "Not an admin")
+    })
+    @GetMapping("/stats")
+    public ResponseEntity<?> getStats(Authentication authentication) {
+        if (authentication == null || !authentication.isAuthenticated()) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Unauthorized"));
+        }
+
+        CacheStats stats = conversionCache.stats();
+        return ResponseEntity.ok(stats);
+    }
+}
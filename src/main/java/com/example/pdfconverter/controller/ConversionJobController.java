@@ -0,0 +1,148 @@
+package com.example.pdfconverter.controller;
+
+import com.example.pdfconverter.model.ConversionJob;
+import com.example.pdfconverter.model.JobStatus;
+import com.example.pdfconverter.model.Requester;
+import com.example.pdfconverter.model.StoredResult;
+import com.example.pdfconverter.model.User;
+import com.example.pdfconverter.service.ConversionJobService;
+import com.example.pdfconverter.service.FileDownloadService;
+import com.example.pdfconverter.service.OutputProfileResolver;
+import com.example.pdfconverter.store.ResultStore;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+@RestController
+@RequestMapping("/api/convert/jobs")
+@RequiredArgsConstructor
+public class ConversionJobController {
+
+    private final ConversionJobService conversionJobService;
+    private final OutputProfileResolver outputProfileResolver;
+    private final FileDownloadService fileDownloadService;
+    private final ResultStore resultStore;
+
+    @Operation(summary = "Queue a file for asynchronous conversion to PDF")
+    @ApiResponses({
+            @ApiResponse(responseCode = "202", description = "Job accepted, poll the status link"),
+            @ApiResponse(responseCode = "401", description = "Unauthorized"),
+            @ApiResponse(responseCode = "503", description = "Job queue is full")
+    })
+    @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<?> submitJob(
+            @RequestParam("file") MultipartFile file,
+            @RequestParam(value = "profile", required = false) String profile,
+            Authentication authentication
+    ) throws Exception {
+        if (authentication == null || !authentication.isAuthenticated()) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Unauthorized"));
+        }
+
+        ConversionJob job = conversionJobService.submit(file, Requester.of((User) authentication.getPrincipal()),
+                outputProfileResolver.resolve(profile, authentication));
+        return accepted(job);
+    }
+
+    @Operation(summary = "Get the status of a conversion job")
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Job status"),
+            @ApiResponse(responseCode = "404", description = "Job not found"),
+            @ApiResponse(responseCode = "401", description = "Unauthorized")
+    })
+    @GetMapping("/{jobId}")
+    public ResponseEntity<?> getJob(@PathVariable String jobId, Authentication authentication) {
+        if (authentication == null || !authentication.isAuthenticated()) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Unauthorized"));
+        }
+
+        Optional<ConversionJob> job = conversionJobService.find(jobId, currentUserId(authentication));
+        if (job.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "Job not found"));
+        }
+        return ResponseEntity.ok(describe(job.get()));
+    }
+
+    @Operation(summary = "Download the PDF produced by a finished conversion job")
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "PDF downloaded"),
+            @ApiResponse(responseCode = "206", description = "Requested byte ranges of the PDF"),
+            @ApiResponse(responseCode = "304", description = "PDF not modified since the cached copy"),
+            @ApiResponse(responseCode = "404", description = "Job not found"),
+            @ApiResponse(responseCode = "409", description = "Job is not finished or has failed"),
+            @ApiResponse(responseCode = "401", description = "Unauthorized")
+    })
+    @GetMapping("/{jobId}/result")
+    public ResponseEntity<?> getJobResult(@PathVariable String jobId, Authentication authentication,
+                                          HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (authentication == null || !authentication.isAuthenticated()) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Unauthorized"));
+        }
+
+        Optional<ConversionJob> found = conversionJobService.find(jobId, currentUserId(authentication));
+        if (found.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "Job not found"));
+        }
+        ConversionJob job = found.get();
+        if (job.getStatus() != JobStatus.DONE) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(describe(job));
+        }
+
+        Optional<StoredResult> result = resultStore.find(job.getResultId(), currentUserId(authentication));
+        if (result.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "The result has expired"));
+        }
+
+        fileDownloadService.serve(result.get().getPath(), MediaType.APPLICATION_PDF_VALUE,
+                result.get().getDownloadName(), request, response);
+        // the response has been written (or handed to sendfile) already
+        return null;
+    }
+
+    static ResponseEntity<Map<String, Object>> accepted(ConversionJob job) {
+        return ResponseEntity.accepted()
+                .location(URI.create(statusUrl(job)))
+                .body(describe(job));
+    }
+
+    private static Map<String, Object> describe(ConversionJob job) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("jobId", job.getId());
+        body.put("status", job.getStatus());
+        body.put("statusUrl", statusUrl(job));
+        if (job.getStatus() == JobStatus.DONE) {
+            body.put("resultUrl", statusUrl(job) + "/result");
+        }
+        if (job.getError() != null) {
+            body.put("error", job.getError());
+        }
+        if (job.isRetryable()) {
+            body.put("retryable", true);
+            body.put("retryAfterSeconds", job.getRetryAfterSeconds());
+        }
+        return body;
+    }
+
+    private static String statusUrl(ConversionJob job) {
+        return "/api/convert/jobs/" + job.getId();
+    }
+
+    private String currentUserId(Authentication authentication) {
+        return ((User) authentication.getPrincipal()).getId();
+    }
+}
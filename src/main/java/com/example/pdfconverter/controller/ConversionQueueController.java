@@ -0,0 +1,41 @@
+package com.example.pdfconverter.controller;
+
+import com.example.pdfconverter.model.SubscriptionType;
+import com.example.pdfconverter.service.ConversionBulkheads;
+import com.example.pdfconverter.service.QueueWaitStats;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/convert/queue")
+@RequiredArgsConstructor
+public class ConversionQueueController {
+
+    private final ConversionBulkheads conversionBulkheads;
+
+    @Operation(summary = "Get the time conversions waited in the queues, per subscription (admins only)")
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Queue wait percentiles per subscription"),
+            @ApiResponse(responseCode = "401", description = "Unauthorized"),
+            @ApiResponse(responseCode = "403", description = "Not an admin")
+    })
+    @GetMapping("/stats")
+    public ResponseEntity<?> getStats(Authentication authentication) {
+        if (authentication == null || !authentication.isAuthenticated()) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Unauthorized"));
+        }
+
+        Map<SubscriptionType, QueueWaitStats> stats = conversionBulkheads.queueWaitStats();
+        return ResponseEntity.ok(stats);
+    }
+}
@@ -1,26 +1,45 @@
 package com.example.pdfconverter.controller;
 
-import com.example.pdfconverter.exception.FileTooLargeRedirectException;
+import com.example.pdfconverter.exception.BatchFailedException;
+import com.example.pdfconverter.exception.ConversionQueuedException;
+import com.example.pdfconverter.filter.UploadIngestFilter;
+import com.example.pdfconverter.model.AlbumLayout;
+import com.example.pdfconverter.model.BatchItemResult;
+import com.example.pdfconverter.model.ConversionInput;
+import com.example.pdfconverter.model.OutputProfile;
+import com.example.pdfconverter.model.Requester;
+import com.example.pdfconverter.model.StoredResult;
+import com.example.pdfconverter.model.User;
+import com.example.pdfconverter.service.AlbumConversionService;
+import com.example.pdfconverter.service.BatchConversionService;
+import com.example.pdfconverter.service.ConversionJobService;
 import com.example.pdfconverter.service.ConversionService;
+import com.example.pdfconverter.service.FileDownloadService;
+import com.example.pdfconverter.service.OutputProfileResolver;
+import com.example.pdfconverter.store.ResultStore;
+import com.example.pdfconverter.upload.IngestedRequest;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.FileNotFoundException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.HashMap;
+import java.io.IOException;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api")
@@ -28,69 +47,220 @@ import java.util.Map;
 public class FileController {
 
     private final ConversionService conversionService;
+    private final ConversionJobService conversionJobService;
+    private final BatchConversionService batchConversionService;
+    private final AlbumConversionService albumConversionService;
+    private final OutputProfileResolver outputProfileResolver;
+    private final FileDownloadService fileDownloadService;
+    private final ResultStore resultStore;
 
     @Operation(summary = "Convert a file to PDF")
     @ApiResponses({
             @ApiResponse(responseCode = "200", description = "Successfully converted to PDF"),
-            @ApiResponse(responseCode = "302", description = "File too large, redirect to download link"),
-            @ApiResponse(responseCode = "401", description = "Unauthorized")
+            @ApiResponse(responseCode = "202", description = "File too large, queued as an asynchronous job"),
+            @ApiResponse(responseCode = "401", description = "Unauthorized"),
+            @ApiResponse(responseCode = "503", description = "Conversion queue for this format is full")
     })
     @PostMapping(value = "/convert", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public ResponseEntity<?> convertFile(
+    public ResponseEntity<StreamingResponseBody> convertFile(
             @RequestParam("file") MultipartFile file,
+            @RequestParam(value = "profile", required = false) String profile,
             Authentication authentication
     ) throws Exception {
         if (authentication == null || !authentication.isAuthenticated()) {
-            return ResponseEntity.status(401).body(Map.of("error", "Unauthorized"));
+            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Unauthorized");
         }
 
         String originalName = file.getOriginalFilename();
         String convertedName = (originalName != null ? originalName.replaceAll("\\.[^.]+$", "") : "converted") + "_converted.pdf";
 
+        // the upload was hashed while it was read in, the conversion cache reuses that hash
+        OutputProfile outputProfile = outputProfileResolver.resolve(profile, authentication);
+        Requester requester = Requester.of((User) authentication.getPrincipal());
+        // an unsupported upload is answered with a 415 now, not after the pdf headers went out
+        ConversionInput input = conversionService.prepare(
+                ConversionInput.of(file).withProfile(outputProfile).withRequester(requester));
+        // large files don't hold the connection open, the client polls the job instead
+        if (conversionService.exceedsInlineLimit(input)) {
+            throw new ConversionQueuedException(conversionJobService.submit(file, requester, outputProfile));
+        }
+        // a full queue is a 503 now, not a pdf download that breaks off
+        conversionService.admit(input);
+
+        // the pdf writer writes directly into the servlet output stream once the body is rendered
+        StreamingResponseBody body = outputStream -> {
+            try {
+                conversionService.convertToPdf(input, outputStream);
+            } catch (IOException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("Conversion failed", e);
+            }
+        };
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_PDF)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + convertedName)
+                .body(body);
+    }
+
+    @Operation(summary = "Convert many files in parallel into one merged PDF or a ZIP of PDFs")
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Merged PDF or ZIP archive, failed files are reported per file"),
+            @ApiResponse(responseCode = "401", description = "Unauthorized"),
+            @ApiResponse(responseCode = "422", description = "None of the files could be converted")
+    })
+    @PostMapping(value = "/convert/batch", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public CompletableFuture<ResponseEntity<StreamingResponseBody>> convertBatch(
+            @RequestParam("files") List<MultipartFile> files,
+            @RequestParam(value = "output", defaultValue = "pdf") String output,
+            @RequestParam(value = "profile", required = false) String profile,
+            @RequestAttribute(name = UploadIngestFilter.INGESTED_ATTRIBUTE, required = false) IngestedRequest ingested,
+            Authentication authentication
+    ) {
+        if (authentication == null || !authentication.isAuthenticated()) {
+            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Unauthorized");
+        }
+        boolean zip = "zip".equalsIgnoreCase(output);
+        if (!zip && !"pdf".equalsIgnoreCase(output)) {
+            throw new IllegalArgumentException("Unsupported batch output: " + output);
+        }
+
+        OutputProfile outputProfile = outputProfileResolver.resolve(profile, authentication);
+        Requester requester = Requester.of((User) authentication.getPrincipal());
+        List<ConversionInput> inputs = files.stream()
+                .map(file -> ConversionInput.of(file).withProfile(outputProfile).withRequester(requester))
+                .toList();
+        // no request thread is held while the files convert, the response is built once all are done
+        CompletableFuture<List<BatchItemResult>> conversions = batchConversionService.convertAll(inputs);
+        // the pdfs go once the response is written; when it never is (timeout, error, 422), once the
+        // request ends or, if they are only ready after that, once they are
+        if (ingested != null) {
+            ingested.onCleanUp(() -> conversions.thenAccept(batchConversionService::cleanup));
+        }
+        return conversions.thenApply(results -> batchResponse(results, zip, outputProfile));
+    }
+
+    private ResponseEntity<StreamingResponseBody> batchResponse(List<BatchItemResult> results, boolean zip,
+                                                               OutputProfile profile) {
+        List<BatchItemResult> failed = results.stream().filter(result -> !result.succeeded()).toList();
+        if (failed.size() == results.size()) {
+            throw new BatchFailedException(failed);
+        }
+
+        StreamingResponseBody body = outputStream -> {
+            try {
+                if (zip) {
+                    batchConversionService.writeZip(results, outputStream);
+                } else {
+                    batchConversionService.writeMerged(results, profile, outputStream);
+                }
+            } finally {
+                batchConversionService.cleanup(results);
+            }
+        };
+
+        // positions (1-based, in upload order) of the files that could not be converted
+        String failedPositions = failed.stream()
+                .map(result -> String.valueOf(result.position()))
+                .collect(Collectors.joining(","));
+        return ResponseEntity.ok()
+                .contentType(zip ? MediaType.parseMediaType("application/zip") : MediaType.APPLICATION_PDF)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + (zip ? "converted.zip" : "converted.pdf"))
+                .header("X-Batch-Converted", String.valueOf(results.size() - failed.size()))
+                .header("X-Batch-Failed", failedPositions)
+                .body(body);
+    }
+
+    @Operation(summary = "Put many images into one PDF, one per page or tiled in a grid")
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Album PDF, identical images are embedded once"),
+            @ApiResponse(responseCode = "400", description = "Not an image, unreadable image or invalid layout"),
+            @ApiResponse(responseCode = "401", description = "Unauthorized"),
+            @ApiResponse(responseCode = "503", description = "Image conversion queue is full")
+    })
+    @PostMapping(value = "/convert/album", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public CompletableFuture<ResponseEntity<StreamingResponseBody>> convertAlbum(
+            @RequestParam("files") List<MultipartFile> files,
+            @RequestParam(value = "layout", defaultValue = "page") String layout,
+            @RequestParam(value = "columns", defaultValue = "2") int columns,
+            @RequestParam(value = "rows", defaultValue = "3") int rows,
+            @RequestParam(value = "profile", required = false) String profile,
+            Authentication authentication
+    ) {
+        if (authentication == null || !authentication.isAuthenticated()) {
+            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Unauthorized");
+        }
+        AlbumLayout albumLayout;
         try {
-            byte[] pdfBytes = conversionService.convertToPdf(file);
+            albumLayout = AlbumLayout.valueOf(layout.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unsupported album layout: " + layout);
+        }
+        int maxGrid = AlbumConversionService.MAX_GRID;
+        if (albumLayout == AlbumLayout.GRID && (columns < 1 || rows < 1 || columns > maxGrid || rows > maxGrid)) {
+            throw new IllegalArgumentException("Grid columns and rows must be between 1 and " + maxGrid + ".");
+        }
+
+        OutputProfile outputProfile = outputProfileResolver.resolve(profile, authentication);
 
+        Requester requester = Requester.of((User) authentication.getPrincipal());
+        List<ConversionInput> inputs = files.stream()
+                .map(file -> ConversionInput.of(file).withRequester(requester))
+                .toList();
+        // images are decoded in parallel, the pdf is written once all of them are ready
+        return albumConversionService.prepareAll(inputs).thenApply(images -> {
+            StreamingResponseBody body = outputStream ->
+                    albumConversionService.writeAlbum(images, albumLayout, columns, rows, outputProfile, outputStream);
             return ResponseEntity.ok()
                     .contentType(MediaType.APPLICATION_PDF)
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + convertedName)
-                    .body(pdfBytes);
-
-        } catch (FileTooLargeRedirectException ex) {
-            Map<String, String> response = new HashMap<>();
-            response.put("message", "File too large. Download it from the provided link.");
-            response.put("downloadLink", "/api/files" + ex.getDownloadUrl());
-            return ResponseEntity.status(302).body(response);
-        }
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=album.pdf")
+                    .body(body);
+        });
+    }
+
+    // the streaming endpoints declare a pdf body, a queued conversion is answered here instead
+    @ExceptionHandler(ConversionQueuedException.class)
+    public ResponseEntity<Map<String, Object>> handleQueued(ConversionQueuedException e) {
+        return ConversionJobController.accepted(e.getJob());
+    }
+
+    // a batch without a single converted file, with the reason per file
+    @ExceptionHandler(BatchFailedException.class)
+    public ResponseEntity<Map<String, Object>> handleBatchFailed(BatchFailedException e) {
+        return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(Map.of(
+                "error", e.getMessage(),
+                "failed", e.getFailed().stream()
+                        .map(result -> Map.of("position", result.position(), "error", result.error()))
+                        .toList()));
     }
 
     @Operation(summary = "Download a previously generated PDF file")
     @ApiResponses({
             @ApiResponse(responseCode = "200", description = "File downloaded"),
+            @ApiResponse(responseCode = "206", description = "Requested byte ranges of the file"),
+            @ApiResponse(responseCode = "304", description = "File not modified since the cached copy"),
             @ApiResponse(responseCode = "404", description = "File not found"),
+            @ApiResponse(responseCode = "416", description = "Requested range not satisfiable"),
             @ApiResponse(responseCode = "401", description = "Unauthorized")
     })
-    @GetMapping("files/{filename:.+}")
+    @GetMapping("files/{fileId}")
     public ResponseEntity<?> downloadFile(
-            @PathVariable String filename,
-            Authentication authentication
+            @PathVariable String fileId,
+            Authentication authentication,
+            HttpServletRequest request,
+            HttpServletResponse response
     ) throws Exception {
         if (authentication == null || !authentication.isAuthenticated()) {
             return ResponseEntity.status(401).body(Map.of("error", "Unauthorized"));
         }
 
-        Path path = Paths.get("generated-files", filename).normalize();
-        if (!Files.exists(path)) {
-            throw new FileNotFoundException("File not found: " + filename);
-        }
-
-        Resource resource = new UrlResource(path.toUri());
-        if (!resource.exists() || !resource.isReadable()) {
-            throw new RuntimeException("File not readable: " + filename);
-        }
+        User user = (User) authentication.getPrincipal();
+        StoredResult result = resultStore.find(fileId, user.getId())
+                .orElseThrow(() -> new FileNotFoundException("File not found: " + fileId));
 
-        return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
-                .contentType(MediaType.APPLICATION_PDF)
-                .body(resource);
+        fileDownloadService.serve(result.getPath(), MediaType.APPLICATION_PDF_VALUE, result.getDownloadName(), request, response);
+        // the response has been written (or handed to sendfile) already
+        return null;
     }
 }
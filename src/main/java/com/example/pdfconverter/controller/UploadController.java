@@ -0,0 +1,261 @@
+package com.example.pdfconverter.controller;
+
+import com.example.pdfconverter.exception.ConversionQueuedException;
+import com.example.pdfconverter.model.ConversionInput;
+import com.example.pdfconverter.model.OutputProfile;
+import com.example.pdfconverter.model.Requester;
+import com.example.pdfconverter.model.User;
+import com.example.pdfconverter.service.ConversionJobService;
+import com.example.pdfconverter.service.ConversionService;
+import com.example.pdfconverter.service.OutputProfileResolver;
+import com.example.pdfconverter.upload.ChunkedUpload;
+import com.example.pdfconverter.upload.ChunkedUploadService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+
+@RestController
+@RequestMapping("/api/uploads")
+@RequiredArgsConstructor
+@Slf4j
+public class UploadController {
+
+    private final ChunkedUploadService chunkedUploadService;
+    private final ConversionService conversionService;
+    private final ConversionJobService conversionJobService;
+    private final OutputProfileResolver outputProfileResolver;
+
+    @Operation(summary = "Start a chunked upload")
+    @ApiResponses({
+            @ApiResponse(responseCode = "201", description = "Upload started, send the chunks next"),
+            @ApiResponse(responseCode = "400", description = "Invalid file name, size or chunk size"),
+            @ApiResponse(responseCode = "401", description = "Unauthorized"),
+            @ApiResponse(responseCode = "409", description = "Too many unfinished uploads")
+    })
+    @PostMapping
+    public ResponseEntity<?> initiate(
+            @RequestParam("filename") String filename,
+            @RequestParam("size") long size,
+            @RequestParam(value = "contentType", required = false) String contentType,
+            @RequestParam(value = "chunkSize", required = false) Integer chunkSize,
+            Authentication authentication
+    ) throws IOException {
+        if (authentication == null || !authentication.isAuthenticated()) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Unauthorized"));
+        }
+        try {
+            ChunkedUpload upload = chunkedUploadService.initiate(currentUserId(authentication), filename, contentType, size, chunkSize);
+            return ResponseEntity.created(URI.create(uploadUrl(upload))).body(describe(upload));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @Operation(summary = "Upload one chunk, the Content-MD5 header must carry the base64 md5 of the chunk")
+    @ApiResponses({
+            @ApiResponse(responseCode = "204", description = "Chunk stored"),
+            @ApiResponse(responseCode = "400", description = "Wrong chunk length or checksum mismatch, send it again"),
+            @ApiResponse(responseCode = "401", description = "Unauthorized"),
+            @ApiResponse(responseCode = "404", description = "Upload not found"),
+            @ApiResponse(responseCode = "409", description = "Chunk is being uploaded or the upload is completed")
+    })
+    @PutMapping("/{uploadId}/chunks/{index}")
+    public ResponseEntity<?> uploadChunk(
+            @PathVariable String uploadId,
+            @PathVariable int index,
+            @RequestHeader(value = "Content-MD5", required = false) String contentMd5,
+            HttpServletRequest request,
+            Authentication authentication
+    ) throws IOException {
+        if (authentication == null || !authentication.isAuthenticated()) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Unauthorized"));
+        }
+        Optional<ChunkedUpload> found = chunkedUploadService.find(uploadId, currentUserId(authentication));
+        if (found.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "Upload not found"));
+        }
+        try (InputStream body = request.getInputStream()) {
+            chunkedUploadService.writeChunk(found.get(), index, contentMd5, body);
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", e.getMessage()));
+        }
+        return ResponseEntity.noContent().build();
+    }
+
+    @Operation(summary = "Get the progress of a chunked upload")
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Upload status with the missing chunks"),
+            @ApiResponse(responseCode = "404", description = "Upload not found"),
+            @ApiResponse(responseCode = "401", description = "Unauthorized")
+    })
+    @GetMapping("/{uploadId}")
+    public ResponseEntity<?> getUpload(@PathVariable String uploadId, Authentication authentication) {
+        if (authentication == null || !authentication.isAuthenticated()) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Unauthorized"));
+        }
+        return chunkedUploadService.find(uploadId, currentUserId(authentication))
+                .<ResponseEntity<?>>map(upload -> ResponseEntity.ok(describe(upload)))
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "Upload not found")));
+    }
+
+    @Operation(summary = "Abort a chunked upload")
+    @ApiResponses({
+            @ApiResponse(responseCode = "204", description = "Upload removed"),
+            @ApiResponse(responseCode = "404", description = "Upload not found"),
+            @ApiResponse(responseCode = "401", description = "Unauthorized")
+    })
+    @DeleteMapping("/{uploadId}")
+    public ResponseEntity<?> abort(@PathVariable String uploadId, Authentication authentication) {
+        if (authentication == null || !authentication.isAuthenticated()) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Unauthorized"));
+        }
+        Optional<ChunkedUpload> found = chunkedUploadService.find(uploadId, currentUserId(authentication));
+        if (found.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "Upload not found"));
+        }
+        chunkedUploadService.abort(found.get());
+        return ResponseEntity.noContent().build();
+    }
+
+    @Operation(summary = "Complete a chunked upload and convert it to PDF")
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Successfully converted to PDF"),
+            @ApiResponse(responseCode = "202", description = "File too large, queued as an asynchronous job"),
+            @ApiResponse(responseCode = "401", description = "Unauthorized"),
+            @ApiResponse(responseCode = "404", description = "Upload not found"),
+            @ApiResponse(responseCode = "409", description = "Chunks are still missing"),
+            @ApiResponse(responseCode = "503", description = "Conversion queue for this format is full")
+    })
+    @PostMapping("/{uploadId}/complete")
+    public ResponseEntity<StreamingResponseBody> complete(
+            @PathVariable String uploadId,
+            @RequestParam(value = "profile", required = false) String profile,
+            HttpServletRequest request,
+            Authentication authentication
+    ) throws IOException {
+        if (authentication == null || !authentication.isAuthenticated()) {
+            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Unauthorized");
+        }
+        String userId = currentUserId(authentication);
+        ChunkedUpload upload = chunkedUploadService.find(uploadId, userId)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Upload not found"));
+        OutputProfile outputProfile = outputProfileResolver.resolve(profile, authentication);
+        ConversionInput input;
+        try {
+            input = chunkedUploadService.complete(upload).withProfile(outputProfile)
+                    .withRequester(Requester.of((User) authentication.getPrincipal()));
+        } catch (IllegalStateException e) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage());
+        }
+        Path file = upload.getFile();
+
+        // from here on the assembled file is ours: it goes to the job queue, or is deleted once it is
+        // converted or the request is over, whether the body ran or not (async timeout, client gone)
+        boolean streaming = false;
+        try {
+            // an unsupported upload is answered with a 415 now, not after the pdf headers went out
+            ConversionInput prepared = conversionService.prepare(input);
+            // the assembled file is converted where it is, without another copy
+            if (conversionService.exceedsInlineLimit(prepared)) {
+                throw new ConversionQueuedException(conversionJobService.submit(prepared, file, userId));
+            }
+            // a full queue is a 503 now, not a pdf download that breaks off
+            conversionService.admit(prepared);
+            String convertedName = prepared.originalFilename().replaceAll("\\.[^.]+$", "") + "_converted.pdf";
+            StreamingResponseBody body = outputStream -> {
+                try {
+                    conversionService.convertToPdf(prepared, outputStream);
+                } catch (IOException | RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException("Conversion failed", e);
+                } finally {
+                    deleteQuietly(file);
+                }
+            };
+            // the body may never run, the async completion always does
+            WebAsyncUtils.getAsyncManager(request).registerCallableInterceptor(file, new CallableProcessingInterceptor() {
+                @Override
+                public <T> void afterCompletion(NativeWebRequest webRequest, Callable<T> task) {
+                    deleteQuietly(file);
+                }
+            });
+            streaming = true;
+            return ResponseEntity.ok()
+                    .contentType(MediaType.APPLICATION_PDF)
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + convertedName)
+                    .body(body);
+        } finally {
+            // a queued job has moved the file away already
+            if (!streaming) {
+                deleteQuietly(file);
+            }
+        }
+    }
+
+    // the streaming endpoint declares a pdf body, a queued conversion is answered here instead
+    @ExceptionHandler(ConversionQueuedException.class)
+    public ResponseEntity<Map<String, Object>> handleQueued(ConversionQueuedException e) {
+        return ConversionJobController.accepted(e.getJob());
+    }
+
+    private static Map<String, Object> describe(ChunkedUpload upload) {
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < upload.getChunkCount(); i++) {
+            if (!upload.isChunkReceived(i)) {
+                missing.add(i);
+            }
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("uploadId", upload.getId());
+        body.put("filename", upload.getOriginalFilename());
+        body.put("size", upload.getSize());
+        body.put("chunkSize", upload.getChunkSize());
+        body.put("chunkCount", upload.getChunkCount());
+        body.put("missingChunks", missing);
+        body.put("uploadUrl", uploadUrl(upload));
+        return body;
+    }
+
+    private static String uploadUrl(ChunkedUpload upload) {
+        return "/api/uploads/" + upload.getId();
+    }
+
+    private String currentUserId(Authentication authentication) {
+        return ((User) authentication.getPrincipal()).getId();
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Failed to delete {}: {}", file, e.getMessage());
+        }
+    }
+}
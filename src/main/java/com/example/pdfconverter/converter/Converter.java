@@ -0,0 +1,25 @@
+package com.example.pdfconverter.converter;
+
+import com.example.pdfconverter.model.ConversionFormat;
+import com.example.pdfconverter.model.ConversionInput;
+
+import java.io.OutputStream;
+
+// A converter for one sniffed input format. Every Spring bean implementing this is picked up by the
+// ConverterRegistry; when several handle the same format the one with the highest priority wins, so
+// an alternative implementation can replace a built-in one just by being registered.
+public interface Converter {
+
+    ConversionFormat format();
+
+    default int priority() {
+        return 0;
+    }
+
+    // the input has already been sniffed as format(), the profile is always set
+    void convert(ConversionInput input, OutputStream outputStream) throws Exception;
+
+    // everything besides the content and the converter version that changes the produced pdf,
+    // part of the conversion cache key
+    String variant(ConversionInput input);
+}
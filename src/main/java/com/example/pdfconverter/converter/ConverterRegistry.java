@@ -0,0 +1,32 @@
+package com.example.pdfconverter.converter;
+
+import com.example.pdfconverter.model.ConversionFormat;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+@Component
+@Slf4j
+public class ConverterRegistry {
+    private final Map<ConversionFormat, Converter> converters = new EnumMap<>(ConversionFormat.class);
+
+    public ConverterRegistry(List<Converter> available) {
+        available.stream()
+                .sorted(Comparator.comparingInt(Converter::priority).reversed())
+                .forEach(converter -> converters.putIfAbsent(converter.format(), converter));
+        converters.forEach((format, converter) ->
+                log.info("Converter for {}: {} (priority {})", format, converter.getClass().getSimpleName(), converter.priority()));
+    }
+
+    public Converter forFormat(ConversionFormat format) {
+        Converter converter = converters.get(format);
+        if (converter == null) {
+            throw new UnsupportedOperationException("No converter available for " + format + " files.");
+        }
+        return converter;
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.pdfconverter.converter;
+
+import com.example.pdfconverter.fonts.FontRegistry;
+import com.example.pdfconverter.model.ConversionFormat;
+import com.example.pdfconverter.model.ConversionInput;
+import com.example.pdfconverter.utils.CsvRowReader;
+import com.example.pdfconverter.utils.PdfUtils;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.CharBuffer;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+@Component
+@RequiredArgsConstructor
+public class CsvConverter implements Converter {
+    private static final int DELIMITER_SAMPLE_CHARS = 16 * 1024;
+
+    private final FontRegistry fontRegistry;
+
+    @Value("${pdf.table.sample-rows:200}")
+    private int sampleRows;
+    @Value("${pdf.table.max-cell-chars:1000}")
+    private int maxCellChars;
+
+    @Override
+    public ConversionFormat format() {
+        return ConversionFormat.CSV;
+    }
+
+    @Override
+    public void convert(ConversionInput input, OutputStream outputStream) throws Exception {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input.openStream(), StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)), 64 * 1024);
+        try (CsvRowReader rows = new CsvRowReader(reader, detectDelimiter(reader), maxCellChars)) {
+            PdfUtils.streamTableToPdf(rows, outputStream, fontRegistry.newProvider(), input.profile(), sampleRows);
+        }
+    }
+
+    @Override
+    public String variant(ConversionInput input) {
+        return sampleRows + "-" + maxCellChars + "-" + input.profile().name().toLowerCase();
+    }
+
+    // peeks at the start of the file, also skips the byte order mark spreadsheet exports often have
+    private char detectDelimiter(BufferedReader reader) throws Exception {
+        reader.mark(DELIMITER_SAMPLE_CHARS + 1);
+        CharBuffer sample = CharBuffer.allocate(DELIMITER_SAMPLE_CHARS);
+        while (sample.hasRemaining() && reader.read(sample) != -1) {
+            // fill the whole sample
+        }
+        reader.reset();
+        sample.flip();
+        if (sample.length() > 0 && sample.charAt(0) == '\uFEFF') {
+            reader.skip(1);
+            sample.position(1);
+        }
+        return CsvRowReader.detectDelimiter(sample.toString());
+    }
+}
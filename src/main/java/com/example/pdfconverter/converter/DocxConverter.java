@@ -0,0 +1,34 @@
+package com.example.pdfconverter.converter;
+
+import com.example.pdfconverter.model.ConversionFormat;
+import com.example.pdfconverter.model.ConversionInput;
+import com.example.pdfconverter.office.OfficeWorkerPool;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+@Component
+@RequiredArgsConstructor
+public class DocxConverter implements Converter {
+    private final OfficeWorkerPool officeWorkerPool;
+
+    @Override
+    public ConversionFormat format() {
+        return ConversionFormat.DOCX;
+    }
+
+    @Override
+    public void convert(ConversionInput input, OutputStream outputStream) throws Exception {
+        try (InputStream content = input.openStream()) {
+            officeWorkerPool.convert(content, outputStream);
+        }
+    }
+
+    // office output is written by LibreOffice, the output profile doesn't change it
+    @Override
+    public String variant(ConversionInput input) {
+        return "office";
+    }
+}
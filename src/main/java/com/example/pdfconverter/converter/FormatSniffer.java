@@ -0,0 +1,200 @@
+package com.example.pdfconverter.converter;
+
+import com.example.pdfconverter.model.ConversionFormat;
+import com.example.pdfconverter.model.ConversionInput;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+// Detects the real format of an upload from its content instead of the client-supplied content type
+// and file name. Only the first few KB are read, plus the central directory for zip containers
+// (which sits at the end of the file, reached by skipping instead of reading through the archive).
+@Component
+@Slf4j
+public class FormatSniffer {
+    private static final int HEAD_BYTES = 8 * 1024;
+    // end of central directory record: 22 bytes plus a comment of at most 64 KB
+    private static final int EOCD_MIN_LENGTH = 22;
+    private static final int EOCD_MAX_LENGTH = EOCD_MIN_LENGTH + 0xFFFF;
+    private static final int MAX_CENTRAL_DIRECTORY_BYTES = 4 * 1024 * 1024;
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_ENTRY_SIGNATURE = 0x02014b50;
+    // text with more control characters than this is binary data
+    private static final double MAX_CONTROL_CHAR_RATIO = 0.05;
+
+    public ConversionFormat sniff(ConversionInput input) throws IOException {
+        if (input.size() == 0) {
+            throw new IllegalArgumentException("The uploaded file is empty.");
+        }
+        byte[] head;
+        try (InputStream content = input.openStream()) {
+            head = content.readNBytes(HEAD_BYTES);
+        }
+
+        ConversionFormat format;
+        if (startsWith(head, 0xFF, 0xD8, 0xFF)
+                || startsWith(head, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)
+                || startsWith(head, 'G', 'I', 'F', '8')
+                || isBmp(head)) {
+            format = ConversionFormat.IMAGE;
+        } else if (startsWith(head, 'P', 'K', 0x03, 0x04)) {
+            format = sniffZip(input);
+        } else if (startsWith(head, '%', 'P', 'D', 'F')) {
+            throw new UnsupportedOperationException("The file is already a PDF.");
+        } else if (looksLikeText(head)) {
+            // csv is plain text, only the declared type or name tells it apart
+            format = declaredAsCsv(input) ? ConversionFormat.CSV : ConversionFormat.TEXT;
+        } else {
+            throw new UnsupportedOperationException("Unsupported file format: " + input.originalFilename());
+        }
+
+        if (input.contentType() != null && !matchesDeclared(format, input.contentType(), input.originalFilename())) {
+            log.info("Upload {} declared as {} was sniffed as {}", input.originalFilename(), input.contentType(), format);
+        }
+        return format;
+    }
+
+    private ConversionFormat sniffZip(ConversionInput input) throws IOException {
+        Set<String> entries = centralDirectoryEntries(input);
+        boolean openXml = entries.contains("[Content_Types].xml");
+        if (openXml && entries.stream().anyMatch(name -> name.startsWith("word/"))) {
+            return ConversionFormat.DOCX;
+        }
+        if (openXml && entries.contains("xl/workbook.xml")) {
+            return ConversionFormat.XLSX;
+        }
+        throw new UnsupportedOperationException("Unsupported ZIP-based format: " + input.originalFilename());
+    }
+
+    // names of all entries, read from the central directory without touching the compressed data
+    private Set<String> centralDirectoryEntries(ConversionInput input) throws IOException {
+        long size = input.size();
+        int tailLength = (int) Math.min(size, EOCD_MAX_LENGTH);
+        long tailStart = size - tailLength;
+        byte[] tail;
+        try (InputStream content = input.openStream()) {
+            content.skipNBytes(tailStart);
+            tail = content.readNBytes(tailLength);
+        }
+
+        int eocd = -1;
+        for (int i = tail.length - EOCD_MIN_LENGTH; i >= 0; i--) {
+            if (readInt(tail, i) == EOCD_SIGNATURE) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0) {
+            throw malformedZip();
+        }
+        long directorySize = readInt(tail, eocd + 12) & 0xFFFFFFFFL;
+        long directoryOffset = readInt(tail, eocd + 16) & 0xFFFFFFFFL;
+        if (directorySize > MAX_CENTRAL_DIRECTORY_BYTES || directoryOffset + directorySize > tailStart + eocd) {
+            throw malformedZip();
+        }
+
+        byte[] directory;
+        int position;
+        if (directoryOffset >= tailStart) {
+            directory = tail;
+            position = (int) (directoryOffset - tailStart);
+        } else {
+            try (InputStream content = input.openStream()) {
+                content.skipNBytes(directoryOffset);
+                directory = content.readNBytes((int) directorySize);
+            }
+            position = 0;
+        }
+
+        Set<String> names = new HashSet<>();
+        int end = position + (int) directorySize;
+        while (position < end) {
+            if (position + 46 > end || readInt(directory, position) != CENTRAL_ENTRY_SIGNATURE) {
+                throw malformedZip();
+            }
+            int nameLength = readShort(directory, position + 28);
+            int extraLength = readShort(directory, position + 30);
+            int commentLength = readShort(directory, position + 32);
+            if (position + 46 + nameLength > end) {
+                throw malformedZip();
+            }
+            names.add(new String(directory, position + 46, nameLength, StandardCharsets.UTF_8));
+            position += 46 + nameLength + extraLength + commentLength;
+        }
+        return names;
+    }
+
+    // no NUL bytes and hardly any other control characters; the encoding itself is not checked,
+    // text conversion replaces what isn't valid utf-8
+    private boolean looksLikeText(byte[] head) {
+        int control = 0;
+        for (byte b : head) {
+            if (b == 0) {
+                return false;
+            }
+            if (b < 0x20 && b != '\n' && b != '\r' && b != '\t' && b != '\f' && b != 0x1B) {
+                control++;
+            }
+        }
+        return control <= head.length * MAX_CONTROL_CHAR_RATIO;
+    }
+
+    private boolean matchesDeclared(ConversionFormat format, String contentType, String originalFilename) {
+        String name = originalFilename == null ? "" : originalFilename.toLowerCase();
+        return switch (format) {
+            case TEXT -> contentType.startsWith("text/") || name.endsWith(".txt");
+            case IMAGE -> contentType.startsWith("image/");
+            case DOCX -> contentType.contains("wordprocessingml") || name.endsWith(".docx");
+            case CSV -> true;
+            case XLSX -> contentType.contains("spreadsheetml") || name.endsWith(".xlsx");
+        };
+    }
+
+    private boolean declaredAsCsv(ConversionInput input) {
+        String contentType = input.contentType() == null ? "" : input.contentType().toLowerCase();
+        String name = input.originalFilename() == null ? "" : input.originalFilename().toLowerCase();
+        return contentType.startsWith("text/csv") || contentType.startsWith("text/tab-separated-values")
+                || name.endsWith(".csv") || name.endsWith(".tsv");
+    }
+
+    // "BM" alone is too common at the start of text, so the header has to add up: the reserved
+    // bytes 6-9 are zero and the DIB header at 14 has one of the sizes Windows and OS/2 use
+    private static boolean isBmp(byte[] head) {
+        if (!startsWith(head, 'B', 'M') || head.length < 18 || readInt(head, 6) != 0) {
+            return false;
+        }
+        int dibHeaderSize = readInt(head, 14);
+        return dibHeaderSize == 12 || dibHeaderSize == 40 || dibHeaderSize == 108 || dibHeaderSize == 124;
+    }
+
+    private static boolean startsWith(byte[] data, int... prefix) {
+        if (data.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if ((data[i] & 0xFF) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // zip and bmp integers are little endian
+    private static int readInt(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8
+                | (data[offset + 2] & 0xFF) << 16 | (data[offset + 3] & 0xFF) << 24;
+    }
+
+    private static int readShort(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8;
+    }
+
+    private static IllegalArgumentException malformedZip() {
+        return new IllegalArgumentException("The file looks like a ZIP archive but is malformed.");
+    }
+}
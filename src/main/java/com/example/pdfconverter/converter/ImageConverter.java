@@ -0,0 +1,34 @@
+package com.example.pdfconverter.converter;
+
+import com.example.pdfconverter.model.ConversionFormat;
+import com.example.pdfconverter.model.ConversionInput;
+import com.example.pdfconverter.utils.PdfUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+@Component
+public class ImageConverter implements Converter {
+    // images bigger than the page at this resolution are downscaled
+    @Value("${pdf.image.target-dpi:150}")
+    private int targetDpi;
+
+    @Override
+    public ConversionFormat format() {
+        return ConversionFormat.IMAGE;
+    }
+
+    @Override
+    public void convert(ConversionInput input, OutputStream outputStream) throws Exception {
+        try (InputStream content = input.openStream()) {
+            PdfUtils.convertImageToPdf(content, outputStream, targetDpi, input.profile());
+        }
+    }
+
+    @Override
+    public String variant(ConversionInput input) {
+        return targetDpi + "dpi-" + input.profile().name().toLowerCase();
+    }
+}
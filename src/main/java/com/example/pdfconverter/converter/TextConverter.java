@@ -0,0 +1,55 @@
+package com.example.pdfconverter.converter;
+
+import com.example.pdfconverter.fonts.FontRegistry;
+import com.example.pdfconverter.model.ConversionFormat;
+import com.example.pdfconverter.model.ConversionInput;
+import com.example.pdfconverter.service.ParallelTextConverter;
+import com.example.pdfconverter.utils.PdfUtils;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class TextConverter implements Converter {
+    private final FontRegistry fontRegistry;
+    private final ParallelTextConverter parallelTextConverter;
+    // "streaming" paginates line by line, "legacy" keeps the old single-paragraph path for comparison
+    @Value("${pdf.text.mode:streaming}")
+    private String textMode;
+
+    @Override
+    public ConversionFormat format() {
+        return ConversionFormat.TEXT;
+    }
+
+    @Override
+    public void convert(ConversionInput input, OutputStream outputStream) throws Exception {
+        long start = System.nanoTime();
+        String mode = textMode;
+        try (InputStream content = input.openStream()) {
+            if ("legacy".equalsIgnoreCase(textMode)) {
+                PdfUtils.convertTxtToPdf(content, outputStream, fontRegistry.newProvider(), input.profile());
+            } else if (parallelTextConverter.isWorthIt(input.size())) {
+                mode = "parallel";
+                parallelTextConverter.convert(content, outputStream, input.profile());
+            } else {
+                PdfUtils.streamTxtToPdf(content, outputStream, fontRegistry.newProvider(), input.profile());
+            }
+        }
+        long elapsedNanos = Math.max(System.nanoTime() - start, 1);
+        double megabytes = input.size() / (1024.0 * 1024.0);
+        log.info("TXT converted in {} mode: {} bytes in {} ms ({} MB/s)", mode, input.size(),
+                elapsedNanos / 1_000_000, String.format("%.2f", megabytes / (elapsedNanos / 1e9)));
+    }
+
+    @Override
+    public String variant(ConversionInput input) {
+        return textMode.toLowerCase() + "-" + input.profile().name().toLowerCase();
+    }
+}
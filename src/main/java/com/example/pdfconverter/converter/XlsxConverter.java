@@ -0,0 +1,61 @@
+package com.example.pdfconverter.converter;
+
+import com.example.pdfconverter.fonts.FontRegistry;
+import com.example.pdfconverter.model.ConversionFormat;
+import com.example.pdfconverter.model.ConversionInput;
+import com.example.pdfconverter.utils.PdfUtils;
+import com.example.pdfconverter.utils.XlsxRowReader;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+@Component
+@RequiredArgsConstructor
+public class XlsxConverter implements Converter {
+    private final FontRegistry fontRegistry;
+
+    @Value("${pdf.table.sample-rows:200}")
+    private int sampleRows;
+    @Value("${pdf.table.max-cell-chars:1000}")
+    private int maxCellChars;
+
+    @Override
+    public ConversionFormat format() {
+        return ConversionFormat.XLSX;
+    }
+
+    // the workbook parts can come in any order inside the zip, so it is read from a file
+    @Override
+    public void convert(ConversionInput input, OutputStream outputStream) throws Exception {
+        Path spooled = null;
+        Path file;
+        if (input.content() instanceof FileSystemResource resource) {
+            file = resource.getFile().toPath();
+        } else {
+            spooled = Files.createTempFile("xlsx-", ".xlsx");
+            try (InputStream content = input.openStream()) {
+                Files.copy(content, spooled, StandardCopyOption.REPLACE_EXISTING);
+            }
+            file = spooled;
+        }
+        try (XlsxRowReader rows = new XlsxRowReader(file, maxCellChars)) {
+            PdfUtils.streamTableToPdf(rows, outputStream, fontRegistry.newProvider(), input.profile(), sampleRows);
+        } finally {
+            if (spooled != null) {
+                Files.deleteIfExists(spooled);
+            }
+        }
+    }
+
+    @Override
+    public String variant(ConversionInput input) {
+        return sampleRows + "-" + maxCellChars + "-" + input.profile().name().toLowerCase();
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.pdfconverter.exception;
+
+import com.example.pdfconverter.model.BatchItemResult;
+
+import java.util.List;
+
+// None of the files of a batch could be converted, failed carries the reason per file
+public class BatchFailedException extends RuntimeException {
+    private final transient List<BatchItemResult> failed;
+
+    public BatchFailedException(List<BatchItemResult> failed) {
+        super("None of the files could be converted");
+        this.failed = failed;
+    }
+
+    public List<BatchItemResult> getFailed() {
+        return failed;
+    }
+}
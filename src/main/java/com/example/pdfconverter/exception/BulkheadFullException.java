@@ -0,0 +1,20 @@
+package com.example.pdfconverter.exception;
+
+public class BulkheadFullException extends RuntimeException {
+    private final String bulkhead;
+    private final long retryAfterSeconds;
+
+    public BulkheadFullException(String bulkhead, String message, long retryAfterSeconds) {
+        super(message);
+        this.bulkhead = bulkhead;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public String getBulkhead() {
+        return bulkhead;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.pdfconverter.exception;
+
+import com.example.pdfconverter.model.ConversionJob;
+
+// Not an error: a conversion endpoint that streams the pdf handed the file to the job queue instead,
+// the client gets a 202 with the job to poll. No stack trace, it is thrown on every large upload.
+public class ConversionQueuedException extends RuntimeException {
+    private final transient ConversionJob job;
+
+    public ConversionQueuedException(ConversionJob job) {
+        super("Conversion queued as job " + job.getId(), null, false, false);
+        this.job = job;
+    }
+
+    public ConversionJob getJob() {
+        return job;
+    }
+}
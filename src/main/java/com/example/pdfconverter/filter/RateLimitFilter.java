@@ -1,9 +1,15 @@
 package com.example.pdfconverter.filter;
 
+import com.example.pdfconverter.converter.FormatSniffer;
+import com.example.pdfconverter.model.ConversionFormat;
+import com.example.pdfconverter.model.ConversionInput;
 import com.example.pdfconverter.model.RateLimitResult;
 import com.example.pdfconverter.model.SubscriptionType;
 import com.example.pdfconverter.model.User;
 import com.example.pdfconverter.service.RateLimitService;
+import com.example.pdfconverter.upload.ChunkedUpload;
+import com.example.pdfconverter.upload.ChunkedUploadService;
+import com.example.pdfconverter.upload.IngestedRequest;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -13,16 +19,15 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.core.annotation.Order;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
-import org.springframework.util.DigestUtils;
 import org.springframework.web.filter.OncePerRequestFilter;
-import org.springframework.web.multipart.MultipartFile;
-import org.springframework.web.multipart.MultipartHttpServletRequest;
-import org.springframework.web.multipart.support.StandardServletMultipartResolver;
-import org.springframework.web.util.ContentCachingRequestWrapper;
 import org.springframework.security.core.context.SecurityContextHolder;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 @Component
 @Order(2)
@@ -30,7 +35,13 @@ import java.util.Objects;
 @Slf4j
 public class RateLimitFilter extends OncePerRequestFilter {
 
+    private static final Set<String> CONVERSION_URIS = Set.of("/api/convert", "/api/convert/jobs", "/api/convert/batch", "/api/convert/album");
+    // completing a chunked upload starts its conversion
+    private static final Pattern COMPLETE_UPLOAD_URI = Pattern.compile("/api/uploads/([^/]+)/complete");
+
     private final RateLimitService rateLimitService;
+    private final ChunkedUploadService chunkedUploadService;
+    private final FormatSniffer formatSniffer;
 
     private String getUserId(HttpServletRequest request) {
         var auth = SecurityContextHolder.getContext().getAuthentication();
@@ -48,32 +59,11 @@ public class RateLimitFilter extends OncePerRequestFilter {
         return SubscriptionType.FREE;
     }
 
-    private String getFileHash(HttpServletRequest request) {
-        try {
-            if (request instanceof ContentCachingRequestWrapper) {
-                ContentCachingRequestWrapper wrappedRequest = (ContentCachingRequestWrapper) request;
-
-                // For multipart requests
-                if (request.getContentType() != null &&
-                        request.getContentType().startsWith("multipart/form-data")) {
-
-                    StandardServletMultipartResolver resolver = new StandardServletMultipartResolver();
-                    if (resolver.isMultipart(request)) {
-                        MultipartHttpServletRequest multipartRequest = resolver.resolveMultipart(request);
-                        MultipartFile file = multipartRequest.getFile("file");
-                        if (file != null && !file.isEmpty()) {
-                            return DigestUtils.md5DigestAsHex(file.getBytes());
-                        }
-                    }
-                }
-                // For regular requests
-                byte[] content = wrappedRequest.getContentAsByteArray();
-                if (content.length > 0) {
-                    return DigestUtils.md5DigestAsHex(content);
-                }
-            }
-        } catch (Exception e) {
-            log.warn("Failed to calculate full file hash: {}", e.getMessage());
+    // hash of the upload as computed by the ingest filter, of the first one in a batch; the rate limiter
+    // checks and counts every file of a batch under its own hash
+    private String getFileHash(HttpServletRequest request, IngestedRequest ingested) {
+        if (ingested != null && !ingested.uploads().isEmpty()) {
+            return ingested.uploads().get(0).getContentHash();
         }
 
         // Fallback
@@ -85,20 +75,47 @@ public class RateLimitFilter extends OncePerRequestFilter {
                 request.getRemoteAddr());
     }
 
+    // null when the file can't be converted, the conversion itself reports why
+    private ConversionFormat sniff(ConversionInput file) {
+        try {
+            return formatSniffer.sniff(file);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
             throws ServletException, IOException {
-        ContentCachingRequestWrapper wrappedRequest = new ContentCachingRequestWrapper(request);
-
-        if ("/api/convert".equals(request.getRequestURI()) && "POST".equalsIgnoreCase(request.getMethod())) {
+        Matcher completeUpload = COMPLETE_UPLOAD_URI.matcher(request.getRequestURI());
+        boolean isCompleteUpload = completeUpload.matches();
+        if ((CONVERSION_URIS.contains(request.getRequestURI()) || isCompleteUpload) && "POST".equalsIgnoreCase(request.getMethod())) {
             String userId = getUserId(request);
             SubscriptionType subscription = getSubscriptionType();
-            long fileSize = wrappedRequest.getContentLengthLong();
-            String fileHash = getFileHash(wrappedRequest);
+            IngestedRequest ingested = (IngestedRequest) request.getAttribute(UploadIngestFilter.INGESTED_ATTRIBUTE);
+            long fileSize = ingested != null ? ingested.totalSize() : request.getContentLengthLong();
+            String fileHash = getFileHash(request, ingested);
+            // the files themselves, so that the tokens go by what converting them costs; the ingest filter
+            // has sniffed them already
+            List<ConversionInput> files = ingested != null
+                    ? ingested.uploads().stream().map(ConversionInput::of).toList() : List.of();
+            if (isCompleteUpload) {
+                // the file arrived in earlier requests, its size and hash are known from the session
+                ChunkedUpload upload = chunkedUploadService.find(completeUpload.group(1), userId).orElse(null);
+                if (upload != null) {
+                    fileSize = upload.getSize();
+                    fileHash = Objects.requireNonNullElse(upload.contentHash(), fileHash);
+                    ConversionInput file = ConversionInput.of(upload.getFile(), upload.getOriginalFilename(), upload.getContentType())
+                            .withContentHash(upload.contentHash());
+                    files = List.of(file.withFormat(sniff(file)));
+                }
+            }
 
             log.info("RateLimit check for user={}, subscription={}, size={} bytes, hash={}", userId, subscription, fileSize, fileHash);
 
-            RateLimitResult result = rateLimitService.isAllowed(userId, subscription.name(), fileSize, fileHash);
+            RateLimitResult result = files.isEmpty()
+                    ? rateLimitService.isAllowed(userId, subscription.name(), fileSize, fileHash)
+                    : rateLimitService.isAllowed(userId, subscription.name(), fileHash, files);
             if (!result.allowed()) {
                 log.warn("Rate limit exceeded for user={} — {}", userId, result.message());
                 response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
@@ -115,6 +132,6 @@ public class RateLimitFilter extends OncePerRequestFilter {
             }
         }
 
-        filterChain.doFilter(wrappedRequest, response);
+        filterChain.doFilter(request, response);
     }
 }
\ No newline at end of file
@@ -0,0 +1,102 @@
+package com.example.pdfconverter.filter;
+
+import com.example.pdfconverter.upload.IngestedRequest;
+import com.example.pdfconverter.upload.MultipartIngest;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
+
+import java.io.IOException;
+
+// Reads multipart uploads of the conversion endpoints once, before the rate limiter looks at them.
+// The ingested uploads are published as a request attribute; their spool files are removed when the
+// request ends, which for async responses is only once the async processing has completed.
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class UploadIngestFilter extends OncePerRequestFilter {
+
+    public static final String INGESTED_ATTRIBUTE = "com.example.pdfconverter.filter.UploadIngestFilter.ingested";
+
+    private final MultipartIngest multipartIngest;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        if (!"POST".equalsIgnoreCase(request.getMethod()) || !multipartIngest.isMultipart(request)) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        IngestedRequest ingested;
+        try {
+            ingested = multipartIngest.ingest(request);
+        } catch (MaxUploadSizeExceededException e) {
+            reject(response, HttpStatus.PAYLOAD_TOO_LARGE, "upload_too_large",
+                    "The upload exceeds the limit of " + e.getMaxUploadSize() + " bytes.");
+            return;
+        } catch (IllegalArgumentException e) {
+            reject(response, HttpStatus.BAD_REQUEST, "invalid_upload", e.getMessage());
+            return;
+        }
+        request.setAttribute(INGESTED_ATTRIBUTE, ingested);
+
+        boolean async = false;
+        try {
+            filterChain.doFilter(ingested.request(), response);
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new CleanUpListener(ingested));
+                async = true;
+            }
+        } finally {
+            if (!async) {
+                ingested.cleanUp();
+            }
+        }
+    }
+
+    private void reject(HttpServletResponse response, HttpStatus status, String error, String message) throws IOException {
+        log.warn("Upload rejected: {}", message);
+        response.setStatus(status.value());
+        response.setContentType("application/json");
+        response.getWriter().write(String.format("""
+                {
+                    "error": "%s",
+                    "message": "%s"
+                }
+                """, error, message.replace("\"", "'")));
+    }
+
+    private record CleanUpListener(IngestedRequest ingested) implements AsyncListener {
+        @Override
+        public void onComplete(AsyncEvent event) {
+            ingested.cleanUp();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            ingested.cleanUp();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            ingested.cleanUp();
+        }
+
+        // a deferred result that turns into a streamed body starts a second async cycle, which drops
+        // the listeners of the first one
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            event.getAsyncContext().addListener(this);
+        }
+    }
+}
@@ -1,67 +1,75 @@
-package com.example.pdfconverter.firebase;
-
-import com.example.pdfconverter.model.User;
-import com.example.pdfconverter.service.UserService;
-import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.auth.FirebaseAuthException;
-import com.google.firebase.auth.FirebaseToken;
-import jakarta.servlet.FilterChain;
-import jakarta.servlet.ServletException;
-import jakarta.servlet.http.HttpServletRequest;
-import jakarta.servlet.http.HttpServletResponse;
-import lombok.RequiredArgsConstructor;
-import org.hibernate.validator.internal.util.logging.Log;
-import org.springframework.core.annotation.Order;
-import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
-import org.springframework.security.core.authority.SimpleGrantedAuthority;
-import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.stereotype.Component;
-import org.springframework.web.filter.OncePerRequestFilter;
-
-import java.io.IOException;
-import java.util.List;
-import java.util.logging.Logger;
-
-@Component
-@RequiredArgsConstructor
-@Order(1)
-public class FirebaseAuthFilter extends OncePerRequestFilter {
-
-    private final UserService userService;
-
-    @Override
-    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
-            throws ServletException, IOException {
-
-        String path = request.getRequestURI();
-        if (path.startsWith("/swagger") || path.startsWith("/v3/api-docs") || path.startsWith("/webjars")) {
-            chain.doFilter(request, response);
-            return;
-        }
-
-        String header = request.getHeader("Authorization");
-        if (header != null && header.startsWith("Bearer ")) {
-            String token = header.substring(7);
-            try {
-//                System.out.println("Checking token: " + token);
-                FirebaseToken decoded = FirebaseAuth.getInstance().verifyIdToken(token);
-//                System.out.println("Token verified, UID: " + decoded.getUid());
-                User user = userService.loadOrCreateUser(decoded.getUid(), decoded.getEmail());
-
-                UsernamePasswordAuthenticationToken auth =
-                        new UsernamePasswordAuthenticationToken(
-                                user,
-                                null,
-                                List.of(new SimpleGrantedAuthority("ROLE_USER")) // 👈 обязательно!
-                        );
-
-                SecurityContextHolder.getContext().setAuthentication(auth);
-            } catch (FirebaseAuthException e) {
-                e.fillInStackTrace();
-                response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
-                return;
-            }
-        }
-        chain.doFilter(request, response);
-    }
+package com.example.pdfconverter.firebase;
+
+import com.example.pdfconverter.model.User;
+import com.example.pdfconverter.service.UserService;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseAuthException;
+import com.google.firebase.auth.FirebaseToken;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.hibernate.validator.internal.util.logging.Log;
+import org.springframework.core.annotation.Order;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.logging.Logger;
+
+@Component
+@RequiredArgsConstructor
+@Order(1)
+public class FirebaseAuthFilter extends OncePerRequestFilter {
+
+    private final UserService userService;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+
+        String path = request.getRequestURI();
+        if (path.startsWith("/swagger") || path.startsWith("/v3/api-docs") || path.startsWith("/webjars")) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        String header = request.getHeader("Authorization");
+        if (header != null && header.startsWith("Bearer ")) {
+            String token = header.substring(7);
+            try {
+//                System.out.println("Checking token: " + token);
+                FirebaseToken decoded = FirebaseAuth.getInstance().verifyIdToken(token);
+//                System.out.println("Token verified, UID: " + decoded.getUid());
+                User user = userService.loadOrCreateUser(decoded.getUid(), decoded.getEmail());
+
+                UsernamePasswordAuthenticationToken auth =
+                        new UsernamePasswordAuthenticationToken(
+                                user,
+                                null,
+                                authorities(decoded) // 👈 обязательно!
+                        );
+
+                SecurityContextHolder.getContext().setAuthentication(auth);
+            } catch (FirebaseAuthException e) {
+                e.fillInStackTrace();
+                response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+                return;
+            }
+        }
+        chain.doFilter(request, response);
+    }
+
+    // admins carry the custom claim admin=true, set with the Admin SDK (setCustomUserClaims)
+    private static List<SimpleGrantedAuthority> authorities(FirebaseToken token) {
+        if (Boolean.TRUE.equals(token.getClaims().get("admin"))) {
+            return List.of(new SimpleGrantedAuthority("ROLE_USER"), new SimpleGrantedAuthority("ROLE_ADMIN"));
+        }
+        return List.of(new SimpleGrantedAuthority("ROLE_USER"));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,112 @@
+package com.example.pdfconverter.fonts;
+
+import com.itextpdf.io.font.FontProgram;
+import com.itextpdf.io.font.FontProgramFactory;
+import com.itextpdf.kernel.font.PdfFont;
+import com.itextpdf.kernel.font.PdfFontFactory;
+import com.itextpdf.layout.font.FontInfo;
+import com.itextpdf.layout.font.FontProvider;
+import com.itextpdf.layout.font.FontSet;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Process-wide font set. Font files are scanned once at startup and every parsed font program is
+// kept for the lifetime of the process, so a conversion only creates the per-document PdfFont
+// wrappers. Those are Identity-H Type0 fonts, which iText subsets to the glyphs actually used.
+//
+// Documents get the default family first; characters it has no glyph for (e.g. Cyrillic or CJK in a
+// Latin-only font) fall back to any other font in the set that covers them.
+@Component
+@Slf4j
+public class FontRegistry {
+    private static final String[] SYSTEM_FONT_DIRECTORIES = {
+            "/usr/share/fonts", "/usr/local/share/fonts", "/Library/Fonts", "/System/Library/Fonts", "C:/Windows/Fonts"
+    };
+
+    // empty = the usual system font directories
+    @Value("${pdf.fonts.directories:}")
+    private String[] directories;
+    @Value("${pdf.fonts.default-family:DejaVu Sans}")
+    private String preferredFamily;
+
+    private final FontSet fontSet = new FontSet();
+    private final Map<FontInfo, FontProgram> programs = new ConcurrentHashMap<>();
+    private String defaultFamily;
+
+    @PostConstruct
+    public void load() {
+        String[] scanned = directories.length > 0 ? directories : SYSTEM_FONT_DIRECTORIES;
+        for (String directory : scanned) {
+            if (Files.isDirectory(Path.of(directory))) {
+                int added = fontSet.addDirectory(directory, true);
+                log.info("Fonts: {} font files registered from {}", added, directory);
+            }
+        }
+        if (fontSet.isEmpty()) {
+            log.warn("Fonts: no font files found, documents fall back to the standard Helvetica font");
+            return;
+        }
+
+        String preferred = preferredFamily.toLowerCase();
+        defaultFamily = fontSet.getFonts().stream()
+                .map(info -> info.getDescriptor().getFamilyNameLowerCase())
+                .filter(preferred::equals)
+                .findFirst()
+                .orElse(fontSet.getFonts().iterator().next().getDescriptor().getFamilyNameLowerCase());
+        // the default family is used by nearly every document, parse it before the first request
+        fontSet.getFonts().stream()
+                .filter(info -> defaultFamily.equals(info.getDescriptor().getFamilyNameLowerCase()))
+                .forEach(this::program);
+        log.info("Fonts: default family '{}', {} fonts available", defaultFamily, fontSet.size());
+    }
+
+    public boolean isEnabled() {
+        return defaultFamily != null;
+    }
+
+    public String getDefaultFamily() {
+        return defaultFamily;
+    }
+
+    // a provider keeps the PdfFonts of one document, so every document needs its own
+    public FontProvider newProvider() {
+        if (!isEnabled()) {
+            return null;
+        }
+        return new FontProvider(fontSet, defaultFamily) {
+            @Override
+            public PdfFont getPdfFont(FontInfo fontInfo, FontSet additionalFonts) {
+                PdfFont font = pdfFonts.get(fontInfo);
+                if (font == null) {
+                    FontProgram program = program(fontInfo);
+                    font = PdfFontFactory.createFont(program, getDefaultEncoding(program),
+                            PdfFontFactory.EmbeddingStrategy.PREFER_EMBEDDED);
+                    pdfFonts.put(fontInfo, font);
+                }
+                return font;
+            }
+        };
+    }
+
+    private FontProgram program(FontInfo fontInfo) {
+        return programs.computeIfAbsent(fontInfo, info -> {
+            try {
+                // iText's own static cache is bypassed, this map is the only copy
+                return info.getFontData() != null
+                        ? FontProgramFactory.createFont(info.getFontData(), false)
+                        : FontProgramFactory.createFont(info.getFontName(), false);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to load font " + info.getFontName(), e);
+            }
+        });
+    }
+}
@@ -0,0 +1,8 @@
+package com.example.pdfconverter.model;
+
+public enum AlbumLayout {
+    // one image per page, the page follows the image orientation
+    PAGE,
+    // images tiled row by row on portrait A4 pages
+    GRID
+}
@@ -0,0 +1,16 @@
+package com.example.pdfconverter.model;
+
+import java.nio.file.Path;
+
+// Outcome of one file of a batch, result is null when the conversion failed
+public record BatchItemResult(int position, String originalFilename, Path result, String error) {
+
+    public boolean succeeded() {
+        return result != null;
+    }
+
+    public String convertedName() {
+        String name = originalFilename != null ? originalFilename.replaceAll("\\.[^.]+$", "") : "converted";
+        return name + "_converted.pdf";
+    }
+}
@@ -0,0 +1,5 @@
+package com.example.pdfconverter.model;
+
+public enum ConversionFormat {
+    TEXT, IMAGE, DOCX, CSV, XLSX
+}
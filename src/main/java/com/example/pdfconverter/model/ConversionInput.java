@@ -0,0 +1,57 @@
+package com.example.pdfconverter.model;
+
+import com.example.pdfconverter.upload.SpooledUpload;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+// What a conversion needs to know about an upload, independent of where the bytes live.
+// contentHash is the sha-256 of the upload when it is already known, null otherwise.
+// profile is the requested output compression, null means the service default.
+// requester is the user the conversion is queued for, null means Requester.ANONYMOUS.
+// queueTimeout is how long the conversion may wait for a worker, null means the format's bulkhead timeout.
+// format is what the content was sniffed as, null while nobody has looked at it.
+public record ConversionInput(String originalFilename, String contentType, long size, String contentHash,
+                              OutputProfile profile, Requester requester, Duration queueTimeout,
+                              ConversionFormat format, InputStreamSource content) {
+
+    public static ConversionInput of(MultipartFile file) {
+        return new ConversionInput(file.getOriginalFilename(), file.getContentType(), file.getSize(),
+                SpooledUpload.contentHashOf(file), null, null, null, SpooledUpload.formatOf(file), file);
+    }
+
+    public static ConversionInput of(Path path, String originalFilename, String contentType) throws IOException {
+        return new ConversionInput(originalFilename, contentType, Files.size(path), null, null, null, null, null,
+                new FileSystemResource(path));
+    }
+
+    public ConversionInput withContentHash(String contentHash) {
+        return new ConversionInput(originalFilename, contentType, size, contentHash, profile, requester, queueTimeout, format, content);
+    }
+
+    public ConversionInput withProfile(OutputProfile profile) {
+        return new ConversionInput(originalFilename, contentType, size, contentHash, profile, requester, queueTimeout, format, content);
+    }
+
+    public ConversionInput withRequester(Requester requester) {
+        return new ConversionInput(originalFilename, contentType, size, contentHash, profile, requester, queueTimeout, format, content);
+    }
+
+    public ConversionInput withQueueTimeout(Duration queueTimeout) {
+        return new ConversionInput(originalFilename, contentType, size, contentHash, profile, requester, queueTimeout, format, content);
+    }
+
+    public ConversionInput withFormat(ConversionFormat format) {
+        return new ConversionInput(originalFilename, contentType, size, contentHash, profile, requester, queueTimeout, format, content);
+    }
+
+    public InputStream openStream() throws IOException {
+        return content.getInputStream();
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.pdfconverter.model;
+
+import lombok.Getter;
+
+import java.time.Instant;
+
+@Getter
+public class ConversionJob {
+    private final String id;
+    private final String ownerId;
+    private final String originalFilename;
+    private final Instant createdAt = Instant.now();
+    private volatile JobStatus status = JobStatus.QUEUED;
+    private volatile Instant finishedAt;
+    private volatile String error;
+    // set when the job failed only because the converters were too busy, the client may submit it again
+    private volatile Long retryAfterSeconds;
+    // id of the pdf in the result store
+    private volatile String resultId;
+
+    public ConversionJob(String id, String ownerId, String originalFilename) {
+        this.id = id;
+        this.ownerId = ownerId;
+        this.originalFilename = originalFilename;
+    }
+
+    public void markRunning() {
+        status = JobStatus.RUNNING;
+    }
+
+    public void markDone(String resultId) {
+        this.resultId = resultId;
+        this.finishedAt = Instant.now();
+        this.status = JobStatus.DONE;
+    }
+
+    public void markFailed(String error) {
+        this.error = error;
+        this.finishedAt = Instant.now();
+        this.status = JobStatus.FAILED;
+    }
+
+    public void markRejected(String error, long retryAfterSeconds) {
+        this.retryAfterSeconds = retryAfterSeconds;
+        markFailed(error);
+    }
+
+    public boolean isRetryable() {
+        return retryAfterSeconds != null;
+    }
+
+    public String getConvertedName() {
+        return originalFilename.replaceAll("\\.[^.]+$", "") + "_converted.pdf";
+    }
+}
@@ -0,0 +1,9 @@
+package com.example.pdfconverter.model;
+
+public enum JobStatus {
+    QUEUED, RUNNING, DONE, FAILED;
+
+    public boolean isFinished() {
+        return this == DONE || this == FAILED;
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.pdfconverter.model;
+
+import com.itextpdf.kernel.pdf.CompressionConstants;
+import com.itextpdf.kernel.pdf.WriterProperties;
+
+// How hard the pdf writer compresses. Full compression also packs the objects into compressed
+// object streams and writes the cross-reference table as a stream.
+public enum OutputProfile {
+    FAST(CompressionConstants.BEST_SPEED, false),
+    BALANCED(CompressionConstants.DEFAULT_COMPRESSION, true),
+    SMALLEST(CompressionConstants.BEST_COMPRESSION, true);
+
+    private final int compressionLevel;
+    private final boolean fullCompression;
+
+    OutputProfile(int compressionLevel, boolean fullCompression) {
+        this.compressionLevel = compressionLevel;
+        this.fullCompression = fullCompression;
+    }
+
+    // WriterProperties are mutable, every writer gets a fresh instance
+    public WriterProperties writerProperties() {
+        return new WriterProperties()
+                .setCompressionLevel(compressionLevel)
+                .setFullCompressionMode(fullCompression);
+    }
+
+    public static OutputProfile fromString(String name) {
+        try {
+            return OutputProfile.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unsupported output profile: " + name);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.pdfconverter.model;
+
+// The user a conversion runs for, the conversion queues share the workers between users by subscription.
+public record Requester(String userId, SubscriptionType subscription) {
+    // conversions without a known user queue together, like one free user
+    public static final Requester ANONYMOUS = new Requester("anonymous", SubscriptionType.FREE);
+
+    public static Requester of(User user) {
+        if (user == null || user.getId() == null) {
+            return ANONYMOUS;
+        }
+        return new Requester(user.getId(), user.getSubscription() != null ? user.getSubscription() : SubscriptionType.FREE);
+    }
+}
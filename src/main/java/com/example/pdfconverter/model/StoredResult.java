@@ -0,0 +1,32 @@
+package com.example.pdfconverter.model;
+
+import lombok.Getter;
+
+import java.nio.file.Path;
+
+// index entry of a pdf kept in the result store; times are epoch millis
+@Getter
+public class StoredResult {
+    private final String id;
+    private final String ownerId;
+    private final String downloadName;
+    private final long size;
+    private final long createdAt;
+    private final Path path;
+    private volatile long lastAccessedAt;
+
+    public StoredResult(String id, String ownerId, String downloadName, long size, long createdAt,
+                        long lastAccessedAt, Path path) {
+        this.id = id;
+        this.ownerId = ownerId;
+        this.downloadName = downloadName;
+        this.size = size;
+        this.createdAt = createdAt;
+        this.lastAccessedAt = lastAccessedAt;
+        this.path = path;
+    }
+
+    public void touch(long now) {
+        lastAccessedAt = now;
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.pdfconverter.office;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+public interface OfficeWorker extends AutoCloseable {
+    // converts the input document and returns the path of the produced pdf inside outputDir
+    Path convert(Path input, Path outputDir) throws IOException, InterruptedException;
+
+    boolean isHealthy();
+
+    int completedJobs();
+
+    @Override
+    void close();
+}
@@ -0,0 +1,217 @@
+package com.example.pdfconverter.office;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+import oshi.SystemInfo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+// Keeps a fixed set of warm LibreOffice workers. A worker is borrowed for one docx conversion,
+// recycled after max-jobs-per-worker jobs or as soon as it looks unhealthy.
+@Component
+@Slf4j
+public class OfficeWorkerPool {
+    // a headless office instance needs roughly this much memory once documents are loaded
+    private static final long MEMORY_PER_WORKER = 512L * 1024 * 1024;
+
+    @Value("${pdf.office.executable:soffice}")
+    private String executable;
+    // 0 sizes the pool from cpu count and available memory
+    @Value("${pdf.office.pool-size:0}")
+    private int configuredPoolSize;
+    @Value("${pdf.office.max-jobs-per-worker:200}")
+    private int maxJobsPerWorker;
+    @Value("${pdf.office.base-port:2002}")
+    private int basePort;
+    @Value("${pdf.office.profile-root:${java.io.tmpdir}/pdf-converter-office}")
+    private String profileRoot;
+    @Value("${pdf.office.conversion-timeout:120s}")
+    private Duration conversionTimeout;
+    @Value("${pdf.office.borrow-timeout:60s}")
+    private Duration borrowTimeout;
+
+    private final BlockingQueue<Slot> idleSlots = new LinkedBlockingQueue<>();
+    private final List<Slot> slots = new ArrayList<>();
+    // starting and recycling workers takes seconds, it runs here instead of on the scheduler or a request thread
+    private ExecutorService maintenance;
+
+    @PostConstruct
+    public void start() {
+        int poolSize = configuredPoolSize > 0 ? configuredPoolSize : autoPoolSize();
+        for (int i = 0; i < poolSize; i++) {
+            Slot slot = new Slot(i);
+            slots.add(slot);
+            // workers boot in the first health check, a conversion arriving earlier starts its own worker
+            idleSlots.add(slot);
+        }
+        maintenance = Executors.newFixedThreadPool(poolSize, new CustomizableThreadFactory("office-maintenance-"));
+        log.info("Office worker pool: {} workers, recycled every {} jobs", poolSize, maxJobsPerWorker);
+    }
+
+    public void convert(InputStream input, OutputStream output) throws IOException, InterruptedException {
+        Path jobDir = Files.createTempDirectory("docx-job");
+        try {
+            Path inputFile = jobDir.resolve("input.docx");
+            Files.copy(input, inputFile);
+
+            Slot slot = idleSlots.poll(borrowTimeout.toMillis(), TimeUnit.MILLISECONDS);
+            if (slot == null) {
+                throw new IOException("No LibreOffice worker became available within " + borrowTimeout);
+            }
+            Path generatedPdf;
+            try {
+                generatedPdf = slot.ensureWorker().convert(inputFile, jobDir);
+            } finally {
+                release(slot);
+            }
+            Files.copy(generatedPdf, output);
+        } finally {
+            FileSystemUtils.deleteRecursively(jobDir);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${pdf.office.health-check-interval:30s}")
+    public void healthCheck() {
+        for (Slot slot : slots) {
+            // only idle workers are checked, busy ones are checked when they come back
+            if (idleSlots.remove(slot)) {
+                maintain(slot, false);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        maintenance.shutdownNow();
+        // a worker that is still starting is stopped below once it's up
+        try {
+            maintenance.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Slot slot : slots) {
+            slot.stopWorker();
+        }
+    }
+
+    // health comes from the worker's bridge and process, checking it costs nothing
+    private void release(Slot slot) {
+        OfficeWorker worker = slot.worker;
+        if (worker != null && (!worker.isHealthy() || worker.completedJobs() >= maxJobsPerWorker)) {
+            // the slot is borrowed again once its replacement is up
+            maintain(slot, true);
+        } else {
+            idleSlots.add(slot);
+        }
+    }
+
+    // takes a slot out of rotation, recycles and (re)starts its worker on the maintenance executor
+    private void maintain(Slot slot, boolean recycle) {
+        try {
+            maintenance.execute(() -> {
+                try {
+                    if (recycle) {
+                        slot.recycle();
+                    }
+                    slot.ensureWorker();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Exception e) {
+                    log.error("Failed to start office worker {}: {}", slot.index, e.getMessage());
+                } finally {
+                    // a worker that failed to start is retried by the next health check or borrower
+                    idleSlots.add(slot);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // shutting down
+            idleSlots.add(slot);
+        }
+    }
+
+    private int autoPoolSize() {
+        int byCpu = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        long available = new SystemInfo().getHardware().getMemory().getAvailable();
+        int byMemory = (int) Math.max(1, available / MEMORY_PER_WORKER);
+        return Math.min(byCpu, byMemory);
+    }
+
+    OfficeWorker createWorker(int index) throws IOException, InterruptedException {
+        return new SofficeWorker(executable, profileDir(index), basePort + index, conversionTimeout);
+    }
+
+    Path profileDir(int index) {
+        return Paths.get(profileRoot, "worker-" + index);
+    }
+
+    private class Slot {
+        private final int index;
+        private OfficeWorker worker;
+
+        private Slot(int index) {
+            this.index = index;
+        }
+
+        private void recycle() {
+            if (worker == null) {
+                return;
+            }
+            if (!worker.isHealthy()) {
+                log.warn("Office worker {} is unhealthy after {} jobs, recycling", index, worker.completedJobs());
+                discardUnhealthyWorker();
+            } else {
+                log.info("Recycling office worker {} after {} jobs", index, worker.completedJobs());
+                stopWorker();
+            }
+        }
+
+        private OfficeWorker ensureWorker() throws IOException, InterruptedException {
+            // an idle worker may have died since it was released
+            if (worker != null && !worker.isHealthy()) {
+                log.warn("Office worker {} is unhealthy, restarting", index);
+                discardUnhealthyWorker();
+            }
+            if (worker == null) {
+                worker = createWorker(index);
+            }
+            return worker;
+        }
+
+        private void discardUnhealthyWorker() {
+            stopWorker();
+            // a crashed instance may leave a locked or corrupted profile behind
+            try {
+                FileSystemUtils.deleteRecursively(profileDir(index));
+            } catch (IOException e) {
+                log.warn("Failed to wipe the profile of office worker {}: {}", index, e.getMessage());
+            }
+        }
+
+        private void stopWorker() {
+            if (worker != null) {
+                worker.close();
+                worker = null;
+            }
+        }
+    }
+}
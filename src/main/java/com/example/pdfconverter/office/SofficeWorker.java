@@ -0,0 +1,256 @@
+package com.example.pdfconverter.office;
+
+import com.sun.star.beans.PropertyValue;
+import com.sun.star.bridge.XBridge;
+import com.sun.star.bridge.XBridgeFactory;
+import com.sun.star.comp.helper.Bootstrap;
+import com.sun.star.connection.XConnector;
+import com.sun.star.document.MacroExecMode;
+import com.sun.star.document.UpdateDocMode;
+import com.sun.star.frame.XComponentLoader;
+import com.sun.star.frame.XStorable;
+import com.sun.star.lang.EventObject;
+import com.sun.star.lang.XComponent;
+import com.sun.star.lang.XEventListener;
+import com.sun.star.lang.XMultiComponentFactory;
+import com.sun.star.uno.IBridge;
+import com.sun.star.uno.UnoRuntime;
+import com.sun.star.uno.XComponentContext;
+import com.sun.star.util.CloseVetoException;
+import com.sun.star.util.XCloseable;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// One long-lived headless LibreOffice instance with its own user profile and socket listener.
+// Conversions are driven over the socket with UNO: the worker keeps one bridge to the instance, every job
+// loads the document into it and stores it as pdf, no process is started per job.
+@Slf4j
+public class SofficeWorker implements OfficeWorker {
+    private static final Duration STARTUP_TIMEOUT = Duration.ofSeconds(30);
+    private static final int CONNECT_TIMEOUT_MILLIS = 500;
+    // a uno call can't be interrupted, a conversion that runs too long is ended by killing the instance
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(watchdogThreads());
+
+    private final Path profileDir;
+    private final int port;
+    private final Duration conversionTimeout;
+    private final Process process;
+    private final XComponent bridge;
+    private final XComponentLoader desktop;
+    private int completedJobs;
+    private volatile boolean broken;
+
+    public SofficeWorker(String executable, Path profileDir, int port, Duration conversionTimeout)
+            throws IOException, InterruptedException {
+        this.profileDir = profileDir;
+        this.port = port;
+        this.conversionTimeout = conversionTimeout;
+
+        Files.createDirectories(profileDir);
+        ProcessBuilder builder = new ProcessBuilder(
+                executable, "-env:UserInstallation=" + profileDir.toUri(), "--headless", "--invisible",
+                "--nocrashreport", "--nodefault", "--nologo", "--nofirststartwizard", "--norestore",
+                "--accept=socket,host=127.0.0.1,port=" + port + ";urp;StarOffice.ComponentContext"
+        );
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        this.process = builder.start();
+        try {
+            awaitListener();
+            XBridge connected = connect();
+            this.bridge = UnoRuntime.queryInterface(XComponent.class, connected);
+            // the bridge goes down with the instance, or when the connection breaks
+            bridge.addEventListener(new XEventListener() {
+                @Override
+                public void disposing(EventObject event) {
+                    broken = true;
+                }
+            });
+            this.desktop = desktop(connected);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            process.destroyForcibly();
+            throw e;
+        }
+        log.info("LibreOffice worker started: port={}, profile={}", port, profileDir);
+    }
+
+    @Override
+    public Path convert(Path input, Path outputDir) throws IOException {
+        // libreOffice creates the output file with the same name (but .pdf)
+        String baseName = input.getFileName().toString().replaceFirst("[.][^.]+$", "");
+        Path generatedPdf = outputDir.resolve(baseName + ".pdf");
+
+        AtomicBoolean timedOut = new AtomicBoolean();
+        ScheduledFuture<?> watchdog = WATCHDOG.schedule(() -> {
+            timedOut.set(true);
+            broken = true;
+            process.destroyForcibly();
+            // ends the pending call right away instead of when the dying instance drops the connection
+            bridge.dispose();
+        }, conversionTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        try {
+            // uploads are untrusted: no macros, no linked content fetched
+            XComponent document = desktop.loadComponentFromURL(input.toUri().toString(), "_blank", 0, new PropertyValue[]{
+                    property("Hidden", true),
+                    property("ReadOnly", true),
+                    property("MacroExecutionMode", MacroExecMode.NEVER_EXECUTE),
+                    property("UpdateDocMode", UpdateDocMode.NO_UPDATE)
+            });
+            if (document == null) {
+                throw new IOException("LibreOffice could not load " + input.getFileName());
+            }
+            try {
+                UnoRuntime.queryInterface(XStorable.class, document).storeToURL(generatedPdf.toUri().toString(),
+                        new PropertyValue[]{property("FilterName", "writer_pdf_Export")});
+            } finally {
+                closeDocument(document);
+            }
+        } catch (com.sun.star.uno.Exception | com.sun.star.uno.RuntimeException e) {
+            if (timedOut.get()) {
+                throw new IOException("LibreOffice conversion timed out after " + conversionTimeout, e);
+            }
+            // a document LibreOffice can't read leaves the instance running, a crash takes the bridge down
+            throw new IOException("LibreOffice could not convert " + input.getFileName() + ": " + e.getMessage(), e);
+        } finally {
+            watchdog.cancel(false);
+        }
+
+        // whatever the call returned once the instance was killed, the pdf can't be trusted
+        if (timedOut.get()) {
+            throw new IOException("LibreOffice conversion timed out after " + conversionTimeout);
+        }
+        if (!Files.exists(generatedPdf)) {
+            throw new IOException("LibreOffice produced no output for " + input.getFileName());
+        }
+        completedJobs++;
+        return generatedPdf;
+    }
+
+    // the bridge reports a dead instance or a broken connection, no probe needed
+    @Override
+    public boolean isHealthy() {
+        return !broken && process.isAlive();
+    }
+
+    @Override
+    public int completedJobs() {
+        return completedJobs;
+    }
+
+    @Override
+    public void close() {
+        try {
+            bridge.dispose();
+        } catch (RuntimeException e) {
+            log.debug("Closing the bridge to LibreOffice on port {} failed: {}", port, e.getMessage());
+        }
+        process.destroy();
+        try {
+            if (!process.waitFor(5, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+        log.info("LibreOffice worker stopped: port={}", port);
+    }
+
+    // the java-only context registers the connector and bridge factory by service name, it has none of the
+    // newer interfaces the generated BridgeFactory.create and Connector.create ask for.
+    // IBridge is deprecated but is the only way to hold the java bridge
+    @SuppressWarnings("deprecation")
+    private XBridge connect() throws IOException {
+        try {
+            XComponentContext local = Bootstrap.createInitialComponentContext((Map<String, Object>) null);
+            XMultiComponentFactory services = local.getServiceManager();
+            XConnector connector = UnoRuntime.queryInterface(XConnector.class,
+                    services.createInstanceWithContext("com.sun.star.connection.Connector", local));
+            XBridgeFactory bridges = UnoRuntime.queryInterface(XBridgeFactory.class,
+                    services.createInstanceWithContext("com.sun.star.bridge.BridgeFactory", local));
+            XBridge bridge = bridges.createBridge("", "urp", connector.connect("socket,host=127.0.0.1,port=" + port), null);
+            // the bridge disposes itself whenever no proxy happens to hold it, the worker holds it until close
+            ((IBridge) bridge).acquire();
+            return bridge;
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Could not connect to LibreOffice on port " + port + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static XComponentLoader desktop(XBridge bridge) throws IOException {
+        try {
+            XComponentContext remote = UnoRuntime.queryInterface(XComponentContext.class,
+                    bridge.getInstance("StarOffice.ComponentContext"));
+            Object desktop = remote.getServiceManager().createInstanceWithContext("com.sun.star.frame.Desktop", remote);
+            return UnoRuntime.queryInterface(XComponentLoader.class, desktop);
+        } catch (com.sun.star.uno.Exception e) {
+            throw new IOException("LibreOffice has no desktop to load documents into: " + e.getMessage(), e);
+        }
+    }
+
+    // closed rather than disposed, so the instance can finish what it still does with the document
+    private static void closeDocument(XComponent document) {
+        XCloseable closeable = UnoRuntime.queryInterface(XCloseable.class, document);
+        try {
+            if (closeable != null) {
+                closeable.close(true);
+                return;
+            }
+        } catch (CloseVetoException e) {
+            // the instance owns it now and closes it when it's done
+            return;
+        }
+        document.dispose();
+    }
+
+    private static PropertyValue property(String name, Object value) {
+        PropertyValue property = new PropertyValue();
+        property.Name = name;
+        property.Value = value;
+        return property;
+    }
+
+    private static CustomizableThreadFactory watchdogThreads() {
+        CustomizableThreadFactory threads = new CustomizableThreadFactory("office-watchdog-");
+        threads.setDaemon(true);
+        return threads;
+    }
+
+    private void awaitListener() throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+        while (System.nanoTime() < deadline) {
+            if (!process.isAlive()) {
+                throw new IOException("LibreOffice exited during startup with code " + process.exitValue());
+            }
+            if (listenerReachable()) {
+                return;
+            }
+            Thread.sleep(250);
+        }
+        throw new IOException("LibreOffice did not open port " + port + " within " + STARTUP_TIMEOUT);
+    }
+
+    private boolean listenerReachable() {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress("127.0.0.1", port), CONNECT_TIMEOUT_MILLIS);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
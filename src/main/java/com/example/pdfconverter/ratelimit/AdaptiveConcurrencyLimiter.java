@@ -0,0 +1,259 @@
+package com.example.pdfconverter.ratelimit;
+
+import com.example.pdfconverter.model.ConversionFormat;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import oshi.SystemInfo;
+import oshi.hardware.CentralProcessor;
+import oshi.hardware.GlobalMemory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Limits the conversions in flight on this node per format, from submission to a bulkhead until they
+// finish, and adapts every format's limit to how its conversions cope (AIMD), so a docx backlog sheds
+// docx requests and leaves text and images alone, like the bulkheads do.
+//
+// A format's limit backs off multiplicatively when its conversions get slow, i.e. the recent time per MB
+// on a worker exceeds the usual one by the tolerance (queue wait doesn't count, that is the bulkhead's job;
+// per MB like the cost model, so a run of large uploads isn't a slowdown), or when its bulkhead drops a job; every limit backs off when the host or the heap runs short of memory.
+// A busy cpu is no overload by itself, the bounded conversion pools are meant to use it: it only keeps
+// the limits from growing, and a format that really slows down backs off by its latency. Otherwise a
+// limit grows additively every sample interval while it is actually in use, so it is back up within
+// seconds once the pressure is gone.
+// Checking a limit is a volatile read; new requests past it are shed, running ones are never cut.
+@Component
+@Slf4j
+public class AdaptiveConcurrencyLimiter {
+    // latency averages: the recent one follows every sample, the usual one follows drops quickly and
+    // rises slowly, so a sustained slowdown doesn't become the new normal
+    private static final double RECENT_WEIGHT = 0.3;
+    private static final double USUAL_WEIGHT_DOWN = 0.2;
+    private static final double USUAL_WEIGHT_UP = 0.01;
+    // samples per format before its latency is trusted
+    private static final int WARMUP_SAMPLES = 10;
+    private static final int UNLIMITED = Integer.MAX_VALUE;
+
+    @Value("${ratelimit.adaptive.initial-limit:50}")
+    private int initialLimit;
+    @Value("${ratelimit.adaptive.min-limit:4}")
+    private int minLimit;
+    @Value("${ratelimit.adaptive.max-limit:200}")
+    private int maxLimit;
+    @Value("${ratelimit.adaptive.increase:4}")
+    private int increase;
+    @Value("${ratelimit.adaptive.backoff-ratio:0.8}")
+    private double backoffRatio;
+    @Value("${ratelimit.adaptive.latency-tolerance:2.0}")
+    private double latencyTolerance;
+    @Value("${ratelimit.adaptive.cpu-threshold:0.9}")
+    private double cpuThreshold;
+    @Value("${ratelimit.adaptive.memory-threshold:0.9}")
+    private double memoryThreshold;
+    @Value("${ratelimit.adaptive.sample-interval:1s}")
+    private Duration sampleInterval;
+
+    // no limit until start() has sized them
+    private final Map<ConversionFormat, FormatLimit> limits = new EnumMap<>(ConversionFormat.class);
+
+    private CentralProcessor processor;
+    private GlobalMemory memory;
+    private long[] cpuTicks;
+
+    public AdaptiveConcurrencyLimiter() {
+        for (ConversionFormat format : ConversionFormat.values()) {
+            limits.put(format, new FormatLimit(format));
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        limits.values().forEach(FormatLimit::start);
+        SystemInfo system = new SystemInfo();
+        processor = system.getHardware().getProcessor();
+        memory = system.getHardware().getMemory();
+        cpuTicks = processor.getSystemCpuLoadTicks();
+        log.info("Adaptive concurrency limit {} per format (min {}, max {})", initialLimit, minLimit, maxLimit);
+    }
+
+    // counts the request as shed when it is; a request of an unknown format is shed when any format is
+    // at its limit
+    public boolean isOverloaded(ConversionFormat format) {
+        if (format != null) {
+            return limits.get(format).isOverloaded();
+        }
+        for (FormatLimit formatLimit : limits.values()) {
+            if (formatLimit.isOverloaded()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void onStart(ConversionFormat format) {
+        limits.get(format).onStart();
+    }
+
+    public void onFinish(ConversionFormat format) {
+        limits.get(format).inFlight.decrementAndGet();
+    }
+
+    // runNanos is the time the conversion of size bytes took once a worker picked it up; only successful
+    // conversions give a latency, failures are often quick and would hide a slowdown
+    public void onSuccess(ConversionFormat format, long size, long runNanos) {
+        FormatLimit formatLimit = limits.get(format);
+        if (formatLimit.limit == UNLIMITED) {
+            return;
+        }
+        if (formatLimit.recordLatency(runNanos / ConversionCostModel.megabytes(size))) {
+            formatLimit.backOff(format + " conversions are slow");
+        }
+    }
+
+    // a bulkhead queue is full or a job waited too long in it
+    public void onDropped(ConversionFormat format) {
+        FormatLimit formatLimit = limits.get(format);
+        if (formatLimit.limit == UNLIMITED) {
+            return;
+        }
+        formatLimit.backOff(format + " bulkhead dropped a conversion");
+    }
+
+    public int getLimit(ConversionFormat format) {
+        return limits.get(format).limit;
+    }
+
+    public int getInFlight(ConversionFormat format) {
+        return limits.get(format).inFlight.get();
+    }
+
+    @Scheduled(fixedDelayString = "${ratelimit.adaptive.sample-interval:1s}")
+    public void sample() {
+        double cpu = processor.getSystemCpuLoadBetweenTicks(cpuTicks);
+        cpuTicks = processor.getSystemCpuLoadTicks();
+        double hostMemory = 1 - (double) memory.getAvailable() / memory.getTotal();
+        double heap = heapUsedAfterGc();
+
+        String memoryPressure = hostMemory > memoryThreshold ? String.format("host memory at %.0f%%", hostMemory * 100)
+                : heap > memoryThreshold ? String.format("heap at %.0f%% after gc", heap * 100)
+                : null;
+        if (cpu > cpuThreshold) {
+            log.debug("Concurrency limits held, cpu at {}%", Math.round(cpu * 100));
+        }
+        for (FormatLimit formatLimit : limits.values()) {
+            int peak = formatLimit.peakInFlight.getAndSet(formatLimit.inFlight.get());
+            int shedRequests = formatLimit.shed.getAndSet(0);
+            if (memoryPressure != null) {
+                formatLimit.backOff(memoryPressure);
+            } else {
+                // a limit nobody comes close to would grow without telling anything
+                formatLimit.grow(cpu <= cpuThreshold && (shedRequests > 0 || peak * 2 >= formatLimit.limit));
+            }
+            if (shedRequests > 0) {
+                log.info("Shed {} {} requests over the last {}, limit {}, in flight {}", shedRequests,
+                        formatLimit.format, sampleInterval, formatLimit.limit, formatLimit.inFlight.get());
+            }
+        }
+    }
+
+    // the fullest heap pool right after its last collection, what is left there is live data
+    private static double heapUsedAfterGc() {
+        double fullest = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            MemoryUsage usage = pool.getType() == MemoryType.HEAP ? pool.getCollectionUsage() : null;
+            if (usage != null && usage.getMax() > 0) {
+                fullest = Math.max(fullest, (double) usage.getUsed() / usage.getMax());
+            }
+        }
+        return fullest;
+    }
+
+    private final class FormatLimit {
+        private final ConversionFormat format;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        // since the last sample
+        private final AtomicInteger peakInFlight = new AtomicInteger();
+        private final AtomicInteger shed = new AtomicInteger();
+        private volatile int limit = UNLIMITED;
+        // guarded by this
+        private double exactLimit;
+        private long lastBackoffAt;
+        private boolean congested;
+        private final Latency latency = new Latency();
+
+        private FormatLimit(ConversionFormat format) {
+            this.format = format;
+        }
+
+        private synchronized void start() {
+            exactLimit = initialLimit;
+            limit = initialLimit;
+            lastBackoffAt = System.nanoTime() - sampleInterval.toNanos();
+        }
+
+        private boolean isOverloaded() {
+            if (inFlight.get() < limit) {
+                return false;
+            }
+            shed.incrementAndGet();
+            return true;
+        }
+
+        private void onStart() {
+            peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        }
+
+        private synchronized boolean recordLatency(double nanosPerMegabyte) {
+            return latency.record(nanosPerMegabyte, latencyTolerance);
+        }
+
+        // at most once per sample interval, the completions of one slow burst count once
+        private synchronized void backOff(String reason) {
+            congested = true;
+            long now = System.nanoTime();
+            if (now - lastBackoffAt < sampleInterval.toNanos() || exactLimit <= minLimit) {
+                return;
+            }
+            lastBackoffAt = now;
+            exactLimit = Math.max(minLimit, exactLimit * backoffRatio);
+            limit = (int) exactLimit;
+            log.warn("{} concurrency limit lowered to {}: {}", format, limit, reason);
+        }
+
+        private synchronized void grow(boolean limitInUse) {
+            // no growth in an interval that saw congestion
+            if (!congested && limitInUse && exactLimit < maxLimit) {
+                exactLimit = Math.min(maxLimit, exactLimit + increase);
+                limit = (int) exactLimit;
+                log.debug("{} concurrency limit raised to {}", format, limit);
+            }
+            congested = false;
+        }
+    }
+
+    private static final class Latency {
+        private double recent;
+        private double usual;
+        private long samples;
+
+        private boolean record(double nanos, double tolerance) {
+            if (samples++ == 0) {
+                recent = nanos;
+                usual = nanos;
+                return false;
+            }
+            recent += RECENT_WEIGHT * (nanos - recent);
+            usual += (nanos < usual ? USUAL_WEIGHT_DOWN : USUAL_WEIGHT_UP) * (nanos - usual);
+            return samples > WARMUP_SAMPLES && recent > tolerance * usual;
+        }
+    }
+}
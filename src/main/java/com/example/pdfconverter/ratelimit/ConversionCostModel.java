@@ -0,0 +1,91 @@
+package com.example.pdfconverter.ratelimit;
+
+import com.example.pdfconverter.model.ConversionFormat;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// What a conversion costs in rate limit tokens, learned per format from the conversions this node ran.
+//
+// The cost of a conversion is the work it took on its bulkhead worker: the larger of wall time and cpu
+// time, so a docx that waits ten seconds for LibreOffice costs as much as ten seconds of pdf writing.
+// Per format the model keeps a moving average of seconds per MB, starting from rough priors; a token
+// buys token-seconds of work.
+@Component
+@Slf4j
+public class ConversionCostModel {
+    // a conversion costs at least one token and at most this many, so the free quota always covers one
+    public static final int MAX_TOKENS = 5;
+
+    // small files cost what one of this size costs: startup, fonts and the pdf writer dominate
+    private static final double MIN_MEGABYTES = 0.25;
+    private static final double AVERAGE_WEIGHT = 0.1;
+    private static final long SMALL_FILE_THRESHOLD = 1024 * 1024; // 1 MB
+    private static final long MEDIUM_FILE_THRESHOLD = 5 * 1024 * 1024; // 5 MB
+
+    private final Duration tokenCost;
+    // seconds per MB by format ordinal, as double bits
+    private final AtomicLongArray secondsPerMegabyte = new AtomicLongArray(ConversionFormat.values().length);
+
+    public ConversionCostModel(@Value("${ratelimit.cost.token-seconds:2s}") Duration tokenCost) {
+        this.tokenCost = tokenCost;
+        for (ConversionFormat format : ConversionFormat.values()) {
+            secondsPerMegabyte.set(format.ordinal(), Double.doubleToLongBits(priorSecondsPerMegabyte(format)));
+        }
+    }
+
+    // what to reserve before the conversion; without a known format the tokens go by size alone
+    public int estimateTokens(ConversionFormat format, long size) {
+        if (format == null) {
+            return tokensBySize(size);
+        }
+        double rate = Double.longBitsToDouble(secondsPerMegabyte.get(format.ordinal()));
+        return tokens(rate * megabytes(size));
+    }
+
+    // learns from a finished conversion and returns what it really cost
+    public int record(ConversionFormat format, long size, long costNanos) {
+        double seconds = costNanos / 1e9;
+        double observed = seconds / megabytes(size);
+        int index = format.ordinal();
+        long current;
+        double updated;
+        do {
+            current = secondsPerMegabyte.get(index);
+            double average = Double.longBitsToDouble(current);
+            updated = average + AVERAGE_WEIGHT * (observed - average);
+        } while (!secondsPerMegabyte.compareAndSet(index, current, Double.doubleToLongBits(updated)));
+        log.debug("Conversion cost {}: {} MB in {} s, now {} s/MB", format, megabytes(size), seconds, updated);
+        return tokens(seconds);
+    }
+
+    private int tokens(double seconds) {
+        double tokenSeconds = tokenCost.toNanos() / 1e9;
+        return (int) Math.max(1, Math.min(MAX_TOKENS, Math.ceil(seconds / tokenSeconds)));
+    }
+
+    // also what the concurrency limiter divides run times by
+    static double megabytes(long size) {
+        return Math.max(MIN_MEGABYTES, size / (1024.0 * 1024.0));
+    }
+
+    // what the service charged before conversions were measured
+    private static int tokensBySize(long size) {
+        if (size < SMALL_FILE_THRESHOLD) return 1;
+        if (size < MEDIUM_FILE_THRESHOLD) return 3;
+        return MAX_TOKENS;
+    }
+
+    // rough starting points, the averages take over after a few dozen conversions
+    private static double priorSecondsPerMegabyte(ConversionFormat format) {
+        return switch (format) {
+            case TEXT -> 0.05;
+            case IMAGE, CSV -> 0.2;
+            case XLSX -> 1.0;
+            case DOCX -> 2.5;
+        };
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.pdfconverter.ratelimit;
+
+// What the checks before the bucket need to know about a user and a file.
+// userFrozenForNanos is 0 while the user isn't frozen.
+public record LimitSnapshot(long userFrozenForNanos, int fileGenerations, boolean fileFrozen) {
+    private static final LimitSnapshot[] CLEAR = new LimitSnapshot[16];
+
+    static {
+        for (int i = 0; i < CLEAR.length; i++) {
+            CLEAR[i] = new LimitSnapshot(0, i, false);
+        }
+    }
+
+    // nothing frozen is by far the most common answer, it comes without an allocation
+    public static LimitSnapshot of(long userFrozenForNanos, int fileGenerations, boolean fileFrozen) {
+        if (userFrozenForNanos <= 0 && !fileFrozen && fileGenerations >= 0 && fileGenerations < CLEAR.length) {
+            return CLEAR[fileGenerations];
+        }
+        return new LimitSnapshot(Math.max(userFrozenForNanos, 0), fileGenerations, fileFrozen);
+    }
+}
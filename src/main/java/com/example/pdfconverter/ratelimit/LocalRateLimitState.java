@@ -0,0 +1,212 @@
+package com.example.pdfconverter.ratelimit;
+
+import com.example.pdfconverter.utils.ExpiringStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import static com.example.pdfconverter.service.RateLimitService.FILE_ATTEMPT_WINDOW;
+import static com.example.pdfconverter.service.RateLimitService.FREEZE_DURATION;
+import static com.example.pdfconverter.service.RateLimitService.MAX_ATTEMPTS;
+import static com.example.pdfconverter.service.RateLimitService.RESET_PERIOD;
+
+// Rate limit state of this node only; with several replicas every node grants the full quota.
+//
+// Built for the hot path: one lookup per user, times from the monotonic nano clock, and the bucket and
+// attempt counters packed into atomic longs changed by compare-and-swap. A request by a known user
+// for a known file takes no lock and allocates nothing.
+@Component
+@ConditionalOnProperty(name = "ratelimit.backend", havingValue = "local", matchIfMissing = true)
+@Slf4j
+public class LocalRateLimitState implements RateLimitState {
+    // Hard caps on the tracked state. RateLimitStateBenchmark measures ~500 bytes for a new user with a
+    // new file (user and generation entries), the stores add ~70 bytes per entry to a plain map;
+    // so the caps keep this state below ~100 MB in the worst case
+    private static final int MAX_TRACKED_USERS = 100_000;
+    private static final int MAX_TRACKED_FILES = 200_000;
+    // failed files remembered per user, the oldest go first
+    private static final int MAX_FILE_ATTEMPTS_PER_USER = 32;
+
+    private static final long ORIGIN = System.nanoTime();
+    private static final LongSupplier MONOTONIC_MILLIS = () -> (System.nanoTime() - ORIGIN) / 1_000_000;
+    private static final long RESET_PERIOD_NANOS = RESET_PERIOD.toNanos();
+    private static final long FREEZE_MILLIS = FREEZE_DURATION.toMillis();
+    private static final long FILE_ATTEMPT_WINDOW_MILLIS = FILE_ATTEMPT_WINDOW.toMillis();
+
+    // attempt counters: the time in millis since ORIGIN in the high bits, the count in the low COUNT_BITS
+    private static final int COUNT_BITS = 16;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+    // bucket: the refill period (+1, 0 = not started) in the high bits, then the limit, then the tokens
+    private static final int TOKEN_BITS = 20;
+    private static final long TOKEN_MASK = (1L << TOKEN_BITS) - 1;
+
+    // a user goes away once nothing about them can affect a decision, i.e. when the bucket is full again;
+    // generations count for 24h from the first one
+    private final ExpiringStore<String, UserState> users =
+            new ExpiringStore<>(RESET_PERIOD, true, MAX_TRACKED_USERS, MONOTONIC_MILLIS);
+    private final ExpiringStore<String, AtomicInteger> fileGenerations =
+            new ExpiringStore<>(Duration.ofHours(24), false, MAX_TRACKED_FILES, MONOTONIC_MILLIS);
+
+    @Override
+    public LimitSnapshot snapshot(String userId, String fileHash) {
+        UserState user = users.computeIfAbsent(userId, k -> new UserState());
+        long nowMillis = MONOTONIC_MILLIS.getAsLong();
+        long attempts = user.attempts.get();
+        long frozenFor = count(attempts) >= MAX_ATTEMPTS ? time(attempts) + FREEZE_MILLIS - nowMillis : 0;
+        AtomicInteger generations = fileGenerations.get(fileHash);
+        AtomicLong fileAttempts = user.fileAttempts.get(fileHash);
+        boolean fileFrozen = fileAttempts != null && isFileFrozen(fileAttempts.get(), nowMillis);
+        return LimitSnapshot.of(Math.max(frozenFor, 0) * 1_000_000, generations != null ? generations.get() : 0, fileFrozen);
+    }
+
+    // classic bandwidth with an interval refill: the bucket is full again at the start of every period
+    @Override
+    public long tryConsume(String userId, int limit, int tokens) {
+        UserState user = users.computeIfAbsent(userId, k -> new UserState());
+        long elapsed = System.nanoTime() - user.createdAt;
+        long period = elapsed / RESET_PERIOD_NANOS + 1;
+        while (true) {
+            long bucket = user.bucket.get();
+            // the limit of the subscription the bucket was started with stays, as with bucket4j
+            long bucketLimit = bucket == 0 ? limit : (bucket >>> TOKEN_BITS) & TOKEN_MASK;
+            long available = bucket == 0 || bucket >>> (2 * TOKEN_BITS) != period ? bucketLimit : bucket & TOKEN_MASK;
+            if (available < tokens) {
+                return tokens > bucketLimit ? Long.MAX_VALUE : period * RESET_PERIOD_NANOS - elapsed;
+            }
+            long updated = period << (2 * TOKEN_BITS) | bucketLimit << TOKEN_BITS | (available - tokens);
+            if (user.bucket.compareAndSet(bucket, updated)) {
+                return 0;
+            }
+        }
+    }
+
+    @Override
+    public void adjust(String userId, int limit, int tokens) {
+        UserState user = users.computeIfAbsent(userId, k -> new UserState());
+        long period = (System.nanoTime() - user.createdAt) / RESET_PERIOD_NANOS + 1;
+        while (true) {
+            long bucket = user.bucket.get();
+            // a bucket refilled since the conversion started has nothing left to settle
+            if (bucket == 0 || bucket >>> (2 * TOKEN_BITS) != period) {
+                return;
+            }
+            long bucketLimit = (bucket >>> TOKEN_BITS) & TOKEN_MASK;
+            long available = Math.max(0, Math.min(bucketLimit, (bucket & TOKEN_MASK) - tokens));
+            long updated = period << (2 * TOKEN_BITS) | bucketLimit << TOKEN_BITS | available;
+            if (updated == bucket || user.bucket.compareAndSet(bucket, updated)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void recordFailure(String userId, String fileHash) {
+        UserState user = users.computeIfAbsent(userId, k -> new UserState());
+        long nowMillis = MONOTONIC_MILLIS.getAsLong();
+        recordUserFailure(user, nowMillis);
+        recordFileFailure(user, fileHash, nowMillis);
+    }
+
+    @Override
+    public void recordUserFailure(String userId) {
+        recordUserFailure(users.computeIfAbsent(userId, k -> new UserState()), MONOTONIC_MILLIS.getAsLong());
+    }
+
+    @Override
+    public void recordFileFailure(String userId, String fileHash) {
+        recordFileFailure(users.computeIfAbsent(userId, k -> new UserState()), fileHash, MONOTONIC_MILLIS.getAsLong());
+    }
+
+    private static void recordFileFailure(UserState user, String fileHash, long nowMillis) {
+        AtomicLong fileAttempts = user.fileAttempts.get(fileHash);
+        if (fileAttempts == null) {
+            if (user.fileAttempts.size() >= MAX_FILE_ATTEMPTS_PER_USER) {
+                forgetOldestFileAttempts(user, nowMillis);
+            }
+            fileAttempts = user.fileAttempts.computeIfAbsent(fileHash, k -> new AtomicLong());
+        }
+        // attempts older than the window don't count, from MAX_ATTEMPTS on the file is frozen for the window
+        long current;
+        long updated;
+        do {
+            current = fileAttempts.get();
+            long count = nowMillis - time(current) > FILE_ATTEMPT_WINDOW_MILLIS ? 0 : count(current);
+            updated = pack(nowMillis, count + 1);
+        } while (!fileAttempts.compareAndSet(current, updated));
+    }
+
+    @Override
+    public void recordSuccess(String userId, String fileHash) {
+        UserState user = users.computeIfAbsent(userId, k -> new UserState());
+        // skips the shared write when there is nothing to clear
+        if (user.attempts.get() != 0) {
+            user.attempts.set(0);
+        }
+        if (!user.fileAttempts.isEmpty()) {
+            user.fileAttempts.remove(fileHash);
+        }
+        fileGenerations.computeIfAbsent(fileHash, k -> new AtomicInteger()).incrementAndGet();
+    }
+
+    // requests expire entries as they go, this covers quiet periods
+    @Scheduled(fixedDelayString = "${ratelimit.cleanup-interval:1m}")
+    public void expire() {
+        users.expire();
+        fileGenerations.expire();
+        log.debug("Rate limit state: users={}, generations={}", users.size(), fileGenerations.size());
+    }
+
+    // the time is that of the last failure, or of the freeze once MAX_ATTEMPTS is reached; the freeze
+    // isn't extended by later failures, and once it's over, or after FREEZE_DURATION without failures,
+    // the count starts again
+    private static void recordUserFailure(UserState user, long nowMillis) {
+        long current;
+        long updated;
+        do {
+            current = user.attempts.get();
+            long count = current != 0 && nowMillis - time(current) >= FREEZE_MILLIS ? 0 : count(current);
+            long time = count >= MAX_ATTEMPTS ? time(current) : nowMillis;
+            updated = pack(time, Math.min(count + 1, COUNT_MASK));
+        } while (!user.attempts.compareAndSet(current, updated));
+    }
+
+    private static boolean isFileFrozen(long fileAttempts, long nowMillis) {
+        return count(fileAttempts) >= MAX_ATTEMPTS && nowMillis - time(fileAttempts) < FILE_ATTEMPT_WINDOW_MILLIS;
+    }
+
+    private static void forgetOldestFileAttempts(UserState user, long nowMillis) {
+        user.fileAttempts.values().removeIf(attempts -> nowMillis - time(attempts.get()) > FILE_ATTEMPT_WINDOW_MILLIS);
+        while (user.fileAttempts.size() >= MAX_FILE_ATTEMPTS_PER_USER) {
+            user.fileAttempts.entrySet().stream()
+                    .min((a, b) -> Long.compare(time(a.getValue().get()), time(b.getValue().get())))
+                    .ifPresent(oldest -> user.fileAttempts.remove(oldest.getKey(), oldest.getValue()));
+        }
+    }
+
+    private static long pack(long millis, long count) {
+        return millis << COUNT_BITS | count;
+    }
+
+    private static long time(long packed) {
+        return packed >>> COUNT_BITS;
+    }
+
+    private static long count(long packed) {
+        return packed & COUNT_MASK;
+    }
+
+    private static final class UserState {
+        final long createdAt = System.nanoTime();
+        final AtomicLong bucket = new AtomicLong();
+        final AtomicLong attempts = new AtomicLong();
+        final Map<String, AtomicLong> fileAttempts = new ConcurrentHashMap<>();
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.pdfconverter.ratelimit;
+
+// Where RateLimitService keeps buckets, failed attempts and generation counts.
+// ratelimit.backend picks the implementation: local (per node) or redis (shared by all nodes).
+public interface RateLimitState {
+
+    LimitSnapshot snapshot(String userId, String fileHash);
+
+    // takes tokens from the user's bucket, a new bucket holds limit tokens refilled every RESET_PERIOD;
+    // returns 0 when the tokens were taken, otherwise the nanos until they could be
+    long tryConsume(String userId, int limit, int tokens);
+
+    // settles a conversion that cost more or less than was taken for it: positive tokens are taken as
+    // far as the bucket has them (the conversion is done, nothing is rejected), negative ones go back
+    // up to the limit
+    void adjust(String userId, int limit, int tokens);
+
+    // a rejected request counts against the user and against the user's attempts with this file
+    void recordFailure(String userId, String fileHash);
+
+    void recordUserFailure(String userId);
+
+    // counts a rejected request only against the user's attempts with this file, for the other files of
+    // a request whose failure was already counted against the user
+    void recordFileFailure(String userId, String fileHash);
+
+    // an allowed request clears the failed attempts and counts one generation of the file
+    void recordSuccess(String userId, String fileHash);
+}
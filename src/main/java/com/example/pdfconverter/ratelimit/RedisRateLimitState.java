@@ -0,0 +1,402 @@
+package com.example.pdfconverter.ratelimit;
+
+import com.example.pdfconverter.utils.ExpiringStore;
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.Bucket;
+import io.github.bucket4j.BucketConfiguration;
+import io.github.bucket4j.ConsumptionProbe;
+import io.github.bucket4j.distributed.ExpirationAfterWriteStrategy;
+import io.github.bucket4j.distributed.proxy.optimization.Optimizations;
+import io.github.bucket4j.redis.lettuce.cas.LettuceBasedProxyManager;
+import io.lettuce.core.ClientOptions;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisConnectionException;
+import io.lettuce.core.RedisException;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.SocketOptions;
+import io.lettuce.core.TimeoutOptions;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import io.lettuce.core.codec.ByteArrayCodec;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.example.pdfconverter.service.RateLimitService.FILE_ATTEMPT_WINDOW;
+import static com.example.pdfconverter.service.RateLimitService.FREEZE_DURATION;
+import static com.example.pdfconverter.service.RateLimitService.MAX_ATTEMPTS;
+import static com.example.pdfconverter.service.RateLimitService.RESET_PERIOD;
+
+// Rate limit state shared by all nodes through redis. Buckets are bucket4j compare-and-swap proxies;
+// attempts, freezes and generation counts are plain keys changed by small lua scripts, so concurrent
+// nodes never lose an update. User keys carry the user id as hash tag, a script stays on one cluster slot.
+//
+// A near-cache absorbs the hot path: snapshots are kept for ratelimit.redis.near-cache-ttl and a rejected
+// bucket is remembered until it refills (at most for the same ttl), so a client hammering the api costs
+// no round trip per request. Updates from other nodes show up at most that late.
+// While redis can't be reached the node falls back to its own local state, from startup on: the node
+// connects on first use and keeps trying every ratelimit.redis.reconnect-interval until it gets through,
+// lettuce reconnects by itself after that.
+@Component
+@ConditionalOnProperty(name = "ratelimit.backend", havingValue = "redis")
+@Slf4j
+public class RedisRateLimitState implements RateLimitState {
+    private static final Duration GENERATION_WINDOW = Duration.ofHours(24);
+    private static final int MAX_CACHED_ENTRIES = 100_000;
+
+    // KEYS: attempts, frozen, file attempts, file frozen; ARGV: max attempts, freeze ms, frozen until, window ms
+    private static final String RECORD_FAILURE = """
+            local attempts = redis.call('incr', KEYS[1])
+            redis.call('pexpire', KEYS[1], ARGV[2])
+            if attempts >= tonumber(ARGV[1]) then
+                redis.call('set', KEYS[2], ARGV[3], 'nx', 'px', ARGV[2])
+            end
+            if #KEYS > 2 then
+                local fileAttempts = redis.call('incr', KEYS[3])
+                redis.call('pexpire', KEYS[3], ARGV[4])
+                if fileAttempts >= tonumber(ARGV[1]) then
+                    redis.call('set', KEYS[4], '1', 'px', ARGV[4])
+                end
+            end
+            return attempts
+            """;
+    // KEYS: file attempts, file frozen; ARGV: max attempts, window ms
+    private static final String RECORD_FILE_FAILURE = """
+            local fileAttempts = redis.call('incr', KEYS[1])
+            redis.call('pexpire', KEYS[1], ARGV[2])
+            if fileAttempts >= tonumber(ARGV[1]) then
+                redis.call('set', KEYS[2], '1', 'px', ARGV[2])
+            end
+            return fileAttempts
+            """;
+    // KEYS: generations; ARGV: window ms. The window starts with the first generation
+    private static final String RECORD_GENERATION = """
+            local generations = redis.call('incr', KEYS[1])
+            if generations == 1 then
+                redis.call('pexpire', KEYS[1], ARGV[1])
+            end
+            return generations
+            """;
+
+    @Value("${spring.data.redis.host:localhost}")
+    private String host;
+    @Value("${spring.data.redis.port:6379}")
+    private int port;
+    @Value("${spring.data.redis.password:}")
+    private String password;
+    @Value("${ratelimit.redis.timeout:500ms}")
+    private Duration timeout;
+    @Value("${ratelimit.redis.near-cache-ttl:1s}")
+    private Duration nearCacheTtl;
+    @Value("${ratelimit.redis.key-prefix:ratelimit:}")
+    private String keyPrefix;
+    @Value("${ratelimit.redis.reconnect-interval:5s}")
+    private Duration reconnectInterval;
+
+    private final LocalRateLimitState fallback = new LocalRateLimitState();
+    private RedisClient client;
+    // set once by connect()
+    private final ReentrantLock connecting = new ReentrantLock();
+    private volatile StatefulRedisConnection<byte[], byte[]> connection;
+    private volatile RedisAsyncCommands<byte[], byte[]> commands;
+    private volatile LettuceBasedProxyManager proxyManager;
+    // guarded by connecting
+    private long nextConnectAt;
+    // the proxies keep the batching state of their bucket
+    private ExpiringStore<String, Bucket> buckets;
+    private ExpiringStore<String, LimitSnapshot> snapshots;
+    private ExpiringStore<String, Rejection> rejections;
+    private volatile boolean redisAvailable = true;
+
+    @PostConstruct
+    public void start() {
+        RedisURI.Builder uri = RedisURI.builder().withHost(host).withPort(port).withTimeout(timeout);
+        if (!password.isEmpty()) {
+            uri.withPassword(password.toCharArray());
+        }
+        client = RedisClient.create(uri.build());
+        // fail fast while disconnected instead of queueing, the fallback takes over
+        client.setOptions(ClientOptions.builder()
+                .disconnectedBehavior(ClientOptions.DisconnectedBehavior.REJECT_COMMANDS)
+                .timeoutOptions(TimeoutOptions.enabled(timeout))
+                .socketOptions(SocketOptions.builder().connectTimeout(timeout).build())
+                .build());
+        buckets = new ExpiringStore<>(RESET_PERIOD, true, MAX_CACHED_ENTRIES);
+        snapshots = new ExpiringStore<>(nearCacheTtl, false, MAX_CACHED_ENTRIES);
+        rejections = new ExpiringStore<>(nearCacheTtl, false, MAX_CACHED_ENTRIES);
+        nextConnectAt = System.nanoTime();
+        log.info("Rate limit state in redis at {}:{}, near-cache ttl {}", host, port, nearCacheTtl);
+        try {
+            connect();
+        } catch (RedisException e) {
+            markUnavailable(e);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (connection != null) {
+            connection.close();
+        }
+        client.shutdown();
+    }
+
+    @Override
+    public LimitSnapshot snapshot(String userId, String fileHash) {
+        String cacheKey = userId + "|" + fileHash;
+        LimitSnapshot cached = snapshots.get(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+        try {
+            // one pipelined round trip
+            RedisAsyncCommands<byte[], byte[]> redis = commands();
+            RedisFuture<byte[]> frozen = redis.get(key(userId, "frozen"));
+            RedisFuture<byte[]> generations = redis.get(generationsKey(fileHash));
+            RedisFuture<Long> fileFrozen = redis.exists(key(userId, "file-frozen:" + fileHash));
+            LimitSnapshot snapshot = LimitSnapshot.of(frozenForNanos(await(frozen)), parseInt(await(generations)), await(fileFrozen) > 0);
+            markAvailable();
+            snapshots.compute(cacheKey, (k, previous) -> snapshot);
+            return snapshot;
+        } catch (RedisException e) {
+            markUnavailable(e);
+            return fallback.snapshot(userId, fileHash);
+        }
+    }
+
+    @Override
+    public long tryConsume(String userId, int limit, int tokens) {
+        // tokens only come back with the refill or a refund, until then the bucket can't hold more than it did
+        Rejection rejection = rejections.get(userId);
+        long now = System.nanoTime();
+        if (rejection != null && tokens > rejection.remaining() && now < rejection.refillAt()) {
+            return rejection.refillAt() - now;
+        }
+        try {
+            ConsumptionProbe probe = bucket(userId, limit).tryConsumeAndReturnRemaining(tokens);
+            markAvailable();
+            if (!probe.isConsumed()) {
+                Rejection remembered = new Rejection(probe.getRemainingTokens(), now + probe.getNanosToWaitForRefill());
+                rejections.compute(userId, (k, previous) -> remembered);
+                return Math.max(probe.getNanosToWaitForRefill(), 1);
+            }
+            return 0;
+        } catch (RedisException e) {
+            markUnavailable(e);
+            return fallback.tryConsume(userId, limit, tokens);
+        }
+    }
+
+    @Override
+    public void adjust(String userId, int limit, int tokens) {
+        try {
+            Bucket bucket = bucket(userId, limit);
+            if (tokens > 0) {
+                bucket.tryConsumeAsMuchAsPossible(tokens);
+            } else if (tokens < 0) {
+                // addTokens stops at the capacity
+                bucket.addTokens(-tokens);
+                rejections.remove(userId);
+            }
+            markAvailable();
+        } catch (RedisException e) {
+            markUnavailable(e);
+            fallback.adjust(userId, limit, tokens);
+        }
+    }
+
+    @Override
+    public void recordFailure(String userId, String fileHash) {
+        try {
+            runRecordFailure(key(userId, "attempts"), key(userId, "frozen"),
+                    key(userId, "file-attempts:" + fileHash), key(userId, "file-frozen:" + fileHash));
+            markAvailable();
+        } catch (RedisException e) {
+            markUnavailable(e);
+            fallback.recordFailure(userId, fileHash);
+        }
+        snapshots.remove(userId + "|" + fileHash);
+    }
+
+    @Override
+    public void recordUserFailure(String userId) {
+        try {
+            runRecordFailure(key(userId, "attempts"), key(userId, "frozen"));
+            markAvailable();
+        } catch (RedisException e) {
+            markUnavailable(e);
+            fallback.recordUserFailure(userId);
+        }
+    }
+
+    @Override
+    public void recordFileFailure(String userId, String fileHash) {
+        try {
+            await(commands().<Long>eval(RECORD_FILE_FAILURE, ScriptOutputType.INTEGER,
+                    new byte[][]{key(userId, "file-attempts:" + fileHash), key(userId, "file-frozen:" + fileHash)},
+                    bytes(Integer.toString(MAX_ATTEMPTS)), millis(FILE_ATTEMPT_WINDOW)));
+            markAvailable();
+        } catch (RedisException e) {
+            markUnavailable(e);
+            fallback.recordFileFailure(userId, fileHash);
+        }
+        snapshots.remove(userId + "|" + fileHash);
+    }
+
+    @Override
+    public void recordSuccess(String userId, String fileHash) {
+        try {
+            RedisAsyncCommands<byte[], byte[]> redis = commands();
+            RedisFuture<Long> reset = redis.del(key(userId, "attempts"), key(userId, "frozen"),
+                    key(userId, "file-attempts:" + fileHash), key(userId, "file-frozen:" + fileHash));
+            RedisFuture<Long> generation = redis.eval(RECORD_GENERATION, ScriptOutputType.INTEGER,
+                    new byte[][]{generationsKey(fileHash)}, millis(GENERATION_WINDOW));
+            await(reset);
+            await(generation);
+            markAvailable();
+        } catch (RedisException e) {
+            markUnavailable(e);
+            fallback.recordSuccess(userId, fileHash);
+        }
+        snapshots.remove(userId + "|" + fileHash);
+    }
+
+    @Scheduled(fixedDelayString = "${ratelimit.cleanup-interval:1m}")
+    public void expire() {
+        buckets.expire();
+        snapshots.expire();
+        rejections.expire();
+        fallback.expire();
+    }
+
+    private Bucket bucket(String userId, int limit) {
+        LettuceBasedProxyManager proxies = proxyManager();
+        return buckets.computeIfAbsent(userId, id -> proxies.builder()
+                .withOptimization(Optimizations.batching())
+                .build(key(id, "bucket"), () -> bucketConfiguration(limit)));
+    }
+
+    private void runRecordFailure(byte[]... keys) {
+        long frozenUntil = System.currentTimeMillis() + FREEZE_DURATION.toMillis();
+        await(commands().<Long>eval(RECORD_FAILURE, ScriptOutputType.INTEGER, keys,
+                bytes(Integer.toString(MAX_ATTEMPTS)), millis(FREEZE_DURATION),
+                bytes(Long.toString(frozenUntil)), millis(FILE_ATTEMPT_WINDOW)));
+    }
+
+    private RedisAsyncCommands<byte[], byte[]> commands() {
+        RedisAsyncCommands<byte[], byte[]> connected = commands;
+        return connected != null ? connected : connect();
+    }
+
+    private LettuceBasedProxyManager proxyManager() {
+        commands();
+        return proxyManager;
+    }
+
+    // one thread tries at a time and at most once per reconnect interval, everybody else falls back meanwhile
+    private RedisAsyncCommands<byte[], byte[]> connect() {
+        if (!connecting.tryLock()) {
+            throw new RedisConnectionException("Connecting to redis at " + host + ":" + port);
+        }
+        try {
+            if (commands != null) {
+                return commands;
+            }
+            long now = System.nanoTime();
+            if (now - nextConnectAt < 0) {
+                throw new RedisConnectionException("Redis at " + host + ":" + port + " unreachable, retrying within " + reconnectInterval);
+            }
+            nextConnectAt = now + reconnectInterval.toNanos();
+            StatefulRedisConnection<byte[], byte[]> connected = client.connect(ByteArrayCodec.INSTANCE);
+            // a bucket disappears from redis once it would be full again anyway
+            proxyManager = LettuceBasedProxyManager.builderFor(connected.async())
+                    .withExpirationStrategy(ExpirationAfterWriteStrategy.basedOnTimeForRefillingBucketUpToMax(Duration.ofMinutes(1)))
+                    .build();
+            connection = connected;
+            commands = connected.async();
+            return commands;
+        } finally {
+            connecting.unlock();
+        }
+    }
+
+    private <T> T await(RedisFuture<T> future) {
+        try {
+            return future.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RedisException("Interrupted while waiting for redis", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RedisException redisException
+                    ? redisException : new RedisException("Redis command failed", e.getCause());
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new RedisException("Redis did not answer within " + timeout, e);
+        }
+    }
+
+    private void markAvailable() {
+        if (!redisAvailable) {
+            redisAvailable = true;
+            log.info("Redis is reachable again, rate limits are shared across nodes");
+        }
+    }
+
+    private void markUnavailable(RedisException e) {
+        if (redisAvailable) {
+            redisAvailable = false;
+            log.warn("Redis unreachable, falling back to per-node rate limits: {}", e.getMessage());
+        }
+    }
+
+    private static BucketConfiguration bucketConfiguration(int limit) {
+        return BucketConfiguration.builder()
+                .addLimit(Bandwidth.builder().capacity(limit).refillIntervally(limit, RESET_PERIOD).build())
+                .build();
+    }
+
+    // the user id in braces is the cluster hash tag
+    private byte[] key(String userId, String name) {
+        return bytes(keyPrefix + "{" + userId + "}:" + name);
+    }
+
+    private byte[] generationsKey(String fileHash) {
+        return bytes(keyPrefix + "generations:" + fileHash);
+    }
+
+    private static long frozenForNanos(byte[] frozenUntil) {
+        if (frozenUntil == null) {
+            return 0;
+        }
+        long millis = Long.parseLong(new String(frozenUntil, StandardCharsets.US_ASCII)) - System.currentTimeMillis();
+        return Math.max(millis, 0) * 1_000_000;
+    }
+
+    private static int parseInt(byte[] value) {
+        return value == null ? 0 : Integer.parseInt(new String(value, StandardCharsets.US_ASCII));
+    }
+
+    private static byte[] millis(Duration duration) {
+        return bytes(Long.toString(duration.toMillis()));
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private record Rejection(long remaining, long refillAt) {
+    }
+}
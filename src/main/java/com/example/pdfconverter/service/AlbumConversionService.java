@@ -0,0 +1,218 @@
+package com.example.pdfconverter.service;
+
+import com.example.pdfconverter.converter.FormatSniffer;
+import com.example.pdfconverter.exception.BulkheadFullException;
+import com.example.pdfconverter.model.AlbumLayout;
+import com.example.pdfconverter.model.ConversionFormat;
+import com.example.pdfconverter.model.ConversionInput;
+import com.example.pdfconverter.model.OutputProfile;
+import com.example.pdfconverter.upload.SpooledUpload;
+import com.example.pdfconverter.utils.ImageUtils;
+import com.example.pdfconverter.utils.PdfUtils;
+import com.itextpdf.io.image.ImageData;
+import com.itextpdf.kernel.geom.PageSize;
+import com.itextpdf.kernel.geom.Rectangle;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfPage;
+import com.itextpdf.kernel.pdf.canvas.PdfCanvas;
+import com.itextpdf.kernel.pdf.xobject.PdfImageXObject;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Puts many images into one pdf. Uploads are hashed first, byte-identical images are decoded
+// once and embedded as a single image XObject that every page using them references.
+// Decoding runs in parallel, each decode still goes through the image bulkhead.
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class AlbumConversionService {
+    // columns and rows per grid page, beyond this the cells are too small to show anything
+    public static final int MAX_GRID = 10;
+    private static final float GRID_GAP = 8;
+
+    private final ConversionBulkheads bulkheads;
+    private final FormatSniffer formatSniffer;
+
+    @Value("${pdf.album.parallelism:0}")
+    private int parallelism;
+    @Value("${pdf.album.max-images:200}")
+    private int maxImages;
+    @Value("${pdf.album.queue-length:1000}")
+    private int queueLength;
+    @Value("${pdf.image.target-dpi:150}")
+    private int targetDpi;
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void start() {
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueLength), new CustomizableThreadFactory("album-decode-"));
+    }
+
+    // resolves to one ImageData per upload, duplicates share the same instance
+    public CompletableFuture<List<ImageData>> prepareAll(List<ConversionInput> inputs) {
+        if (inputs.isEmpty()) {
+            throw new IllegalArgumentException("No images to convert.");
+        }
+        if (inputs.size() > maxImages) {
+            throw new IllegalArgumentException("An album can contain at most " + maxImages + " images.");
+        }
+        List<CompletableFuture<String>> hashes = new ArrayList<>();
+        for (int i = 0; i < inputs.size(); i++) {
+            int position = i + 1;
+            ConversionInput input = inputs.get(i);
+            hashes.add(submit(() -> hash(position, input)));
+        }
+        return CompletableFuture.allOf(hashes.toArray(CompletableFuture[]::new))
+                .thenCompose(done -> decodeDistinct(inputs, hashes.stream().map(CompletableFuture::join).toList()));
+    }
+
+    public void writeAlbum(List<ImageData> images, AlbumLayout layout, int columns, int rows,
+                           OutputProfile profile, OutputStream outputStream) throws IOException {
+        if (layout == AlbumLayout.GRID && (columns < 1 || rows < 1 || columns > MAX_GRID || rows > MAX_GRID)) {
+            throw new IllegalArgumentException("Grid columns and rows must be between 1 and " + MAX_GRID + ".");
+        }
+        PdfDocument pdf = new PdfDocument(PdfUtils.newWriter(outputStream, profile));
+        // one XObject per distinct image, written out once after its last page
+        Map<ImageData, PdfImageXObject> xObjects = new IdentityHashMap<>();
+        Map<ImageData, Integer> lastUse = new IdentityHashMap<>();
+        for (int i = 0; i < images.size(); i++) {
+            lastUse.put(images.get(i), i);
+        }
+
+        int perPage = layout == AlbumLayout.GRID ? Math.multiplyExact(columns, rows) : 1;
+        for (int first = 0; first < images.size(); first += perPage) {
+            List<ImageData> pageImages = images.subList(first, Math.min(first + perPage, images.size()));
+            PdfPage page;
+            if (layout == AlbumLayout.GRID) {
+                page = pdf.addNewPage(PageSize.A4);
+            } else {
+                ImageData image = pageImages.get(0);
+                page = pdf.addNewPage(ImageUtils.pageFor((int) image.getWidth(), (int) image.getHeight()));
+            }
+
+            Rectangle area = page.getPageSize().applyMargins(
+                    ImageUtils.PAGE_MARGIN, ImageUtils.PAGE_MARGIN, ImageUtils.PAGE_MARGIN, ImageUtils.PAGE_MARGIN, false);
+            int pageColumns = layout == AlbumLayout.GRID ? columns : 1;
+            int pageRows = layout == AlbumLayout.GRID ? rows : 1;
+            float cellWidth = (area.getWidth() - GRID_GAP * (pageColumns - 1)) / pageColumns;
+            float cellHeight = (area.getHeight() - GRID_GAP * (pageRows - 1)) / pageRows;
+
+            PdfCanvas canvas = new PdfCanvas(page);
+            for (int i = 0; i < pageImages.size(); i++) {
+                ImageData image = pageImages.get(i);
+                PdfImageXObject xObject = xObjects.computeIfAbsent(image, PdfImageXObject::new);
+                float cellX = area.getLeft() + (i % pageColumns) * (cellWidth + GRID_GAP);
+                float cellY = area.getTop() - (i / pageColumns + 1) * cellHeight - (i / pageColumns) * GRID_GAP;
+                canvas.addXObjectFittedIntoRectangle(xObject, fit(image, cellX, cellY, cellWidth, cellHeight));
+            }
+            canvas.release();
+            page.flush();
+
+            // images that don't appear on later pages can leave memory now
+            for (int i = 0; i < pageImages.size(); i++) {
+                ImageData image = pageImages.get(i);
+                if (lastUse.get(image) == first + i) {
+                    xObjects.remove(image).flush();
+                }
+            }
+        }
+        pdf.close();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private CompletableFuture<List<ImageData>> decodeDistinct(List<ConversionInput> inputs, List<String> hashes) {
+        // first upload of every distinct hash is the one that gets decoded
+        Map<String, Integer> distinct = new LinkedHashMap<>();
+        for (int i = 0; i < hashes.size(); i++) {
+            distinct.putIfAbsent(hashes.get(i), i);
+        }
+        log.debug("Album: {} images, {} distinct", inputs.size(), distinct.size());
+
+        Map<String, CompletableFuture<ImageData>> decoded = new HashMap<>();
+        distinct.forEach((hash, position) -> decoded.put(hash,
+                submit(() -> decode(inputs.get(position)))));
+        return CompletableFuture.allOf(decoded.values().toArray(CompletableFuture[]::new))
+                .thenApply(done -> hashes.stream().map(hash -> decoded.get(hash).join()).toList());
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> task) {
+        try {
+            return CompletableFuture.supplyAsync(task, executor);
+        } catch (RejectedExecutionException e) {
+            throw new BulkheadFullException("album", "Too many albums in progress. Please try again later.", 30);
+        }
+    }
+
+    // also checks the content really is an image before anything is decoded
+    private String hash(int position, ConversionInput input) {
+        try {
+            if (formatSniffer.sniff(input) != ConversionFormat.IMAGE) {
+                throw new IllegalArgumentException("File " + position + " is not an image.");
+            }
+        } catch (UnsupportedOperationException e) {
+            throw new IllegalArgumentException("File " + position + " is not an image.");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (input.contentHash() != null) {
+            return input.contentHash() + ":" + input.size();
+        }
+        try (InputStream content = input.openStream()) {
+            return SpooledUpload.contentHashOf(content) + ":" + input.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private ImageData decode(ConversionInput input) {
+        try {
+            return bulkheads.execute(ConversionFormat.IMAGE, input, () -> {
+                try (InputStream content = input.openStream()) {
+                    return ImageUtils.prepare(content.readAllBytes(), targetDpi);
+                }
+            });
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    // largest rectangle with the image's aspect ratio, centered in the cell
+    private Rectangle fit(ImageData image, float x, float y, float width, float height) {
+        float scale = Math.min(width / image.getWidth(), height / image.getHeight());
+        float fittedWidth = image.getWidth() * scale;
+        float fittedHeight = image.getHeight() * scale;
+        return new Rectangle(x + (width - fittedWidth) / 2, y + (height - fittedHeight) / 2, fittedWidth, fittedHeight);
+    }
+}
@@ -0,0 +1,189 @@
+package com.example.pdfconverter.service;
+
+import com.example.pdfconverter.exception.BulkheadFullException;
+import com.example.pdfconverter.model.BatchItemResult;
+import com.example.pdfconverter.model.ConversionInput;
+import com.example.pdfconverter.model.OutputProfile;
+import com.example.pdfconverter.utils.PdfUtils;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.utils.PdfMerger;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+// Converts the files of a batch in parallel into temporary pdfs, then either merges them
+// in upload order or streams them out as a zip. A failing file never fails the whole batch.
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class BatchConversionService {
+    private final ConversionService conversionService;
+    private final ObjectMapper objectMapper;
+
+    @Value("${pdf.batch.parallelism:0}")
+    private int parallelism;
+    @Value("${pdf.batch.max-files:50}")
+    private int maxFiles;
+    @Value("${pdf.batch.queue-length:500}")
+    private int queueLength;
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void start() {
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueLength), new CustomizableThreadFactory("batch-convert-"));
+    }
+
+    public CompletableFuture<List<BatchItemResult>> convertAll(List<ConversionInput> inputs) {
+        if (inputs.isEmpty()) {
+            throw new IllegalArgumentException("No files to convert.");
+        }
+        if (inputs.size() > maxFiles) {
+            throw new IllegalArgumentException("A batch can contain at most " + maxFiles + " files.");
+        }
+
+        List<CompletableFuture<BatchItemResult>> conversions = new ArrayList<>();
+        for (int i = 0; i < inputs.size(); i++) {
+            int position = i + 1;
+            ConversionInput input = inputs.get(i);
+            try {
+                conversions.add(CompletableFuture.supplyAsync(() -> convertOne(position, input), executor));
+            } catch (RejectedExecutionException e) {
+                // the files that made it into the queue are converted for nobody
+                conversions.forEach(conversion -> conversion.thenAccept(result -> cleanup(List.of(result))));
+                throw new BulkheadFullException("batch", "Too many batch conversions in progress. Please try again later.", 30);
+            }
+        }
+        return CompletableFuture.allOf(conversions.toArray(CompletableFuture[]::new))
+                .thenApply(done -> conversions.stream().map(CompletableFuture::join).toList());
+    }
+
+    public void writeMerged(List<BatchItemResult> results, OutputProfile profile,
+                            OutputStream outputStream) throws IOException {
+        PdfDocument merged = new PdfDocument(PdfUtils.newWriter(outputStream, profile));
+        PdfMerger merger = new PdfMerger(merged);
+        for (BatchItemResult result : results) {
+            if (!result.succeeded()) {
+                continue;
+            }
+            try (PdfDocument source = new PdfDocument(new PdfReader(result.result().toFile()))) {
+                merger.merge(source, 1, source.getNumberOfPages());
+                // copied pages are written out right away instead of piling up until close
+                merged.flushCopiedObjects(source);
+            }
+        }
+        merged.close();
+    }
+
+    public void writeZip(List<BatchItemResult> results, OutputStream outputStream) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(outputStream, StandardCharsets.UTF_8);
+        // pdf streams are already compressed, deflating them again is mostly wasted cpu
+        zip.setLevel(Deflater.BEST_SPEED);
+        Set<String> usedNames = new HashSet<>();
+        List<Map<String, Object>> manifest = new ArrayList<>();
+        for (BatchItemResult result : results) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("position", result.position());
+            item.put("file", result.originalFilename());
+            if (result.succeeded()) {
+                String entryName = uniqueName(result, usedNames);
+                zip.putNextEntry(new ZipEntry(entryName));
+                Files.copy(result.result(), zip);
+                zip.closeEntry();
+                item.put("status", "done");
+                item.put("entry", entryName);
+            } else {
+                item.put("status", "failed");
+                item.put("error", result.error());
+            }
+            manifest.add(item);
+        }
+        // per-file outcome, so clients can tell which uploads are missing from the archive
+        zip.putNextEntry(new ZipEntry("manifest.json"));
+        zip.write(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(manifest));
+        zip.closeEntry();
+        zip.finish();
+    }
+
+    public void cleanup(List<BatchItemResult> results) {
+        for (BatchItemResult result : results) {
+            if (result.succeeded()) {
+                try {
+                    Files.deleteIfExists(result.result());
+                } catch (IOException e) {
+                    log.warn("Failed to delete batch result {}: {}", result.result(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private BatchItemResult convertOne(int position, ConversionInput input) {
+        Path result = null;
+        try {
+            result = Files.createTempFile("batch-", ".pdf");
+            try (OutputStream outputStream = Files.newOutputStream(result)) {
+                conversionService.convertToPdf(input, outputStream);
+            }
+            return new BatchItemResult(position, input.originalFilename(), result, null);
+        } catch (Exception e) {
+            log.warn("Batch conversion of {} failed: {}", input.originalFilename(), e.getMessage());
+            deleteQuietly(result);
+            String error = e instanceof UnsupportedOperationException || e instanceof IllegalArgumentException
+                    || e instanceof BulkheadFullException ? e.getMessage() : "Conversion failed.";
+            return new BatchItemResult(position, input.originalFilename(), null, error);
+        }
+    }
+
+    private String uniqueName(BatchItemResult result, Set<String> usedNames) {
+        String name = result.convertedName();
+        if (!usedNames.add(name)) {
+            name = String.format("%02d_%s", result.position(), name);
+            usedNames.add(name);
+        }
+        return name;
+    }
+
+    private void deleteQuietly(Path path) {
+        if (path == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Failed to delete {}: {}", path, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.example.pdfconverter.service;
+
+import com.example.pdfconverter.exception.BulkheadFullException;
+import com.example.pdfconverter.model.ConversionFormat;
+import com.example.pdfconverter.model.ConversionInput;
+import com.example.pdfconverter.model.Requester;
+import com.example.pdfconverter.model.SubscriptionType;
+import com.example.pdfconverter.ratelimit.AdaptiveConcurrencyLimiter;
+import com.example.pdfconverter.utils.LatencyHistogram;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Every format gets its own bounded executor, so a burst of slow docx jobs
+// can only fill the docx queue and never takes threads from text or images.
+//
+// Within a format the queue is a weighted fair queue across users (self-clocked fair queuing): every
+// job gets a virtual finish time of max(virtual time, the user's last finish) + 1 / weight of the
+// user's subscription, and the job with the earliest one runs next. A user with fifty queued jobs only
+// pushes back their own jobs, and a VIP job overtakes the queued jobs of free users.
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class ConversionBulkheads {
+    private final Environment environment;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final RateLimitService rateLimitService;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final Map<ConversionFormat, Bulkhead> bulkheads = new EnumMap<>(ConversionFormat.class);
+    private final Map<SubscriptionType, Double> weights = new EnumMap<>(SubscriptionType.class);
+    private final Map<SubscriptionType, LatencyHistogram> queueWaits = new EnumMap<>(SubscriptionType.class);
+
+    @PostConstruct
+    public void start() {
+        for (SubscriptionType subscription : SubscriptionType.values()) {
+            double defaultWeight = switch (subscription) {
+                case FREE -> 1;
+                case PRO -> 4;
+                case VIP -> 16;
+            };
+            weights.put(subscription, environment.getProperty(
+                    "pdf.scheduler.weight." + subscription.name().toLowerCase(), Double.class, defaultWeight));
+            queueWaits.put(subscription, new LatencyHistogram());
+        }
+        log.info("Conversion queue weights: {}", weights);
+
+        for (ConversionFormat format : ConversionFormat.values()) {
+            String prefix = "pdf.bulkhead." + format.name().toLowerCase() + ".";
+            int defaultConcurrency = format == ConversionFormat.DOCX ? 2 : Runtime.getRuntime().availableProcessors();
+            int concurrency = environment.getProperty(prefix + "concurrency", Integer.class, defaultConcurrency);
+            int queueLength = environment.getProperty(prefix + "queue-length", Integer.class, 50);
+            Duration queueTimeout = environment.getProperty(prefix + "queue-timeout", Duration.class, Duration.ofSeconds(30));
+
+            bulkheads.put(format, new Bulkhead(format, concurrency, queueLength, queueTimeout));
+            log.info("Bulkhead {}: concurrency={}, queue={}, queueTimeout={}", format, concurrency, queueLength, queueTimeout);
+        }
+    }
+
+    // runs the task on the format's executor and waits for it, the caller's thread only blocks;
+    // the time on the worker, without the queueing, is what the format's concurrency limit adapts to,
+    // and the work there is what the input's rate limit tokens are settled by
+    public <T> T execute(ConversionFormat format, ConversionInput input, Callable<T> task) throws Exception {
+        concurrencyLimiter.onStart(format);
+        // wall time and cost of the work on the worker
+        long[] runNanos = new long[2];
+        Requester requester = input.requester() != null ? input.requester() : Requester.ANONYMOUS;
+        Bulkhead bulkhead = bulkheads.get(format);
+        // async jobs have waited in their own queue already and nobody is holding a connection for them
+        Duration queueTimeout = input.queueTimeout() != null ? input.queueTimeout() : bulkhead.queueTimeout;
+        try {
+            T result = await(bulkhead.submit(requester, queueTimeout, () -> {
+                long wallStart = System.nanoTime();
+                long cpuStart = threads.getCurrentThreadCpuTime();
+                try {
+                    return task.call();
+                } finally {
+                    runNanos[0] = System.nanoTime() - wallStart;
+                    // LibreOffice works in its own process, the wall time covers that
+                    runNanos[1] = Math.max(runNanos[0], threads.getCurrentThreadCpuTime() - cpuStart);
+                }
+            }));
+            concurrencyLimiter.onSuccess(format, input.size(), runNanos[0]);
+            rateLimitService.settle(input, format, runNanos[1]);
+            return result;
+        } catch (BulkheadFullException e) {
+            concurrencyLimiter.onDropped(format);
+            throw e;
+        } finally {
+            concurrencyLimiter.onFinish(format);
+        }
+    }
+
+    // refuses a conversion the format's bulkhead has no room for at the moment, before a response is
+    // committed for it; execute can still refuse it when others got there first
+    public void checkCapacity(ConversionFormat format) {
+        Bulkhead bulkhead = bulkheads.get(format);
+        if (bulkhead.isFull()) {
+            concurrencyLimiter.onDropped(format);
+            throw bulkhead.full();
+        }
+    }
+
+    private static <T> T await(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    public Map<SubscriptionType, QueueWaitStats> queueWaitStats() {
+        Map<SubscriptionType, QueueWaitStats> stats = new EnumMap<>(SubscriptionType.class);
+        queueWaits.forEach((subscription, waits) -> stats.put(subscription, new QueueWaitStats(waits.count(),
+                waits.percentileMillis(50), waits.percentileMillis(95), waits.percentileMillis(99), waits.maxMillis())));
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        bulkheads.values().forEach(bulkhead -> bulkhead.executor.shutdownNow());
+    }
+
+    private class Bulkhead {
+        private final ConversionFormat format;
+        private final Duration queueTimeout;
+        private final ThreadPoolExecutor executor;
+        // guarded by this: the finish time of the last job that started, and of the last queued job per
+        // user, as long as that one hasn't started
+        private double virtualTime;
+        private final Map<String, Double> lastFinish = new HashMap<>();
+        private long sequence;
+
+        private Bulkhead(ConversionFormat format, int concurrency, int queueLength, Duration queueTimeout) {
+            this.format = format;
+            this.queueTimeout = queueTimeout;
+            this.executor = new ThreadPoolExecutor(concurrency, concurrency, 0L, TimeUnit.MILLISECONDS,
+                    new FairQueue(queueLength),
+                    new CustomizableThreadFactory("convert-" + format.name().toLowerCase() + "-"),
+                    new ThreadPoolExecutor.AbortPolicy()) {
+                @Override
+                protected void beforeExecute(Thread thread, Runnable runnable) {
+                    started((QueuedConversion<?>) runnable);
+                }
+            };
+        }
+
+        private <T> Future<T> submit(Requester requester, Duration queueTimeout, Callable<T> task) {
+            long enqueuedAt = System.nanoTime();
+            Callable<T> timed = () -> {
+                // a job that waited too long is dropped, its client has most likely given up by now
+                long waitedNanos = System.nanoTime() - enqueuedAt;
+                if (waitedNanos > queueTimeout.toNanos()) {
+                    throw new BulkheadFullException(format.name(),
+                            "Conversion waited too long in the " + format + " queue.", retryAfterSeconds());
+                }
+                return task.call();
+            };
+
+            QueuedConversion<T> conversion;
+            Double previousFinish;
+            synchronized (this) {
+                previousFinish = lastFinish.get(requester.userId());
+                double start = Math.max(virtualTime, previousFinish != null ? previousFinish : 0);
+                double finish = start + 1 / weights.get(requester.subscription());
+                lastFinish.put(requester.userId(), finish);
+                conversion = new QueuedConversion<>(timed, requester, finish, sequence++, enqueuedAt);
+            }
+            try {
+                executor.execute(conversion);
+                return conversion;
+            } catch (RejectedExecutionException e) {
+                // the job never queued, its user keeps their place
+                synchronized (this) {
+                    if (previousFinish == null) {
+                        lastFinish.remove(requester.userId(), conversion.finish);
+                    } else {
+                        lastFinish.replace(requester.userId(), conversion.finish, previousFinish);
+                    }
+                }
+                log.warn("Bulkhead {} is full: active={}, queued={}", format,
+                        executor.getActiveCount(), executor.getQueue().size());
+                throw full();
+            }
+        }
+
+        // every worker busy and no room left in the queue
+        private boolean isFull() {
+            return executor.getActiveCount() >= executor.getMaximumPoolSize()
+                    && executor.getQueue().remainingCapacity() == 0;
+        }
+
+        private BulkheadFullException full() {
+            return new BulkheadFullException(format.name(),
+                    "Too many " + format + " conversions in progress. Please try again later.", retryAfterSeconds());
+        }
+
+        private void started(QueuedConversion<?> conversion) {
+            queueWaits.get(conversion.requester.subscription()).record(System.nanoTime() - conversion.enqueuedAt);
+            synchronized (this) {
+                virtualTime = Math.max(virtualTime, conversion.finish);
+                // a user without queued jobs starts again from the virtual time
+                lastFinish.remove(conversion.requester.userId(), conversion.finish);
+            }
+        }
+
+        private long retryAfterSeconds() {
+            return Math.max(1, queueTimeout.getSeconds() / 2);
+        }
+    }
+
+    private static final class QueuedConversion<T> extends FutureTask<T> {
+        private static final Comparator<Runnable> ORDER = Comparator
+                .comparingDouble((Runnable runnable) -> ((QueuedConversion<?>) runnable).finish)
+                .thenComparingLong(runnable -> ((QueuedConversion<?>) runnable).sequence);
+
+        private final Requester requester;
+        private final double finish;
+        private final long sequence;
+        private final long enqueuedAt;
+
+        private QueuedConversion(Callable<T> task, Requester requester, double finish, long sequence, long enqueuedAt) {
+            super(task);
+            this.requester = requester;
+            this.finish = finish;
+            this.sequence = sequence;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    // a priority queue by virtual finish time that, like the ArrayBlockingQueue before, refuses jobs
+    // past its capacity so the executor rejects them
+    private static final class FairQueue extends PriorityBlockingQueue<Runnable> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        private FairQueue(int capacity) {
+            super(Math.max(1, capacity), QueuedConversion.ORDER);
+            this.capacity = capacity;
+        }
+
+        // serialised so that the size check holds, takes only ever make room
+        @Override
+        public synchronized boolean offer(Runnable runnable) {
+            return size() < capacity && super.offer(runnable);
+        }
+
+        @Override
+        public int remainingCapacity() {
+            return Math.max(0, capacity - size());
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.example.pdfconverter.service;
+
+import com.example.pdfconverter.exception.BulkheadFullException;
+import com.example.pdfconverter.model.ConversionInput;
+import com.example.pdfconverter.model.ConversionJob;
+import com.example.pdfconverter.model.OutputProfile;
+import com.example.pdfconverter.model.Requester;
+import com.example.pdfconverter.model.StoredResult;
+import com.example.pdfconverter.store.ResultStore;
+import com.example.pdfconverter.upload.SpooledUpload;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Accepts uploads, converts them on a worker pool and keeps the result until the job expires.
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class ConversionJobService {
+    private final ConversionService conversionService;
+    private final ResultStore resultStore;
+    private final Map<String, ConversionJob> jobs = new ConcurrentHashMap<>();
+
+    @Value("${pdf.output-dir}")
+    private String outputDir;
+    @Value("${pdf.jobs.workers:4}")
+    private int workers;
+    @Value("${pdf.jobs.queue-length:100}")
+    private int queueLength;
+    @Value("${pdf.jobs.queue-timeout:10m}")
+    private Duration queueTimeout;
+    @Value("${pdf.jobs.ttl:1h}")
+    private Duration jobTtl;
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void start() throws IOException {
+        Files.createDirectories(jobsDir());
+        executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueLength), new CustomizableThreadFactory("conversion-job-"));
+    }
+
+    public ConversionJob submit(MultipartFile file, Requester requester, OutputProfile profile) throws IOException {
+        String originalFilename = file.getOriginalFilename();
+        if (file.getContentType() == null || originalFilename == null) {
+            throw new IllegalArgumentException("Invalid file or MIME type.");
+        }
+
+        ConversionJob job = new ConversionJob(UUID.randomUUID().toString(), requester.userId(), originalFilename);
+        // the multipart file is gone once the request ends, so the job keeps its own copy
+        // (a spooled upload is moved, not copied)
+        Path upload = jobsDir().resolve(job.getId() + ".upload");
+        file.transferTo(upload);
+        ConversionInput input = ConversionInput.of(upload, originalFilename, file.getContentType())
+                .withContentHash(SpooledUpload.contentHashOf(file))
+                .withProfile(profile)
+                .withRequester(requester)
+                .withQueueTimeout(queueTimeout);
+
+        return enqueue(job, input, upload);
+    }
+
+    // queues an upload that already sits in a file of its own, e.g. a completed chunked upload;
+    // the file is moved into the job directory
+    public ConversionJob submit(ConversionInput assembled, Path file, String ownerId) throws IOException {
+        ConversionJob job = new ConversionJob(UUID.randomUUID().toString(), ownerId, assembled.originalFilename());
+        Path upload = jobsDir().resolve(job.getId() + ".upload");
+        Files.move(file, upload, StandardCopyOption.REPLACE_EXISTING);
+        ConversionInput input = ConversionInput.of(upload, assembled.originalFilename(), assembled.contentType())
+                .withContentHash(assembled.contentHash())
+                .withFormat(assembled.format())
+                .withProfile(assembled.profile())
+                .withRequester(assembled.requester())
+                .withQueueTimeout(queueTimeout);
+        return enqueue(job, input, upload);
+    }
+
+    private ConversionJob enqueue(ConversionJob job, ConversionInput input, Path upload) throws IOException {
+        jobs.put(job.getId(), job);
+        try {
+            executor.execute(() -> run(job, input, upload));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            Files.deleteIfExists(upload);
+            throw new BulkheadFullException("jobs", "Too many conversion jobs queued. Please try again later.", 30);
+        }
+        log.info("Conversion job {} queued for user={}, file={}", job.getId(), job.getOwnerId(), job.getOriginalFilename());
+        return job;
+    }
+
+    // jobs are only visible to the user that submitted them
+    public Optional<ConversionJob> find(String jobId, String ownerId) {
+        return Optional.ofNullable(jobs.get(jobId))
+                .filter(job -> job.getOwnerId().equals(ownerId));
+    }
+
+    private void run(ConversionJob job, ConversionInput input, Path upload) {
+        job.markRunning();
+        StoredResult result;
+        ResultStore.PendingResult pending = null;
+        try {
+            pending = resultStore.create(job.getOwnerId(), job.getConvertedName());
+            try (OutputStream outputStream = pending) {
+                conversionService.convertToPdf(input, outputStream);
+            }
+            result = pending.commit();
+        } catch (Exception e) {
+            log.warn("Conversion job {} failed: {}", job.getId(), e.getMessage());
+            if (pending != null) {
+                pending.discard();
+            }
+            if (e instanceof BulkheadFullException full) {
+                job.markRejected(full.getMessage(), full.getRetryAfterSeconds());
+                return;
+            }
+            job.markFailed(e instanceof UnsupportedOperationException || e instanceof IllegalArgumentException
+                    ? e.getMessage() : "Conversion failed.");
+            return;
+        } finally {
+            deleteQuietly(upload);
+        }
+        job.markDone(result.getId());
+        log.info("Conversion job {} done", job.getId());
+    }
+
+    @Scheduled(fixedDelayString = "${pdf.jobs.cleanup-interval:5m}")
+    public void evictExpiredJobs() {
+        Instant cutoff = Instant.now().minus(jobTtl);
+        jobs.values().removeIf(job -> {
+            boolean expired = job.getStatus().isFinished() && job.getFinishedAt().isBefore(cutoff);
+            if (expired && job.getResultId() != null) {
+                resultStore.delete(job.getResultId());
+            }
+            return expired;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private Path jobsDir() {
+        return Paths.get(outputDir, "jobs");
+    }
+
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Failed to delete {}: {}", path, e.getMessage());
+        }
+    }
+}
@@ -1,8 +1,24 @@
 package com.example.pdfconverter.service;
 
+import com.example.pdfconverter.model.ConversionInput;
 import org.springframework.stereotype.Service;
-import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
 @Service
 public interface ConversionService {
-    byte[] convertToPdf(MultipartFile file) throws Exception;
+    // what can be rejected before a pdf response is committed, i.e. an invalid or unsupported upload;
+    // the returned input carries the sniffed format, so the conversion doesn't look at the content again
+    ConversionInput prepare(ConversionInput input) throws IOException;
+
+    // a conversion the format's queue has no room for is refused with a 503 before the pdf response is
+    // committed, unless its result is cached; expects a prepared input
+    void admit(ConversionInput input) throws IOException;
+
+    // writes the pdf straight into the given stream, nothing is buffered on the way
+    void convertToPdf(ConversionInput input, OutputStream outputStream) throws Exception;
+
+    // large files are not converted inline, they go through the asynchronous job api
+    boolean exceedsInlineLimit(ConversionInput input);
 }
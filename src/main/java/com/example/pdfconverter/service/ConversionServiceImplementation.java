@@ -1,60 +1,159 @@
 package com.example.pdfconverter.service;
 
-import com.example.pdfconverter.exception.FileTooLargeRedirectException;
-import com.example.pdfconverter.utils.PdfUtils;
-import org.springframework.beans.factory.annotation.Value;
+import com.example.pdfconverter.cache.ConversionCache;
+import com.example.pdfconverter.converter.Converter;
+import com.example.pdfconverter.converter.ConverterRegistry;
+import com.example.pdfconverter.converter.FormatSniffer;
+import com.example.pdfconverter.model.ConversionFormat;
+import com.example.pdfconverter.model.ConversionInput;
+import com.example.pdfconverter.model.OutputProfile;
+import com.example.pdfconverter.upload.SpooledUpload;
+import com.example.pdfconverter.utils.SingleFlight;
+import com.example.pdfconverter.utils.TeeOutputStream;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
-import org.springframework.web.multipart.MultipartFile;
 
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 @Service
+@Slf4j
+@RequiredArgsConstructor
 public class ConversionServiceImplementation implements ConversionService {
     private static final long max_file_size = 5 * 1024 * 1024;
-    @Value("${pdf.output-dir}")
-    private String outputDir;
-    @Override
-    public byte[] convertToPdf(MultipartFile file) throws Exception {
-        String contentType = file.getContentType();
-        String originalFilename = file.getOriginalFilename();
+    // bump whenever a converter change alters its output, so cached pdfs are not reused
+    private static final int CONVERTER_VERSION = 4;
+    private final ConversionBulkheads bulkheads;
+    private final ConversionCache conversionCache;
+    private final ConverterRegistry converterRegistry;
+    private final FormatSniffer formatSniffer;
+    private final RateLimitService rateLimitService;
+    // identical uploads converted at the same moment share one conversion
+    private final SingleFlight<String> inFlightConversions = new SingleFlight<>();
 
-        if (contentType == null || originalFilename == null) {
+    @Override
+    public ConversionInput prepare(ConversionInput input) throws IOException {
+        if (input.contentType() == null || input.originalFilename() == null) {
             throw new IllegalArgumentException("Invalid file or MIME type.");
         }
-        if (file.getSize() > max_file_size) {
-            return handleLargeFileConversion(file, contentType, originalFilename);
+        // the content decides the format, the declared type and name are only used for logging
+        return input.format() != null ? input : input.withFormat(formatSniffer.sniff(input));
+    }
+
+    @Override
+    public void admit(ConversionInput input) throws IOException {
+        // a cached result is served without the bulkhead; only a hash that is known already is looked up
+        if (conversionCache.isEnabled() && input.contentHash() != null && input.profile() != null
+                && conversionCache.contains(ConversionCache.key(input.contentHash(), variant(input.format(), input)))) {
+            return;
+        }
+        bulkheads.checkCapacity(input.format());
+    }
+
+    @Override
+    public void convertToPdf(ConversionInput input, OutputStream outputStream) throws Exception {
+        if (input.format() == null) {
+            convertToPdf(prepare(input), outputStream);
+            return;
+        }
+        if (input.profile() == null) {
+            convertToPdf(input.withProfile(OutputProfile.BALANCED), outputStream);
+            return;
+        }
+        String originalFilename = input.originalFilename();
+        ConversionFormat format = input.format();
+        if (!conversionCache.isEnabled()) {
+            autoConvertBasedOnType(input, format, outputStream);
+            return;
         }
 
-        return autoConvertBasedOnType(file, contentType, originalFilename);
+        String cacheKey = ConversionCache.key(contentHash(input), variant(format, input));
+        if (conversionCache.serve(cacheKey, outputStream)) {
+            log.debug("Conversion served from cache: file={}, key={}", originalFilename, cacheKey);
+            // a cached result costs no conversion work
+            rateLimitService.settle(input, format, 0);
+            return;
+        }
+
+        IOException clientFailure = inFlightConversions.execute(cacheKey,
+                () -> convertAndCache(input, format, cacheKey, outputStream),
+                () -> {
+                    log.debug("Conversion shared with a concurrent identical request: file={}", originalFilename);
+                    // the result may already be gone again (e.g. cache too small), then convert ourselves
+                    if (conversionCache.serve(cacheKey, outputStream)) {
+                        rateLimitService.settle(input, format, 0);
+                    } else {
+                        autoConvertBasedOnType(input, format, outputStream);
+                    }
+                    return null;
+                });
+        if (clientFailure != null) {
+            throw clientFailure;
+        }
     }
 
-    private byte[] autoConvertBasedOnType(MultipartFile file, String contentType, String originalFilename) throws Exception {
-        if (contentType.equals("text/plain") || originalFilename.endsWith(".txt")) {
-            return PdfUtils.convertTxtToPdf(file);
-        } else if ((contentType.equals("image/jpeg") || contentType.equals("image/png")) ||
-                originalFilename.endsWith(".jpg") || originalFilename.endsWith(".png")) {
-            return PdfUtils.convertImageToPdf(file);
-        } else if (contentType.equals("application/vnd.openxmlformats-officedocument.wordprocessingml.document") ||
-                originalFilename.endsWith(".docx")) {
-            return PdfUtils.convertDocxToPdf(file);
-        } else {
-            throw new UnsupportedOperationException("Unsupported MIME type or file extension: " + contentType);
+    // converts into the client stream and the cache at once; a client that disconnects doesn't stop
+    // the conversion because other requests may be waiting for the cached result, its failure is returned.
+    // The cache never fails the client's conversion: an entry that can't be written is dropped and the
+    // requests waiting for it convert themselves
+    private IOException convertAndCache(ConversionInput input, ConversionFormat format, String cacheKey,
+                                        OutputStream outputStream) throws Exception {
+        ConversionCache.Entry cacheEntry;
+        try {
+            cacheEntry = conversionCache.begin(cacheKey);
+        } catch (IOException e) {
+            log.warn("Conversion not cached, the cache entry can't be created: key={}, {}", cacheKey, e.getMessage());
+            autoConvertBasedOnType(input, format, outputStream);
+            return null;
         }
+        TeeOutputStream teeOutputStream = new TeeOutputStream(outputStream, cacheEntry);
+        try {
+            autoConvertBasedOnType(input, format, teeOutputStream);
+            if (teeOutputStream.getSecondaryFailure() != null) {
+                log.warn("Conversion not cached, writing the cache entry failed: key={}, {}", cacheKey,
+                        teeOutputStream.getSecondaryFailure().getMessage());
+            } else {
+                try {
+                    cacheEntry.commit();
+                } catch (IOException e) {
+                    log.warn("Conversion not cached, committing the cache entry failed: key={}, {}", cacheKey, e.getMessage());
+                }
+            }
+        } finally {
+            cacheEntry.discard();
+        }
+        return teeOutputStream.getPrimaryFailure();
     }
-    private byte[] handleLargeFileConversion(MultipartFile file, String contentType, String originalFilename) throws Exception {
 
-        byte[] pdfBytes = autoConvertBasedOnType(file, contentType, originalFilename);
+    @Override
+    public boolean exceedsInlineLimit(ConversionInput input) {
+        return input.size() > max_file_size;
+    }
 
-        String outputFileName = originalFilename.replaceAll("\\.[^.]+$", "") + "_converted.pdf";
-        Path outputPath = Paths.get(outputDir).resolve(outputFileName);
-        Files.createDirectories(outputPath.getParent());
-        Files.write(outputPath, pdfBytes);
+    private void autoConvertBasedOnType(ConversionInput input, ConversionFormat format,
+                                        OutputStream outputStream) throws Exception {
+        Converter converter = converterRegistry.forFormat(format);
+        // the conversion itself runs on the format's bulkhead, not on the request thread
+        bulkheads.execute(format, input, () -> {
+            converter.convert(input, outputStream);
+            return null;
+        });
+    }
 
-        String downloadUrl = "/files/" + outputFileName;
-        System.out.println("Handling large file: " + outputPath.toAbsolutePath());
-        throw new FileTooLargeRedirectException(downloadUrl);
+    private String contentHash(ConversionInput input) throws Exception {
+        if (input.contentHash() != null) {
+            return input.contentHash();
+        }
+        try (InputStream content = input.openStream()) {
+            return SpooledUpload.contentHashOf(content);
+        }
+    }
 
+    // everything besides the content that changes the produced pdf
+    private String variant(ConversionFormat format, ConversionInput input) {
+        return format.name().toLowerCase() + "-" + converterRegistry.forFormat(format).variant(input)
+                + "-v" + CONVERTER_VERSION;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,28 @@
+package com.example.pdfconverter.service;
+
+import com.example.pdfconverter.model.OutputProfile;
+import com.example.pdfconverter.model.SubscriptionType;
+import com.example.pdfconverter.model.User;
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.env.Environment;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Component;
+
+// Picks the output profile of a request: the one the client asked for, otherwise the default of
+// the user's subscription (pdf.output.profile.<subscription>).
+@Component
+@RequiredArgsConstructor
+public class OutputProfileResolver {
+    private final Environment environment;
+
+    public OutputProfile resolve(String requested, Authentication authentication) {
+        if (requested != null && !requested.isBlank()) {
+            return OutputProfile.fromString(requested);
+        }
+        SubscriptionType subscription = authentication != null && authentication.getPrincipal() instanceof User user
+                && user.getSubscription() != null ? user.getSubscription() : SubscriptionType.FREE;
+        String configured = environment.getProperty(
+                "pdf.output.profile." + subscription.name().toLowerCase(), OutputProfile.BALANCED.name());
+        return OutputProfile.fromString(configured);
+    }
+}
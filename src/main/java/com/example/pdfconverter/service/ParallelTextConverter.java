@@ -0,0 +1,181 @@
+package com.example.pdfconverter.service;
+
+import com.example.pdfconverter.fonts.FontRegistry;
+import com.example.pdfconverter.model.OutputProfile;
+import com.example.pdfconverter.utils.PdfUtils;
+import com.itextpdf.io.font.constants.StandardFonts;
+import com.itextpdf.kernel.font.PdfFont;
+import com.itextpdf.kernel.font.PdfFontFactory;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.utils.PdfMerger;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+
+// Lays out one large text file on several cores. The input is cut into chunks right after a line
+// break, every chunk is laid out into its own partial pdf on a fork-join pool, and the parts are
+// merged in order while the pages get their continuous numbers.
+//
+// At most parallelism + 1 chunks are held in memory; a part always starts on a new page, so the
+// last page of every chunk may be partly empty.
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class ParallelTextConverter {
+    // a chunk is extended up to the next line break, but not forever for files without any
+    private static final int MAX_CHUNK_EXTENSION = 1024 * 1024;
+
+    private final FontRegistry fontRegistry;
+
+    // files from this size on are converted in parallel
+    @Value("${pdf.text.parallel.threshold:8MB}")
+    private DataSize threshold;
+    @Value("${pdf.text.parallel.chunk-size:4MB}")
+    private DataSize chunkSize;
+    // 0 = one worker per cpu core
+    @Value("${pdf.text.parallel.parallelism:0}")
+    private int parallelism;
+
+    private ForkJoinPool pool;
+
+    @PostConstruct
+    public void start() {
+        pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+    }
+
+    public boolean isWorthIt(long size) {
+        return pool.getParallelism() > 1 && size >= threshold.toBytes();
+    }
+
+    public void convert(InputStream content, OutputStream output, OutputProfile profile) throws Exception {
+        PushbackInputStream input = new PushbackInputStream(new BufferedInputStream(content), 4);
+        List<ForkJoinTask<Path>> parts = new ArrayList<>();
+        Semaphore chunksInMemory = new Semaphore(pool.getParallelism() + 1);
+        try {
+            while (true) {
+                chunksInMemory.acquire();
+                byte[] chunk = nextChunk(input);
+                if (chunk == null) {
+                    chunksInMemory.release();
+                    break;
+                }
+                parts.add(pool.submit(() -> {
+                    try {
+                        return layOut(chunk, profile);
+                    } finally {
+                        chunksInMemory.release();
+                    }
+                }));
+            }
+            merge(parts, output, profile);
+        } finally {
+            // after a failure the remaining parts still finish, their files are removed here
+            for (ForkJoinTask<Path> part : parts) {
+                part.quietlyJoin();
+                if (!part.isCompletedAbnormally()) {
+                    Files.deleteIfExists(part.join());
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private Path layOut(byte[] chunk, OutputProfile profile) throws IOException {
+        Path part = Files.createTempFile("text-part-", ".pdf");
+        try (OutputStream out = Files.newOutputStream(part)) {
+            PdfUtils.streamTxtToPdf(new ByteArrayInputStream(chunk), out, fontRegistry.newProvider(), profile, false);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(part);
+            throw e;
+        }
+        return part;
+    }
+
+    private void merge(List<ForkJoinTask<Path>> parts, OutputStream output, OutputProfile profile) throws Exception {
+        PdfDocument merged = new PdfDocument(PdfUtils.newWriter(output, profile));
+        PdfMerger merger = new PdfMerger(merged);
+        PdfFont numberFont = PdfFontFactory.createFont(StandardFonts.HELVETICA);
+        for (ForkJoinTask<Path> task : parts) {
+            Path part;
+            try {
+                part = task.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception cause) {
+                    throw cause;
+                }
+                throw e;
+            }
+            try (PdfDocument source = new PdfDocument(new PdfReader(part.toFile()))) {
+                int firstPage = merged.getNumberOfPages() + 1;
+                merger.merge(source, 1, source.getNumberOfPages());
+                for (int number = firstPage; number <= merged.getNumberOfPages(); number++) {
+                    PdfUtils.stampPageNumber(merged.getPage(number), number, numberFont);
+                    merged.getPage(number).flush();
+                }
+                // copied pages are written out right away instead of piling up until close
+                merged.flushCopiedObjects(source);
+            } finally {
+                Files.deleteIfExists(part);
+            }
+        }
+        merged.close();
+    }
+
+    // the next chunk of about chunkSize bytes ending right after a line break, null at the end
+    private byte[] nextChunk(PushbackInputStream input) throws IOException {
+        int size = (int) chunkSize.toBytes();
+        byte[] chunk = input.readNBytes(size);
+        if (chunk.length == 0) {
+            return null;
+        }
+        if (chunk.length < size || chunk[chunk.length - 1] == '\n') {
+            return chunk;
+        }
+
+        // a '\n' byte never occurs inside a multi-byte utf-8 sequence, so cutting after it is safe
+        byte[] extended = Arrays.copyOf(chunk, size + MAX_CHUNK_EXTENSION);
+        int length = size;
+        int b;
+        while (length < extended.length && (b = input.read()) != -1) {
+            extended[length++] = (byte) b;
+            if (b == '\n') {
+                break;
+            }
+        }
+        if (length == extended.length && extended[length - 1] != '\n') {
+            // no line break in sight, cut before the last character so it isn't split in two
+            int cut = length - 1;
+            while (cut > size && (extended[cut] & 0xC0) == 0x80) {
+                cut--;
+            }
+            input.unread(extended, cut, length - cut);
+            length = cut;
+        }
+        return Arrays.copyOf(extended, length);
+    }
+}
@@ -0,0 +1,4 @@
+package com.example.pdfconverter.service;
+
+// time conversions of one subscription waited in the bulkhead queues since startup
+public record QueueWaitStats(long conversions, double p50Millis, double p95Millis, double p99Millis, double maxMillis) {}
@@ -1,17 +1,32 @@
 package com.example.pdfconverter.service;
 
+import com.example.pdfconverter.model.ConversionFormat;
+import com.example.pdfconverter.model.ConversionInput;
 import com.example.pdfconverter.model.RateLimitResult;
-import io.github.bucket4j.*;
+import com.example.pdfconverter.model.Requester;
+import com.example.pdfconverter.ratelimit.AdaptiveConcurrencyLimiter;
+import com.example.pdfconverter.ratelimit.ConversionCostModel;
+import com.example.pdfconverter.ratelimit.LimitSnapshot;
+import com.example.pdfconverter.ratelimit.RateLimitState;
+import com.example.pdfconverter.utils.ExpiringStore;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
 import java.time.Duration;
-import java.time.Instant;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
 
 @Service
+@RequiredArgsConstructor
 @Slf4j
 public class RateLimitService {
     // Configuration constants
@@ -25,249 +40,272 @@ public class RateLimitService {
     public static final Duration RESET_PERIOD = Duration.ofHours(1);
     public static final Duration FILE_ATTEMPT_WINDOW = Duration.ofMinutes(5);
 
-    // Global rate limiting constants
-    private static final double HIGH_LOAD_THRESHOLD = 0.8;
-    private static final Duration GLOBAL_FREEZE_DURATION = Duration.ofMinutes(5);
-    private static final int MAX_CONCURRENT_REQUESTS = 100;
-
-    private static final long SMALL_FILE_THRESHOLD = 1024 * 1024; // 1 MB
-    private static final long MEDIUM_FILE_THRESHOLD = 5 * 1024 * 1024; // 5 MB
+    // files whose reservation is still open, a reservation nobody settles runs out with the bucket
+    private static final int MAX_RESERVATIONS = 100_000;
+
+    // answers without a changing part are shared, an allowed request allocates nothing
+    private static final RateLimitResult ALLOWED = new RateLimitResult(true, "Request allowed.");
+    private static final RateLimitResult SIZE_LIMIT_EXCEEDED =
+            new RateLimitResult(false, "File size exceeds the maximum allowed size.");
+    private static final RateLimitResult GENERATION_LIMIT_REACHED =
+            new RateLimitResult(false, "This file has been generated too many times.");
+    private static final RateLimitResult FILE_ATTEMPT_LIMIT_REACHED =
+            new RateLimitResult(false, "Too many attempts with this file. Try again later.");
+    private static final RateLimitResult OVERLOADED =
+            new RateLimitResult(false, "Server is under high load. Please try again in a few seconds.");
+
+    private static final ConversionFormat[] FORMATS = ConversionFormat.values();
+    // the formats of a request with one file, so that it needs no set of its own
+    private static final Map<ConversionFormat, Set<ConversionFormat>> SINGLE_FORMATS = singleFormats();
+
+    // buckets, attempts and generations, per node or shared through redis
+    private final RateLimitState state;
+    // sheds load past what the node currently copes with
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    // tokens are reserved by the estimated cost of the files and settled once they are converted
+    private final ConversionCostModel costModel;
+    // tokens reserved by file hash and user; both keys are strings the request already has, looking a
+    // reservation up or making one builds no key. A hash lives on for an hour after its last reservation
+    private final ExpiringStore<String, Map<String, Integer>> reservations =
+            new ExpiringStore<>(RESET_PERIOD, true, MAX_RESERVATIONS);
+
+    // a request whose files can't be looked at, tokens go by size
+    public RateLimitResult isAllowed(String userId, String subscriptionType, long fileSize, String fileHash) {
+        return isAllowed(userId, subscriptionType, fileSize, fileHash, null, null,
+                costModel.estimateTokens(null, fileSize), List.of());
+    }
 
-    // Thread-safe storage
-    private final Map<String, Bucket> userBuckets = new ConcurrentHashMap<>();
-    private final Map<String, AttemptInfo> userAttempts = new ConcurrentHashMap<>();
-    private final Map<String, FileGenerationTracker> fileGenerations = new ConcurrentHashMap<>();
-    private final Map<String, FileAttemptTracker> fileAttemptTrackers = new ConcurrentHashMap<>();
+    // reserves the estimated cost of every file up front, a batch that doesn't fit in the bucket is rejected
+    // as a whole; settling only corrects each file by the difference to what it really cost.
+    // Every file is checked and counted under its own hash, a file that is twice in a batch counts twice;
+    // fileHash stands in for files without a hash of their own.
+    // The files come sniffed, a file without a format is one that can't be converted and goes by size
+    public RateLimitResult isAllowed(String userId, String subscriptionType, String fileHash, List<ConversionInput> files) {
+        if (files.size() == 1) {
+            ConversionInput file = files.get(0);
+            ConversionFormat format = file.format();
+            return isAllowed(userId, subscriptionType, file.size(), Objects.requireNonNullElse(file.contentHash(), fileHash),
+                    null, format != null ? SINGLE_FORMATS.get(format) : null, costModel.estimateTokens(format, file.size()),
+                    files);
+        }
+        long fileSize = 0;
+        int tokens = 0;
+        Map<String, Integer> copies = new LinkedHashMap<>();
+        Set<ConversionFormat> formats = EnumSet.noneOf(ConversionFormat.class);
+        boolean unknownFormat = false;
+        for (ConversionInput file : files) {
+            fileSize += file.size();
+            ConversionFormat format = file.format();
+            if (format != null) {
+                formats.add(format);
+            } else {
+                unknownFormat = true;
+            }
+            tokens += costModel.estimateTokens(format, file.size());
+            copies.merge(file.contentHash() != null ? file.contentHash() : fileHash, 1, Integer::sum);
+        }
+        String firstHash = copies.isEmpty() ? fileHash : copies.keySet().iterator().next();
+        boolean singleFile = copies.isEmpty() || files.size() == 1;
+        return isAllowed(userId, subscriptionType, fileSize, firstHash, singleFile ? null : copies,
+                unknownFormat || formats.isEmpty() ? null : formats, Math.max(tokens, 1), files);
+    }
 
-    // Global load tracking
-    private final AtomicInteger currentRequests = new AtomicInteger(0);
-    private volatile Instant globalFreezeUntil = null;
+    // settles the reservation of a file once it was converted with costNanos of work, or served from the
+    // cache (0), which costs one token
+    public void settle(ConversionInput input, ConversionFormat format, long costNanos) {
+        int cost = costNanos > 0 ? costModel.record(format, input.size(), costNanos) : 1;
+        Requester requester = input.requester() != null ? input.requester() : Requester.ANONYMOUS;
+        if (input.contentHash() == null) {
+            return;
+        }
+        // not removed, a file that is twice in a batch is settled twice
+        Map<String, Integer> reservedByUser = reservations.get(input.contentHash());
+        Integer reserved = reservedByUser != null ? reservedByUser.get(requester.userId()) : null;
+        if (reserved != null && cost != reserved) {
+            log.debug("Settling {} tokens for user={}: reserved {}, cost {}", cost - reserved, requester.userId(), reserved, cost);
+            state.adjust(requester.userId(), getLimit(requester.subscription().name()), cost - reserved);
+        }
+    }
 
-    public RateLimitResult isAllowed(String userId, String subscriptionType, long fileSize, String fileHash) {
-        // 0. Check global freeze first
-        if (isGloballyFrozen()) {
-            return createGlobalFrozenResponse();
+    // files: the hashes of a request with several files and how often each is in it, null for a request
+    // with the single file fileHash (the hot path allocates nothing); fileHash is then the first of them.
+    // formats: what the files will be converted as, null when that isn't known for all of them.
+    // reserve: the files whose estimated tokens are reserved for settling once the request is allowed
+    private RateLimitResult isAllowed(String userId, String subscriptionType, long fileSize, String fileHash,
+                                      Map<String, Integer> files, Set<ConversionFormat> formats, int tokens,
+                                      List<ConversionInput> reserve) {
+        // 0. Check server load
+        if (isOverloaded(formats)) {
+            return OVERLOADED;
         }
 
-        // 1. Track current load
-        int requests = currentRequests.incrementAndGet();
-        try {
-            // 2. Check server load
-            if (requests > MAX_CONCURRENT_REQUESTS * HIGH_LOAD_THRESHOLD) {
-                activateGlobalFreeze();
-                log.warn("Global freeze activated. Current requests: {} / {}, Freeze until: {}", requests, MAX_CONCURRENT_REQUESTS * HIGH_LOAD_THRESHOLD, globalFreezeUntil);
-                return createGlobalFrozenResponse();
-            }
+        // 1. Validate file size first (fastest check)
+        if (fileSize > MAX_FILE_SIZE) {
+            return handleSizeLimitExceeded(userId, fileHash, files);
+        }
 
-            // 3. Validate file size first (fastest check)
-            if (fileSize > MAX_FILE_SIZE) {
-                return handleSizeLimitExceeded(userId, fileHash);
-            }
+        // 2.-4. Check the user and every file
+        RateLimitResult rejected = files == null
+                ? checkFile(userId, fileHash, 1, true)
+                : checkFiles(userId, files);
+        if (rejected != null) {
+            return rejected;
+        }
 
-            // 4. Check user freeze status
-            if (isUserFrozen(userId)) {
-                return createFrozenResponse(userId);
+        // 5. Process rate limiting
+        RateLimitResult result = processRateLimiting(userId, subscriptionType, tokens, fileHash, files);
+        if (result.allowed()) {
+            for (ConversionInput file : reserve) {
+                reserve(userId, file);
             }
+        }
+        return result;
+    }
 
-            // 5. Check file generation limit
-            if (isFileGenerationLimitReached(fileHash)) {
-                return handleGenerationLimit(userId, fileHash);
+    // every format has its own limit, a request is shed when one of its formats is at it;
+    // walks the shared array instead of the set, whose iterator would be allocated per request
+    private boolean isOverloaded(Set<ConversionFormat> formats) {
+        if (formats == null) {
+            return concurrencyLimiter.isOverloaded(null);
+        }
+        for (ConversionFormat format : FORMATS) {
+            if (formats.contains(format) && concurrencyLimiter.isOverloaded(format)) {
+                return true;
             }
+        }
+        return false;
+    }
 
-            // 6. Check file-specific attempts
-            FileAttemptTracker fileAttemptTracker = getFileAttemptTracker(userId, fileHash);
-            if (fileAttemptTracker.isFrozen()) {
-                return handleFileAttemptLimit(userId, fileHash);
+    private RateLimitResult checkFiles(String userId, Map<String, Integer> files) {
+        boolean first = true;
+        for (Map.Entry<String, Integer> file : files.entrySet()) {
+            RateLimitResult rejected = checkFile(userId, file.getKey(), file.getValue(), first);
+            if (rejected != null) {
+                return rejected;
             }
-
-            // 7. Process rate limiting
-            return processRateLimiting(userId, subscriptionType, fileSize, fileHash, fileAttemptTracker);
-        } finally {
-            currentRequests.decrementAndGet();
+            first = false;
         }
+        return null;
     }
 
-    private boolean isGloballyFrozen() {
-        return globalFreezeUntil != null && Instant.now().isBefore(globalFreezeUntil);
-    }
+    // null when the file may be converted copies more times; the user's freeze is the same in every
+    // snapshot, it is checked with the first file
+    private RateLimitResult checkFile(String userId, String fileHash, int copies, boolean checkUser) {
+        LimitSnapshot snapshot = state.snapshot(userId, fileHash);
 
-    private void activateGlobalFreeze() {
-        if (globalFreezeUntil == null || Instant.now().isAfter(globalFreezeUntil)) {
-            globalFreezeUntil = Instant.now().plus(GLOBAL_FREEZE_DURATION);
-            log.warn("Activating global freeze due to high load. Freeze until: {}", globalFreezeUntil);
+        // 2. Check user freeze status
+        if (checkUser && snapshot.userFrozenForNanos() > 0) {
+            return createFrozenResponse(userId, snapshot.userFrozenForNanos());
         }
-    }
 
-    private RateLimitResult createGlobalFrozenResponse() {
-        if (globalFreezeUntil == null) {
-            return new RateLimitResult(false, "Server is under high load. Please try again later.");
+        // 3. Check file generation limit
+        if (snapshot.fileGenerations() + copies > FILE_GENERATION_LIMIT) {
+            return handleGenerationLimit(userId, fileHash);
         }
 
-        long secondsLeft = Duration.between(Instant.now(), globalFreezeUntil).getSeconds();
-        return new RateLimitResult(false,
-                String.format("Server is under high load. Please try again in %d seconds.", secondsLeft));
+        // 4. Check file-specific attempts
+        if (snapshot.fileFrozen()) {
+            return handleFileAttemptLimit(userId, fileHash);
+        }
+        return null;
     }
 
-    private RateLimitResult handleSizeLimitExceeded(String userId, String fileHash) {
+    private RateLimitResult handleSizeLimitExceeded(String userId, String fileHash, Map<String, Integer> files) {
         log.warn("File size limit exceeded for user={}", userId);
-        incrementCounters(userId, fileHash);
-        return new RateLimitResult(false, "File size exceeds the maximum allowed size.");
+        incrementCounters(userId, fileHash, files);
+        return SIZE_LIMIT_EXCEEDED;
     }
 
-    private boolean isUserFrozen(String userId) {
-        AttemptInfo attemptInfo = userAttempts.get(userId);
-        return attemptInfo != null && attemptInfo.isFrozen();
-    }
-
-    private RateLimitResult createFrozenResponse(String userId) {
-        AttemptInfo attemptInfo = userAttempts.get(userId);
-        long minutesLeft = Duration.between(Instant.now(), attemptInfo.getFreezeUntil()).toMinutes();
+    private RateLimitResult createFrozenResponse(String userId, long frozenForNanos) {
+        long minutesLeft = TimeUnit.NANOSECONDS.toMinutes(frozenForNanos);
         log.warn("User frozen: user={}, minutesLeft={}", userId, minutesLeft);
         return new RateLimitResult(false, "Too many failed attempts. Try again in " + minutesLeft + " minutes.");
     }
 
-    private boolean isFileGenerationLimitReached(String fileHash) {
-        FileGenerationTracker tracker = fileGenerations.computeIfAbsent(fileHash, k -> new FileGenerationTracker());
-        return tracker.getGenerations() >= FILE_GENERATION_LIMIT;
-    }
-
     private RateLimitResult handleGenerationLimit(String userId, String fileHash) {
         incrementCounters(userId, fileHash);
         log.warn("File generation limit reached for user={}, fileHash={}", userId, fileHash);
-        return new RateLimitResult(false, "This file has been generated too many times.");
-    }
-
-    private FileAttemptTracker getFileAttemptTracker(String userId, String fileHash) {
-        String key = userId + "|" + fileHash;
-        return fileAttemptTrackers.computeIfAbsent(key, k -> new FileAttemptTracker());
+        return GENERATION_LIMIT_REACHED;
     }
 
     private RateLimitResult handleFileAttemptLimit(String userId, String fileHash) {
-        incrementUserAttempts(userId);
+        state.recordUserFailure(userId);
         log.warn("File attempt limit reached for user={}, fileHash={}", userId, fileHash);
-        return new RateLimitResult(false, "Too many attempts with this file. Try again later.");
+        return FILE_ATTEMPT_LIMIT_REACHED;
     }
 
     private RateLimitResult processRateLimiting(String userId, String subscriptionType,
-                                                long fileSize, String fileHash,
-                                                FileAttemptTracker fileAttemptTracker) {
-        int tokens = calculateTokens(fileSize);
-        Bucket bucket = getOrCreateBucket(userId, subscriptionType);
-        ConsumptionProbe probe = bucket.tryConsumeAndReturnRemaining(tokens);
-
-        if (!probe.isConsumed()) {
-            incrementCounters(userId, fileHash);
-            long waitSeconds = probe.getNanosToWaitForRefill() / 1_000_000_000;
+                                                int tokens, String fileHash, Map<String, Integer> files) {
+        long nanosToWait = state.tryConsume(userId, getLimit(subscriptionType), tokens);
+
+        // more than the bucket holds when full, waiting won't help
+        if (nanosToWait == Long.MAX_VALUE) {
+            incrementCounters(userId, fileHash, files);
+            log.warn("Request larger than the quota: user={}, tokens={}", userId, tokens);
+            return new RateLimitResult(false, "This request costs " + tokens
+                    + " tokens, more than your subscription allows per hour. Send fewer or smaller files.");
+        }
+        if (nanosToWait > 0) {
+            incrementCounters(userId, fileHash, files);
+            long waitSeconds = nanosToWait / 1_000_000_000;
             log.warn("Rate limit exceeded: user={}, wait={}s", userId, waitSeconds);
             return new RateLimitResult(false, "Rate limit exceeded. Try again in " + waitSeconds + " seconds.");
         }
 
-        // Successful request
-        resetUserAttempts(userId);
-        fileAttemptTracker.reset();
-        incrementFileGenerations(fileHash);
+        // Successful request, one generation per copy of every file
+        if (files == null) {
+            state.recordSuccess(userId, fileHash);
+        } else {
+            files.forEach((hash, copies) -> {
+                for (int i = 0; i < copies; i++) {
+                    state.recordSuccess(userId, hash);
+                }
+            });
+        }
 
         log.debug("Request allowed: user={}, fileHash={}", userId, fileHash);
-        return new RateLimitResult(true, "Request allowed.");
+        return ALLOWED;
     }
 
     private void incrementCounters(String userId, String fileHash) {
-        incrementUserAttempts(userId);
-        getFileAttemptTracker(userId, fileHash).increment();
+        state.recordFailure(userId, fileHash);
     }
 
-    private void incrementUserAttempts(String userId) {
-        userAttempts.compute(userId, (key, info) -> {
-            if (info == null) {
-                info = new AttemptInfo(1);
-            } else {
-                info.incrementAttempts();
+    // the request fails once for the user, but counts as an attempt with each of its files
+    private void incrementCounters(String userId, String fileHash, Map<String, Integer> files) {
+        state.recordFailure(userId, fileHash);
+        if (files != null) {
+            for (String hash : files.keySet()) {
+                if (!hash.equals(fileHash)) {
+                    state.recordFileFailure(userId, hash);
+                }
             }
-            return info;
-        });
-    }
-
-    private void resetUserAttempts(String userId) {
-        userAttempts.remove(userId);
-    }
-
-    private void incrementFileGenerations(String fileHash) {
-        fileGenerations.computeIfAbsent(fileHash, k -> new FileGenerationTracker()).increment();
-    }
-
-    private int calculateTokens(long fileSize) {
-        if (fileSize < SMALL_FILE_THRESHOLD) return 1;
-        if (fileSize < MEDIUM_FILE_THRESHOLD) return 3;
-        return 5;
-    }
-
-    private Bucket getOrCreateBucket(String userId, String subscriptionType) {
-        int limit = switch (subscriptionType.toLowerCase()) {
-            case "pro" -> PRO_LIMIT;
-            case "vip" -> VIP_LIMIT;
-            default -> FREE_LIMIT;
-        };
-
-        return userBuckets.computeIfAbsent(userId, key ->
-                Bucket4j.builder()
-                        .addLimit(Bandwidth.classic(limit, Refill.intervally(limit, RESET_PERIOD)))
-                        .build()
-        );
-    }
-
-    private static class FileAttemptTracker {
-        private int attempts;
-        private Instant lastAttemptTime = Instant.now();
-        private Instant frozenUntil;
-
-        public synchronized void increment() {
-            if (Duration.between(lastAttemptTime, Instant.now()).compareTo(FILE_ATTEMPT_WINDOW) > 0) {
-                attempts = 0;
-            }
-            attempts++;
-            lastAttemptTime = Instant.now();
-
-            if (attempts >= MAX_ATTEMPTS) {
-                frozenUntil = Instant.now().plus(FILE_ATTEMPT_WINDOW);
-            }
-        }
-
-        public synchronized int getAttempts() {
-            if (Duration.between(lastAttemptTime, Instant.now()).compareTo(FILE_ATTEMPT_WINDOW) > 0) {
-                attempts = 0;
-            }
-            return attempts;
-        }
-
-        public synchronized boolean isFrozen() {
-            return frozenUntil != null && Instant.now().isBefore(frozenUntil);
         }
+    }
 
-        public synchronized void reset() {
-            attempts = 0;
-            frozenUntil = null;
-            lastAttemptTime = Instant.now();
+    // the estimate is taken again, it differs from the one charged only if a conversion of the format
+    // finished in between; the difference is a token at most and settling goes by what is stored here
+    private void reserve(String userId, ConversionInput file) {
+        if (file.contentHash() == null) {
+            return;
         }
+        int tokens = costModel.estimateTokens(file.format(), file.size());
+        reservations.computeIfAbsent(file.contentHash(), hash -> new ConcurrentHashMap<>(2)).put(userId, tokens);
     }
 
-    private static class FileGenerationTracker {
-        private int generations;
-        private Instant firstGenerationTime = Instant.now();
 
-        public synchronized void increment() {
-            if (Duration.between(firstGenerationTime, Instant.now()).toHours() >= 24) {
-                generations = 0;
-                firstGenerationTime = Instant.now();
-            }
-            generations++;
+    private static Map<ConversionFormat, Set<ConversionFormat>> singleFormats() {
+        Map<ConversionFormat, Set<ConversionFormat>> formats = new EnumMap<>(ConversionFormat.class);
+        for (ConversionFormat format : ConversionFormat.values()) {
+            formats.put(format, Collections.unmodifiableSet(EnumSet.of(format)));
         }
+        return formats;
+    }
 
-        public synchronized int getGenerations() {
-            if (Duration.between(firstGenerationTime, Instant.now()).toHours() >= 24) {
-                generations = 0;
-                firstGenerationTime = Instant.now();
-            }
-            return generations;
-        }
+    // equalsIgnoreCase instead of a switch on toLowerCase, which copies the name on every call
+    private int getLimit(String subscriptionType) {
+        if ("pro".equalsIgnoreCase(subscriptionType)) return PRO_LIMIT;
+        if ("vip".equalsIgnoreCase(subscriptionType)) return VIP_LIMIT;
+        return FREE_LIMIT;
     }
-}
\ No newline at end of file
+}
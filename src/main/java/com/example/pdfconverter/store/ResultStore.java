@@ -0,0 +1,328 @@
+package com.example.pdfconverter.store;
+
+import com.example.pdfconverter.model.StoredResult;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+// Generated pdfs under pdf.output-dir/results, addressed by a random id instead of the upload name.
+// Files live in two levels of shard directories (ab/cd/abcd....pdf) so no directory grows past a few
+// hundred entries. Owner, size and times of every result are kept in memory and persisted in an
+// append-only journal, compacted on every cleanup run, so nothing has to walk the tree except at startup.
+//
+// Results expire after pdf.results.ttl without a download; when the store is still above
+// pdf.results.max-size the least recently downloaded ones are removed first.
+@Component
+@Slf4j
+public class ResultStore {
+    private static final Pattern ID_PATTERN = Pattern.compile("[0-9a-f]{32}");
+    private static final String JOURNAL = "index.log";
+    // the journal is rewritten early when it has this many more lines than live entries
+    private static final int MAX_JOURNAL_SLACK = 10_000;
+
+    @Value("${pdf.output-dir}")
+    private String outputDir;
+    @Value("${pdf.results.max-size:5GB}")
+    private DataSize maxSize;
+    @Value("${pdf.results.ttl:24h}")
+    private Duration ttl;
+
+    private final SecureRandom random = new SecureRandom();
+    private final Map<String, StoredResult> entries = new ConcurrentHashMap<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+
+    // guarded by this
+    private BufferedWriter journal;
+    private int journalLines;
+
+    @PostConstruct
+    public void start() throws IOException {
+        Files.createDirectories(root());
+        replayJournal();
+        removeOrphans();
+        compact();
+        log.info("Result store opened with {} results, {} bytes", entries.size(), totalBytes.get());
+    }
+
+    // collects a new result, it only becomes visible once committed
+    public PendingResult create(String ownerId, String downloadName) throws IOException {
+        return new PendingResult(newId(), ownerId, downloadName);
+    }
+
+    // results are only visible to the user that created them, every lookup counts as an access
+    public Optional<StoredResult> find(String id, String ownerId) {
+        if (id == null || !ID_PATTERN.matcher(id).matches()) {
+            return Optional.empty();
+        }
+        StoredResult result = entries.get(id);
+        if (result == null || !result.getOwnerId().equals(ownerId)) {
+            return Optional.empty();
+        }
+        if (!Files.exists(result.getPath())) {
+            // removed behind our back
+            remove(result);
+            return Optional.empty();
+        }
+        result.touch(System.currentTimeMillis());
+        return Optional.of(result);
+    }
+
+    public void delete(String id) {
+        StoredResult result = entries.get(id);
+        if (result != null) {
+            remove(result);
+        }
+    }
+
+    public long totalBytes() {
+        return totalBytes.get();
+    }
+
+    @Scheduled(fixedDelayString = "${pdf.results.cleanup-interval:5m}")
+    public void evict() throws IOException {
+        long cutoff = System.currentTimeMillis() - ttl.toMillis();
+        int expired = 0;
+        for (StoredResult result : entries.values()) {
+            if (result.getLastAccessedAt() < cutoff) {
+                remove(result);
+                expired++;
+            }
+        }
+
+        int overQuota = 0;
+        if (totalBytes.get() > maxSize.toBytes()) {
+            List<StoredResult> byAccess = new ArrayList<>(entries.values());
+            byAccess.sort(Comparator.comparingLong(StoredResult::getLastAccessedAt));
+            for (int i = 0; i < byAccess.size() && totalBytes.get() > maxSize.toBytes(); i++) {
+                remove(byAccess.get(i));
+                overQuota++;
+            }
+        }
+        if (expired + overQuota > 0) {
+            log.info("Result store evicted {} expired and {} least recently used results, {} bytes left",
+                    expired, overQuota, totalBytes.get());
+        }
+        // also persists the access times collected since the last run
+        compact();
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+    private void remove(StoredResult result) {
+        if (!entries.remove(result.getId(), result)) {
+            return;
+        }
+        totalBytes.addAndGet(-result.getSize());
+        try {
+            Files.deleteIfExists(result.getPath());
+            append("D " + result.getId());
+        } catch (IOException e) {
+            log.warn("Failed to delete result {}: {}", result.getId(), e.getMessage());
+        }
+    }
+
+    private void replayJournal() throws IOException {
+        Path file = root().resolve(JOURNAL);
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(" ");
+                try {
+                    if (fields[0].equals("P") && fields.length == 7) {
+                        String id = fields[1];
+                        entries.put(id, new StoredResult(id, decode(fields[5]), decode(fields[6]),
+                                Long.parseLong(fields[2]), Long.parseLong(fields[3]), Long.parseLong(fields[4]),
+                                resultPath(id)));
+                    } else if (fields[0].equals("D") && fields.length == 2) {
+                        entries.remove(fields[1]);
+                    } else {
+                        log.warn("Skipping malformed result index line: {}", line);
+                    }
+                } catch (IllegalArgumentException e) {
+                    log.warn("Skipping malformed result index line: {}", line);
+                }
+            }
+        }
+        entries.values().removeIf(result -> !Files.exists(result.getPath()));
+        totalBytes.set(entries.values().stream().mapToLong(StoredResult::getSize).sum());
+    }
+
+    // files without an index entry: leftovers of crashed writes or of a lost journal tail
+    private void removeOrphans() throws IOException {
+        List<Path> orphans;
+        try (Stream<Path> walk = Files.walk(root(), 3)) {
+            orphans = walk.filter(Files::isRegularFile)
+                    .filter(path -> !path.getParent().equals(root()))
+                    .filter(path -> {
+                        String name = path.getFileName().toString();
+                        return !name.endsWith(".pdf") || !entries.containsKey(name.substring(0, name.length() - 4));
+                    })
+                    .toList();
+        }
+        for (Path orphan : orphans) {
+            Files.deleteIfExists(orphan);
+        }
+        if (!orphans.isEmpty()) {
+            log.info("Removed {} orphaned files from the result store", orphans.size());
+        }
+    }
+
+    // rewrites the journal with one line per live result
+    private synchronized void compact() throws IOException {
+        Path file = root().resolve(JOURNAL);
+        Path temp = root().resolve(JOURNAL + ".tmp");
+        if (journal != null) {
+            journal.close();
+        }
+        int lines = 0;
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (StoredResult result : entries.values()) {
+                writer.write(putLine(result));
+                writer.newLine();
+                lines++;
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journal = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        journalLines = lines;
+    }
+
+    private synchronized void append(String line) throws IOException {
+        if (journal == null) {
+            return;
+        }
+        journal.write(line);
+        journal.newLine();
+        journal.flush();
+        if (++journalLines > entries.size() + MAX_JOURNAL_SLACK) {
+            compact();
+        }
+    }
+
+    private String newId() {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        return HexFormat.of().formatHex(bytes);
+    }
+
+    private Path root() {
+        return Paths.get(outputDir, "results");
+    }
+
+    // ids are random, so their first characters already spread results evenly over the shards
+    private Path resultPath(String id) {
+        return root().resolve(id.substring(0, 2)).resolve(id.substring(2, 4)).resolve(id + ".pdf");
+    }
+
+    private static String putLine(StoredResult result) {
+        return "P " + result.getId() + " " + result.getSize() + " " + result.getCreatedAt() + " "
+                + result.getLastAccessedAt() + " " + encode(result.getOwnerId()) + " " + encode(result.getDownloadName());
+    }
+
+    // url encoding never produces spaces or line breaks, so fields can be separated by spaces
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private static String decode(String value) {
+        return URLDecoder.decode(value, StandardCharsets.UTF_8);
+    }
+
+    public class PendingResult extends OutputStream {
+        private final String id;
+        private final String ownerId;
+        private final String downloadName;
+        private final Path tempFile;
+        private final OutputStream fileStream;
+        private boolean committed;
+
+        private PendingResult(String id, String ownerId, String downloadName) throws IOException {
+            this.id = id;
+            this.ownerId = ownerId;
+            this.downloadName = downloadName;
+            Path target = resultPath(id);
+            Files.createDirectories(target.getParent());
+            this.tempFile = target.resolveSibling(id + ".part");
+            this.fileStream = Files.newOutputStream(tempFile);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            fileStream.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            fileStream.write(b, off, len);
+        }
+
+        public StoredResult commit() throws IOException {
+            fileStream.close();
+            Path target = resultPath(id);
+            Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE);
+            long now = System.currentTimeMillis();
+            StoredResult result = new StoredResult(id, ownerId, downloadName, Files.size(target), now, now, target);
+            entries.put(id, result);
+            totalBytes.addAndGet(result.getSize());
+            append(putLine(result));
+            committed = true;
+            return result;
+        }
+
+        @Override
+        public void close() throws IOException {
+            fileStream.close();
+        }
+
+        // drops a result that was never committed, never throws
+        public void discard() {
+            if (committed) {
+                return;
+            }
+            try {
+                fileStream.close();
+                Files.deleteIfExists(tempFile);
+            } catch (IOException e) {
+                log.warn("Failed to clean up pending result {}: {}", tempFile, e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.pdfconverter.upload;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// An upload session: the target file is allocated up front and every chunk is written at its own
+// offset, so chunks can arrive in any order and in parallel. Chunk writers share the read lock,
+// completing takes the write lock so it never sees a half written chunk.
+@Getter
+public class ChunkedUpload {
+    private final String id;
+    private final String ownerId;
+    private final String originalFilename;
+    private final String contentType;
+    private final long size;
+    private final int chunkSize;
+    private final int chunkCount;
+    private final Path file;
+    private final long createdAt = System.currentTimeMillis();
+    private volatile long lastActivityAt = createdAt;
+
+    // md5 of every verified chunk, null while missing
+    @Getter(AccessLevel.NONE)
+    final AtomicReferenceArray<byte[]> chunkDigests;
+    // 1 while a request is writing the chunk
+    @Getter(AccessLevel.NONE)
+    final AtomicIntegerArray writing;
+    @Getter(AccessLevel.NONE)
+    final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // guarded by lock
+    @Getter(AccessLevel.NONE)
+    boolean completed;
+    // sha-256 of the whole file, fed with the chunks in order as far as they have arrived
+    @Getter(AccessLevel.NONE)
+    final MessageDigest contentDigest = MultipartIngest.newSha256();
+    // guarded by contentDigest
+    @Getter(AccessLevel.NONE)
+    int foldedChunks;
+    @Getter(AccessLevel.NONE)
+    String contentHash;
+
+    ChunkedUpload(String id, String ownerId, String originalFilename, String contentType, long size, int chunkSize,
+                  Path file) {
+        this.id = id;
+        this.ownerId = ownerId;
+        this.originalFilename = originalFilename;
+        this.contentType = contentType;
+        this.size = size;
+        this.chunkSize = chunkSize;
+        this.chunkCount = (int) ((size + chunkSize - 1) / chunkSize);
+        this.file = file;
+        this.chunkDigests = new AtomicReferenceArray<>(chunkCount);
+        this.writing = new AtomicIntegerArray(chunkCount);
+    }
+
+    public long chunkOffset(int index) {
+        return (long) index * chunkSize;
+    }
+
+    public int chunkLength(int index) {
+        return (int) Math.min(chunkSize, size - chunkOffset(index));
+    }
+
+    public int receivedChunks() {
+        int received = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            if (chunkDigests.get(i) != null) {
+                received++;
+            }
+        }
+        return received;
+    }
+
+    public boolean isChunkReceived(int index) {
+        return chunkDigests.get(index) != null;
+    }
+
+    // sha-256 of the whole file, the same a multipart upload of it gets whatever the chunk size;
+    // null until every chunk is there
+    public String contentHash() {
+        synchronized (contentDigest) {
+            if (contentHash == null && foldedChunks == chunkCount) {
+                contentHash = HexFormat.of().formatHex(contentDigest.digest());
+            }
+            return contentHash;
+        }
+    }
+
+    void touch() {
+        lastActivityAt = System.currentTimeMillis();
+    }
+}
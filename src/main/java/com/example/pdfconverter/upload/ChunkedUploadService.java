@@ -0,0 +1,303 @@
+package com.example.pdfconverter.upload;
+
+import com.example.pdfconverter.model.ConversionInput;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+// Resumable uploads: a client initiates a session, sends the chunks (any order, in parallel, each with
+// its Content-MD5) and completes it. Chunks are written straight into the final file at their offset,
+// so completing needs no assembly step and the conversion reads the file as it is.
+// Sessions live in memory; sessions idle for longer than pdf.upload.chunked.session-ttl are removed.
+@Service
+@Slf4j
+public class ChunkedUploadService {
+    private static final int MIN_CHUNK_SIZE = 256 * 1024;
+    private static final int MAX_CHUNK_SIZE = 32 * 1024 * 1024;
+    private static final int MAX_CHUNKS = 10_000;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    @Value("${pdf.output-dir}")
+    private String outputDir;
+    @Value("${pdf.upload.chunked.max-size:50MB}")
+    private DataSize maxSize;
+    @Value("${pdf.upload.chunked.default-chunk-size:4MB}")
+    private DataSize defaultChunkSize;
+    @Value("${pdf.upload.chunked.max-sessions-per-user:5}")
+    private int maxSessionsPerUser;
+    @Value("${pdf.upload.chunked.session-ttl:1h}")
+    private Duration sessionTtl;
+
+    private final Map<String, ChunkedUpload> sessions = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void start() throws IOException {
+        // sessions don't survive a restart, neither do their files
+        FileSystemUtils.deleteRecursively(uploadsDir());
+        Files.createDirectories(uploadsDir());
+    }
+
+    public ChunkedUpload initiate(String ownerId, String originalFilename, String contentType, long size,
+                                  Integer requestedChunkSize) throws IOException {
+        if (originalFilename == null || originalFilename.isBlank()) {
+            throw new IllegalArgumentException("A file name is required.");
+        }
+        if (size <= 0 || size > maxSize.toBytes()) {
+            throw new IllegalArgumentException("File size must be between 1 and " + maxSize.toBytes() + " bytes.");
+        }
+        int chunkSize = requestedChunkSize != null ? requestedChunkSize : (int) defaultChunkSize.toBytes();
+        if (chunkSize < MIN_CHUNK_SIZE || chunkSize > MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Chunk size must be between " + MIN_CHUNK_SIZE + " and " + MAX_CHUNK_SIZE + " bytes.");
+        }
+        if ((size + chunkSize - 1) / chunkSize > MAX_CHUNKS) {
+            throw new IllegalArgumentException("Too many chunks, use a larger chunk size.");
+        }
+        if (sessions.values().stream().filter(upload -> upload.getOwnerId().equals(ownerId)).count() >= maxSessionsPerUser) {
+            throw new IllegalStateException("Too many unfinished uploads.");
+        }
+
+        String id = UUID.randomUUID().toString();
+        Path file = uploadsDir().resolve(id + ".upload");
+        // sparse on most file systems, the chunks fill it in
+        try (RandomAccessFile allocated = new RandomAccessFile(file.toFile(), "rw")) {
+            allocated.setLength(size);
+        }
+        ChunkedUpload upload = new ChunkedUpload(id, ownerId, originalFilename,
+                contentType != null ? contentType : "application/octet-stream", size, chunkSize, file);
+        sessions.put(id, upload);
+        log.info("Chunked upload {} started for user={}, file={}, size={}, chunks={}",
+                id, ownerId, originalFilename, size, upload.getChunkCount());
+        return upload;
+    }
+
+    // uploads are only visible to the user that started them
+    public Optional<ChunkedUpload> find(String uploadId, String ownerId) {
+        return Optional.ofNullable(sessions.get(uploadId))
+                .filter(upload -> upload.getOwnerId().equals(ownerId));
+    }
+
+    // streams one chunk into place; a chunk may be sent again, the last verified copy wins
+    public void writeChunk(ChunkedUpload upload, int index, String contentMd5, InputStream body) throws IOException {
+        if (index < 0 || index >= upload.getChunkCount()) {
+            throw new IllegalArgumentException("Chunk index must be between 0 and " + (upload.getChunkCount() - 1) + ".");
+        }
+        byte[] expectedDigest = decodeContentMd5(contentMd5);
+
+        upload.lock.readLock().lock();
+        try {
+            if (upload.completed) {
+                throw new IllegalStateException("The upload is already completed.");
+            }
+            if (!upload.writing.compareAndSet(index, 0, 1)) {
+                throw new IllegalStateException("Chunk " + index + " is already being uploaded.");
+            }
+            try {
+                upload.touch();
+                // whatever was there before is about to be overwritten
+                upload.chunkDigests.set(index, null);
+                unfold(upload, index);
+                byte[] digest = copyToFile(upload, index, body);
+                if (!MessageDigest.isEqual(digest, expectedDigest)) {
+                    throw new IllegalArgumentException("Checksum mismatch for chunk " + index + ".");
+                }
+                upload.chunkDigests.set(index, digest);
+                fold(upload);
+                upload.touch();
+            } finally {
+                upload.writing.set(index, 0);
+            }
+        } finally {
+            upload.lock.readLock().unlock();
+        }
+    }
+
+    // hands the assembled file over as a conversion input; the caller owns the file from here on
+    public ConversionInput complete(ChunkedUpload upload) throws IOException {
+        upload.lock.writeLock().lock();
+        try {
+            if (upload.completed) {
+                throw new IllegalStateException("The upload is already completed.");
+            }
+            int missing = upload.getChunkCount() - upload.receivedChunks();
+            if (missing > 0) {
+                throw new IllegalStateException(missing + " chunk(s) have not been uploaded yet.");
+            }
+            // normally done by the last chunk, unless reading it back failed there
+            fold(upload);
+            upload.completed = true;
+            sessions.remove(upload.getId());
+        } finally {
+            upload.lock.writeLock().unlock();
+        }
+        log.info("Chunked upload {} completed", upload.getId());
+        return ConversionInput.of(upload.getFile(), upload.getOriginalFilename(), upload.getContentType())
+                .withContentHash(upload.contentHash());
+    }
+
+    public void abort(ChunkedUpload upload) {
+        upload.lock.writeLock().lock();
+        try {
+            if (!upload.completed) {
+                upload.completed = true;
+                sessions.remove(upload.getId());
+                deleteQuietly(upload.getFile());
+            }
+        } finally {
+            upload.lock.writeLock().unlock();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${pdf.upload.chunked.cleanup-interval:5m}")
+    public void evictAbandoned() {
+        long cutoff = System.currentTimeMillis() - sessionTtl.toMillis();
+        for (ChunkedUpload upload : sessions.values()) {
+            // a chunk that is still being written keeps its session alive
+            if (upload.getLastActivityAt() < cutoff && upload.lock.writeLock().tryLock()) {
+                try {
+                    if (!upload.completed) {
+                        upload.completed = true;
+                        sessions.remove(upload.getId());
+                        deleteQuietly(upload.getFile());
+                        log.info("Chunked upload {} abandoned, removed", upload.getId());
+                    }
+                } finally {
+                    upload.lock.writeLock().unlock();
+                }
+            }
+        }
+
+        // completed uploads whose inline conversion never ran, e.g. because the client went away
+        try (Stream<Path> files = Files.list(uploadsDir())) {
+            files.filter(file -> !sessions.containsKey(file.getFileName().toString().replace(".upload", "")))
+                    .filter(file -> lastModified(file) < cutoff)
+                    .forEach(this::deleteQuietly);
+        } catch (IOException e) {
+            log.warn("Failed to clean up the upload directory: {}", e.getMessage());
+        }
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    // feeds the chunks that are there, in order from the first one not yet folded, into the whole-file hash;
+    // a chunk arriving out of order is read back from the file once the chunks before it are in
+    private void fold(ChunkedUpload upload) throws IOException {
+        synchronized (upload.contentDigest) {
+            if (upload.foldedChunks == upload.getChunkCount()
+                    || upload.chunkDigests.get(upload.foldedChunks) == null) {
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+            try (FileChannel channel = FileChannel.open(upload.getFile(), StandardOpenOption.READ)) {
+                while (upload.foldedChunks < upload.getChunkCount()
+                        && upload.chunkDigests.get(upload.foldedChunks) != null) {
+                    int index = upload.foldedChunks;
+                    long position = upload.chunkOffset(index);
+                    long end = position + upload.chunkLength(index);
+                    while (position < end) {
+                        buffer.clear().limit((int) Math.min(COPY_BUFFER_SIZE, end - position));
+                        int read = channel.read(buffer, position);
+                        if (read < 0) {
+                            throw new IOException("Upload file " + upload.getFile() + " is shorter than expected");
+                        }
+                        upload.contentDigest.update(buffer.array(), 0, read);
+                        position += read;
+                    }
+                    upload.foldedChunks++;
+                }
+            }
+        }
+    }
+
+    // a chunk that was already folded is being sent again, the whole-file hash starts over
+    private static void unfold(ChunkedUpload upload, int index) {
+        synchronized (upload.contentDigest) {
+            if (index < upload.foldedChunks) {
+                upload.contentDigest.reset();
+                upload.foldedChunks = 0;
+                upload.contentHash = null;
+            }
+        }
+    }
+
+    private byte[] copyToFile(ChunkedUpload upload, int index, InputStream body) throws IOException {
+        int expected = upload.chunkLength(index);
+        long offset = upload.chunkOffset(index);
+        MessageDigest md5 = MultipartIngest.newMd5();
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        long written = 0;
+        // positional writes don't move a shared file pointer, parallel chunks can use their own channels
+        try (FileChannel channel = FileChannel.open(upload.getFile(), StandardOpenOption.WRITE)) {
+            int read;
+            while ((read = body.read(buffer)) != -1) {
+                if (written + read > expected) {
+                    throw new IllegalArgumentException("Chunk " + index + " must be exactly " + expected + " bytes.");
+                }
+                md5.update(buffer, 0, read);
+                ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, read);
+                while (bytes.hasRemaining()) {
+                    written += channel.write(bytes, offset + written);
+                }
+            }
+        }
+        if (written != expected) {
+            throw new IllegalArgumentException("Chunk " + index + " must be exactly " + expected + " bytes.");
+        }
+        return md5.digest();
+    }
+
+    // Content-MD5 is the base64 of the binary digest (RFC 1864)
+    private static byte[] decodeContentMd5(String contentMd5) {
+        if (contentMd5 == null) {
+            throw new IllegalArgumentException("Every chunk needs a Content-MD5 header.");
+        }
+        try {
+            byte[] digest = Base64.getDecoder().decode(contentMd5.trim());
+            if (digest.length == 16) {
+                return digest;
+            }
+        } catch (IllegalArgumentException ignored) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Content-MD5 must be the base64 encoded md5 of the chunk.");
+    }
+
+    private Path uploadsDir() {
+        return Paths.get(outputDir, "uploads");
+    }
+
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Failed to delete {}: {}", path, e.getMessage());
+        }
+    }
+}
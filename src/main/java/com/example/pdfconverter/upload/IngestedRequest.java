@@ -0,0 +1,49 @@
+package com.example.pdfconverter.upload;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.multipart.MultipartHttpServletRequest;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// A multipart request after ingest: the wrapped request the controllers see and the spooled file parts.
+// cleanUpTasks are run with the clean-up, for what a controller created for the request.
+@Slf4j
+public record IngestedRequest(MultipartHttpServletRequest request, List<SpooledUpload> uploads,
+                              List<Runnable> cleanUpTasks) {
+
+    public IngestedRequest(MultipartHttpServletRequest request, List<SpooledUpload> uploads) {
+        this(request, uploads, new CopyOnWriteArrayList<>());
+    }
+
+    public long totalSize() {
+        return uploads.stream().mapToLong(SpooledUpload::getSize).sum();
+    }
+
+    // runs the task when the request ends, for async requests once the async processing has completed
+    public void onCleanUp(Runnable task) {
+        cleanUpTasks.add(task);
+    }
+
+    // runs the clean-up tasks and removes all spool files that were not moved elsewhere, never throws
+    public void cleanUp() {
+        // a timed out request is completed as well, every task runs once
+        for (Runnable task : cleanUpTasks) {
+            if (cleanUpTasks.remove(task)) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    log.warn("Request clean-up failed: {}", e.getMessage());
+                }
+            }
+        }
+        for (SpooledUpload upload : uploads) {
+            try {
+                upload.deleteSpoolFile();
+            } catch (IOException e) {
+                log.warn("Failed to delete spooled upload {}: {}", upload.getOriginalFilename(), e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package com.example.pdfconverter.upload;
+
+import com.example.pdfconverter.converter.FormatSniffer;
+import com.example.pdfconverter.model.ConversionInput;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.multipart.support.DefaultMultipartHttpServletRequest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Reads a multipart/form-data body straight from the servlet input stream, exactly once. File parts are
+// spooled to memory (below pdf.upload.memory-threshold) or to a temp file while their size and sha-256 are
+// computed on the way, and sniffed once they are complete; form fields are kept as request parameters. The resulting request is already a
+// MultipartHttpServletRequest, so the dispatcher servlet doesn't parse the body a second time.
+@Component
+@RequiredArgsConstructor
+public class MultipartIngest {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_HEADER_BYTES = 16 * 1024;
+    private static final int MAX_FIELD_BYTES = 64 * 1024;
+    private static final int MAX_PARTS = 512;
+
+    private final FormatSniffer formatSniffer;
+
+    @Value("${spring.servlet.multipart.max-file-size:1MB}")
+    private DataSize maxFileSize;
+    @Value("${spring.servlet.multipart.max-request-size:10MB}")
+    private DataSize maxRequestSize;
+    // smaller files stay in memory, larger ones go to a temp file
+    @Value("${pdf.upload.memory-threshold:256KB}")
+    private DataSize memoryThreshold;
+
+    public boolean isMultipart(HttpServletRequest request) {
+        String contentType = request.getContentType();
+        return contentType != null && contentType.toLowerCase().startsWith(MediaType.MULTIPART_FORM_DATA_VALUE);
+    }
+
+    public IngestedRequest ingest(HttpServletRequest request) throws IOException {
+        String boundary = MediaType.parseMediaType(request.getContentType()).getParameter("boundary");
+        if (boundary == null || boundary.isEmpty() || boundary.length() > 70) {
+            throw new IllegalArgumentException("Multipart request without a valid boundary.");
+        }
+        if (boundary.startsWith("\"") && boundary.endsWith("\"") && boundary.length() > 1) {
+            boundary = boundary.substring(1, boundary.length() - 1);
+        }
+        if (request.getContentLengthLong() > maxRequestSize.toBytes()) {
+            throw new MaxUploadSizeExceededException(maxRequestSize.toBytes());
+        }
+
+        PartStream stream = new PartStream(request.getInputStream(), boundary, maxRequestSize.toBytes());
+        MultiValueMap<String, MultipartFile> files = new LinkedMultiValueMap<>();
+        Map<String, String[]> parameters = new LinkedHashMap<>();
+        Map<String, String> parameterContentTypes = new LinkedHashMap<>();
+        List<SpooledUpload> uploads = new ArrayList<>();
+        try {
+            // the preamble before the first boundary is ignored
+            stream.readBody(OutputStream.nullOutputStream());
+            int parts = 0;
+            while (stream.nextPart()) {
+                if (++parts > MAX_PARTS) {
+                    throw new IllegalArgumentException("Too many parts in the multipart request.");
+                }
+                HttpHeaders headers = stream.readHeaders();
+                String dispositionHeader = headers.getFirst(HttpHeaders.CONTENT_DISPOSITION);
+                if (dispositionHeader == null) {
+                    throw new IllegalArgumentException("Multipart part without Content-Disposition.");
+                }
+                ContentDisposition disposition = ContentDisposition.parse(dispositionHeader);
+                String name = disposition.getName();
+                String contentType = headers.getFirst(HttpHeaders.CONTENT_TYPE);
+                if (disposition.getFilename() != null) {
+                    SpooledUpload upload = spool(stream, name, disposition.getFilename(), contentType);
+                    uploads.add(upload);
+                    files.add(name, upload);
+                } else {
+                    ByteArrayOutputStream value = new ByteArrayOutputStream();
+                    stream.readBody(new LimitedOutputStream(value));
+                    String[] previous = parameters.getOrDefault(name, new String[0]);
+                    String[] values = Arrays.copyOf(previous, previous.length + 1);
+                    values[previous.length] = value.toString(StandardCharsets.UTF_8);
+                    parameters.put(name, values);
+                    if (contentType != null) {
+                        parameterContentTypes.put(name, contentType);
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            new IngestedRequest(null, uploads).cleanUp();
+            throw e;
+        }
+        // built last, the request copies the file map
+        return new IngestedRequest(
+                new DefaultMultipartHttpServletRequest(request, files, parameters, parameterContentTypes), uploads);
+    }
+
+    private SpooledUpload spool(PartStream stream, String name, String filename, String contentType) throws IOException {
+        SpoolSink sink = new SpoolSink();
+        try {
+            stream.readBody(sink);
+            sink.close();
+        } catch (IOException | RuntimeException e) {
+            sink.discard();
+            throw e;
+        }
+        SpooledUpload upload = new SpooledUpload(name, filename, contentType, sink.size, sink.hash(),
+                sink.memoryContent(), sink.file);
+        try {
+            upload.setFormat(formatSniffer.sniff(ConversionInput.of(upload)));
+        } catch (IOException | RuntimeException e) {
+            // not rejected here, the conversion sniffs again and answers with the reason
+        }
+        return upload;
+    }
+
+    // counts and hashes everything written, switches from memory to a temp file past the threshold
+    private class SpoolSink extends OutputStream {
+        private final MessageDigest sha256 = newSha256();
+        private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        private OutputStream fileStream;
+        private Path file;
+        private long size;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            size += len;
+            if (size > maxFileSize.toBytes()) {
+                throw new MaxUploadSizeExceededException(maxFileSize.toBytes());
+            }
+            sha256.update(b, off, len);
+            if (memory != null && size > memoryThreshold.toBytes()) {
+                file = Files.createTempFile("upload-", ".part");
+                fileStream = Files.newOutputStream(file);
+                memory.writeTo(fileStream);
+                memory = null;
+            }
+            if (memory != null) {
+                memory.write(b, off, len);
+            } else {
+                fileStream.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (fileStream != null) {
+                fileStream.close();
+            }
+        }
+
+        byte[] memoryContent() {
+            return memory != null ? memory.toByteArray() : null;
+        }
+
+        String hash() {
+            return HexFormat.of().formatHex(sha256.digest());
+        }
+
+        void discard() throws IOException {
+            close();
+            if (file != null) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    // form fields are small, anything bigger is not a field this api knows
+    private static class LimitedOutputStream extends OutputStream {
+        private final ByteArrayOutputStream target;
+
+        LimitedOutputStream(ByteArrayOutputStream target) {
+            this.target = target;
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (target.size() + len > MAX_FIELD_BYTES) {
+                throw new IllegalArgumentException("Form field too large.");
+            }
+            target.write(b, off, len);
+        }
+    }
+
+    // splits the body at "\r\n--boundary"; the stream is read through one buffer and never rewound
+    private static class PartStream {
+        private final InputStream in;
+        private final byte[] delimiter;
+        private final long maxBytes;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position;
+        private int limit;
+        private long bytesRead;
+        private boolean eof;
+
+        PartStream(InputStream in, String boundary, long maxBytes) {
+            this.in = in;
+            this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.US_ASCII);
+            this.maxBytes = maxBytes;
+            // the first boundary has no line break in front, a virtual one lets it match the delimiter
+            buffer[0] = '\r';
+            buffer[1] = '\n';
+            limit = 2;
+        }
+
+        // copies the body of the current part to the sink and consumes the delimiter after it
+        void readBody(OutputStream sink) throws IOException {
+            while (true) {
+                fill(delimiter.length);
+                int found = indexOfDelimiter();
+                if (found >= 0) {
+                    sink.write(buffer, position, found - position);
+                    position = found + delimiter.length;
+                    return;
+                }
+                if (eof) {
+                    throw malformed();
+                }
+                // the tail might be the start of a delimiter, it stays in the buffer
+                int safe = limit - delimiter.length + 1;
+                if (safe > position) {
+                    sink.write(buffer, position, safe - position);
+                    position = safe;
+                }
+                fill(limit - position + 1);
+            }
+        }
+
+        // after a delimiter: "--" closes the body, a line break starts the next part
+        boolean nextPart() throws IOException {
+            fill(2);
+            if (limit - position < 2) {
+                throw malformed();
+            }
+            byte first = buffer[position];
+            byte second = buffer[position + 1];
+            position += 2;
+            if (first == '-' && second == '-') {
+                return false;
+            }
+            if (first == '\r' && second == '\n') {
+                return true;
+            }
+            throw malformed();
+        }
+
+        HttpHeaders readHeaders() throws IOException {
+            HttpHeaders headers = new HttpHeaders();
+            int headerBytes = 0;
+            while (true) {
+                ByteArrayOutputStream line = new ByteArrayOutputStream();
+                while (true) {
+                    if (position == limit) {
+                        fill(1);
+                        if (position == limit) {
+                            throw malformed();
+                        }
+                    }
+                    byte b = buffer[position++];
+                    if (++headerBytes > MAX_HEADER_BYTES) {
+                        throw new IllegalArgumentException("Multipart part headers too large.");
+                    }
+                    if (b == '\n') {
+                        break;
+                    }
+                    line.write(b);
+                }
+                String text = line.toString(StandardCharsets.UTF_8);
+                if (text.endsWith("\r")) {
+                    text = text.substring(0, text.length() - 1);
+                }
+                if (text.isEmpty()) {
+                    return headers;
+                }
+                int colon = text.indexOf(':');
+                if (colon <= 0) {
+                    throw malformed();
+                }
+                headers.add(text.substring(0, colon).trim(), text.substring(colon + 1).trim());
+            }
+        }
+
+        private int indexOfDelimiter() {
+            int last = limit - delimiter.length;
+            for (int i = position; i <= last; i++) {
+                if (buffer[i] != '\r') {
+                    continue;
+                }
+                int j = 1;
+                while (j < delimiter.length && buffer[i + j] == delimiter[j]) {
+                    j++;
+                }
+                if (j == delimiter.length) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        // makes at least `needed` unread bytes available unless the stream ends first
+        private void fill(int needed) throws IOException {
+            if (limit - position >= needed || eof) {
+                return;
+            }
+            if (position > 0) {
+                System.arraycopy(buffer, position, buffer, 0, limit - position);
+                limit -= position;
+                position = 0;
+            }
+            while (limit - position < needed && limit < buffer.length) {
+                int read = in.read(buffer, limit, buffer.length - limit);
+                if (read < 0) {
+                    eof = true;
+                    return;
+                }
+                limit += read;
+                bytesRead += read;
+                if (bytesRead > maxBytes) {
+                    throw new MaxUploadSizeExceededException(maxBytes);
+                }
+            }
+        }
+
+        private static IllegalArgumentException malformed() {
+            return new IllegalArgumentException("Malformed multipart request.");
+        }
+    }
+
+    // the content hash: it keys the conversion cache shared by all users, so it has to resist collisions
+    static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // what clients send for chunks as Content-MD5
+    static MessageDigest newMd5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.pdfconverter.upload;
+
+import com.example.pdfconverter.model.ConversionFormat;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+
+// A file part that was read once by the ingest filter: small files are held in memory, larger ones in a
+// spool file. Size and sha-256 were computed while the bytes came in, so nothing downstream has to read
+// the upload just to learn them. The format is sniffed once right after, the rate limiter and the
+// conversion go by it.
+public class SpooledUpload implements MultipartFile {
+    private final String name;
+    private final String originalFilename;
+    private final String contentType;
+    private final long size;
+    private final String contentHash;
+    private final byte[] content;
+    // both null when the content is in memory; file moves with transferTo
+    private final Path spoolFile;
+    private volatile Path file;
+    // null when the content isn't a format that can be converted, the conversion sniffs again and says why
+    private volatile ConversionFormat format;
+
+    SpooledUpload(String name, String originalFilename, String contentType, long size, String contentHash,
+                  byte[] content, Path file) {
+        this.name = name;
+        this.originalFilename = originalFilename;
+        this.contentType = contentType;
+        this.size = size;
+        this.contentHash = contentHash;
+        this.content = content;
+        this.spoolFile = file;
+        this.file = file;
+    }
+
+    // the sha-256 of an upload that came through the ingest filter, null for any other multipart file
+    public static String contentHashOf(MultipartFile file) {
+        return file instanceof SpooledUpload spooled ? spooled.contentHash : null;
+    }
+
+    // the same hash for content that didn't come through the ingest filter
+    public static String contentHashOf(InputStream content) throws IOException {
+        MessageDigest sha256 = MultipartIngest.newSha256();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = content.read(buffer)) != -1) {
+            sha256.update(buffer, 0, read);
+        }
+        return HexFormat.of().formatHex(sha256.digest());
+    }
+
+    // the sniffed format of an upload that came through the ingest filter, null otherwise
+    public static ConversionFormat formatOf(MultipartFile file) {
+        return file instanceof SpooledUpload spooled ? spooled.format : null;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getOriginalFilename() {
+        return originalFilename;
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public byte[] getBytes() throws IOException {
+        return content != null ? content : Files.readAllBytes(file);
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return content != null ? new ByteArrayInputStream(content) : Files.newInputStream(file);
+    }
+
+    @Override
+    public void transferTo(File dest) throws IOException {
+        transferTo(dest.toPath());
+    }
+
+    // a spooled file is moved instead of copied, later reads follow it to the new place
+    @Override
+    public void transferTo(Path dest) throws IOException {
+        if (content != null) {
+            Files.write(dest, content);
+            return;
+        }
+        try {
+            Files.move(file, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // other file system
+            Files.copy(file, dest, StandardCopyOption.REPLACE_EXISTING);
+            Files.deleteIfExists(file);
+        }
+        file = dest;
+    }
+
+    void setFormat(ConversionFormat format) {
+        this.format = format;
+    }
+
+    // removes the spool file, unless it was handed over with transferTo
+    void deleteSpoolFile() throws IOException {
+        if (spoolFile != null && spoolFile.equals(file)) {
+            Files.deleteIfExists(spoolFile);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.pdfconverter.utils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+// RFC 4180 style csv: quoted fields may contain the delimiter, line breaks and doubled quotes.
+public class CsvRowReader implements RowReader {
+    private static final char[] CANDIDATE_DELIMITERS = {',', ';', '\t', '|'};
+
+    private final Reader reader;
+    private final char delimiter;
+    private final int maxCellChars;
+    private int pending = -2;
+
+    public CsvRowReader(Reader reader, char delimiter, int maxCellChars) {
+        this.reader = reader;
+        this.delimiter = delimiter;
+        this.maxCellChars = maxCellChars;
+    }
+
+    // the candidate that splits the sample lines most consistently, comma when nothing fits
+    public static char detectDelimiter(String sample) {
+        String[] lines = sample.split("\r?\n");
+        int complete = Math.max(1, lines.length - 1);
+        char best = ',';
+        int bestScore = 0;
+        for (char candidate : CANDIDATE_DELIMITERS) {
+            int first = count(lines[0], candidate);
+            if (first == 0) {
+                continue;
+            }
+            int consistent = 0;
+            for (int i = 0; i < complete; i++) {
+                if (count(lines[i], candidate) == first) {
+                    consistent++;
+                }
+            }
+            int score = consistent * 1000 + first;
+            if (score > bestScore) {
+                best = candidate;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public List<String> next() throws IOException {
+        int c = read();
+        if (c == -1) {
+            return null;
+        }
+        List<String> row = new ArrayList<>();
+        StringBuilder cell = new StringBuilder();
+        boolean quoted = false;
+        boolean cellStart = true;
+        while (true) {
+            if (c == -1) {
+                addCell(row, cell);
+                return row;
+            }
+            if (quoted) {
+                if (c == '"') {
+                    int following = read();
+                    if (following == '"') {
+                        append(cell, '"');
+                    } else {
+                        quoted = false;
+                        c = following;
+                        continue;
+                    }
+                } else {
+                    append(cell, (char) c);
+                }
+            } else if (c == '"' && cellStart) {
+                quoted = true;
+            } else if (c == delimiter) {
+                addCell(row, cell);
+                cell.setLength(0);
+                cellStart = true;
+                c = read();
+                continue;
+            } else if (c == '\n' || c == '\r') {
+                if (c == '\r') {
+                    int following = read();
+                    if (following != '\n') {
+                        pending = following;
+                    }
+                }
+                addCell(row, cell);
+                return row;
+            } else {
+                append(cell, (char) c);
+            }
+            cellStart = false;
+            c = read();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    // cells past MAX_COLUMNS are read and dropped
+    private static void addCell(List<String> row, StringBuilder cell) {
+        if (row.size() < MAX_COLUMNS) {
+            row.add(cell.toString());
+        }
+    }
+
+    // overlong cells are cut, the rest of the cell is still consumed
+    private void append(StringBuilder cell, char c) {
+        if (cell.length() < maxCellChars) {
+            cell.append(c);
+        }
+    }
+
+    private int read() throws IOException {
+        if (pending != -2) {
+            int c = pending;
+            pending = -2;
+            return c;
+        }
+        return reader.read();
+    }
+
+    private static int count(String line, char c) {
+        int count = 0;
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) == c) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
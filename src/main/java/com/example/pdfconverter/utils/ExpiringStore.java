@@ -0,0 +1,200 @@
+package com.example.pdfconverter.utils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+// A concurrent map whose entries expire a fixed time after they were created or last accessed, with
+// a hard cap on the number of entries.
+//
+// Expiry uses a hashed timing wheel with one-second ticks: every entry sits in the slot of the tick
+// its deadline falls into. An access only moves the deadline stored in the entry, the entry stays in its
+// slot; when the wheel reaches it the real deadline is checked and the entry is either removed or put
+// into the slot of its new deadline. The wheel is advanced by whichever caller notices that a tick has
+// passed, so no thread is needed. Past the cap the entries next in line on the wheel are dropped first.
+public class ExpiringStore<K, V> {
+    private static final long TICK_MILLIS = 1000;
+    private static final int SLOTS = 512;
+
+    private final ConcurrentHashMap<K, Node<K, V>> entries = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Node<K, V>>[] wheel;
+    private final long ttlMillis;
+    private final boolean expireAfterAccess;
+    private final int maxEntries;
+    private final LongSupplier clock;
+    private final ReentrantLock advanceLock = new ReentrantLock();
+    // last tick whose slot has been processed
+    private volatile long cursor;
+
+    // expireAfterAccess: compute calls move the deadline (get doesn't), otherwise it's fixed at creation
+    public ExpiringStore(Duration ttl, boolean expireAfterAccess, int maxEntries) {
+        this(ttl, expireAfterAccess, maxEntries, System::currentTimeMillis);
+    }
+
+    // no generic array creation in java, the wheel is created raw
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ExpiringStore(Duration ttl, boolean expireAfterAccess, int maxEntries, LongSupplier clock) {
+        this.ttlMillis = ttl.toMillis();
+        this.expireAfterAccess = expireAfterAccess;
+        this.maxEntries = maxEntries;
+        this.clock = clock;
+        this.wheel = new ConcurrentLinkedQueue[SLOTS];
+        for (int i = 0; i < SLOTS; i++) {
+            wheel[i] = new ConcurrentLinkedQueue<>();
+        }
+        this.cursor = clock.getAsLong() / TICK_MILLIS;
+    }
+
+    // the live value, without touching its deadline
+    public V get(K key) {
+        long now = clock.getAsLong();
+        advance(now);
+        Node<K, V> node = entries.get(key);
+        return node != null && node.deadline > now ? node.value : null;
+    }
+
+    // a live entry is returned without locking or allocating, a touch that races with its expiry may be lost
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> factory) {
+        long now = clock.getAsLong();
+        advance(now);
+        Node<K, V> node = entries.get(key);
+        if (node != null && node.deadline > now) {
+            // the wheel works in ticks, moving the deadline more often only costs shared writes
+            if (expireAfterAccess && now + ttlMillis - node.deadline >= TICK_MILLIS) {
+                node.deadline = now + ttlMillis;
+            }
+            return node.value;
+        }
+        return compute(key, (k, value) -> value != null ? value : factory.apply(k));
+    }
+
+    // like ConcurrentHashMap.compute; an expired value is passed as null, returning null removes the entry
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remapping) {
+        long now = clock.getAsLong();
+        advance(now);
+        Object[] created = new Object[1];
+        Node<K, V> result = entries.compute(key, (k, node) -> {
+            boolean live = node != null && node.deadline > now;
+            V value = remapping.apply(k, live ? node.value : null);
+            if (value == null) {
+                return null;
+            }
+            if (live) {
+                node.value = value;
+                if (expireAfterAccess) {
+                    node.deadline = now + ttlMillis;
+                }
+                return node;
+            }
+            // an expired node that is still on the wheel is dropped when its slot comes up
+            Node<K, V> fresh = new Node<>(k, value, now + ttlMillis);
+            created[0] = fresh;
+            return fresh;
+        });
+        if (created[0] != null) {
+            @SuppressWarnings("unchecked")
+            Node<K, V> fresh = (Node<K, V>) created[0];
+            schedule(fresh);
+            if (entries.size() > maxEntries) {
+                evictOverflow();
+            }
+        }
+        return result != null ? result.value : null;
+    }
+
+    public void remove(K key) {
+        entries.remove(key);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    // expires whatever is due; callers advance the wheel anyway, this is for quiet periods
+    public void expire() {
+        advance(clock.getAsLong());
+    }
+
+    private void schedule(Node<K, V> node) {
+        wheel[slotIndex(node.deadline)].offer(node);
+    }
+
+    private static int slotIndex(long time) {
+        return (int) ((time / TICK_MILLIS) & (SLOTS - 1));
+    }
+
+    private void advance(long now) {
+        long tick = now / TICK_MILLIS;
+        if (tick <= cursor || !advanceLock.tryLock()) {
+            return;
+        }
+        try {
+            // after a long pause every slot is due once
+            long from = Math.max(cursor + 1, tick - SLOTS + 1);
+            for (long t = from; t <= tick; t++) {
+                processSlot(wheel[(int) (t & (SLOTS - 1))], now);
+            }
+            cursor = tick;
+        } finally {
+            advanceLock.unlock();
+        }
+    }
+
+    private void processSlot(ConcurrentLinkedQueue<Node<K, V>> slot, long now) {
+        List<Node<K, V>> stillHere = new ArrayList<>();
+        Node<K, V> node;
+        while ((node = slot.poll()) != null) {
+            if (node.deadline <= now) {
+                // checked again under the map's lock, a concurrent compute may just have extended it
+                Node<K, V> expired = node;
+                entries.computeIfPresent(node.key, (k, current) -> current == expired && current.deadline <= now ? null : current);
+            }
+            if (entries.get(node.key) != node) {
+                // expired, removed or replaced in the meantime
+                continue;
+            }
+            if (wheel[slotIndex(node.deadline)] == slot) {
+                // due in a later round of the wheel, offered again once this slot is drained
+                stillHere.add(node);
+            } else {
+                schedule(node);
+            }
+        }
+        stillHere.forEach(slot::offer);
+    }
+
+    // drops the entries that are next in line to expire until the store is back under its cap
+    private void evictOverflow() {
+        advanceLock.lock();
+        try {
+            long tick = cursor;
+            for (int i = 1; i <= SLOTS && entries.size() > maxEntries; i++) {
+                ConcurrentLinkedQueue<Node<K, V>> slot = wheel[(int) ((tick + i) & (SLOTS - 1))];
+                Node<K, V> node;
+                while (entries.size() > maxEntries && (node = slot.poll()) != null) {
+                    entries.remove(node.key, node);
+                }
+            }
+        } finally {
+            advanceLock.unlock();
+        }
+    }
+
+    private static final class Node<K, V> {
+        final K key;
+        volatile V value;
+        volatile long deadline;
+
+        Node(K key, V value, long deadline) {
+            this.key = key;
+            this.value = value;
+            this.deadline = deadline;
+        }
+    }
+}
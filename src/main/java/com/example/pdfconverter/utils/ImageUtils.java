@@ -0,0 +1,196 @@
+package com.example.pdfconverter.utils;
+
+import com.itextpdf.io.image.ImageData;
+import com.itextpdf.io.image.ImageDataFactory;
+import com.itextpdf.kernel.geom.PageSize;
+
+import javax.imageio.IIOException;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+// Prepares uploaded images for embedding: dimensions are read from the header first, images larger
+// than the page at the target dpi are decoded subsampled and scaled down, and the result is
+// recompressed only when that makes it smaller. Jpegs that already fit are embedded untouched.
+//
+// Memory per image is bounded: subsampling keeps the decoded raster below 2x the target size in each
+// direction, so besides the upload bytes at most (2w * 2h + w * h) * 4 bytes are held, w/h being the
+// target pixel size (about 45 MB for a full A4 page at 150 dpi).
+public class ImageUtils {
+    // pages follow the image orientation, the image is fitted inside the margins
+    public static final float PAGE_MARGIN = 36;
+    // refuse decompression bombs before decoding anything
+    private static final long MAX_PIXELS = 250_000_000L;
+    private static final float JPEG_QUALITY = 0.85f;
+    // a png without alpha using more than this per pixel is most likely a photo, jpeg suits it better
+    private static final double PHOTO_BYTES_PER_PIXEL = 1.5;
+
+    public static PageSize pageFor(int width, int height) {
+        return width > height ? PageSize.A4.rotate() : PageSize.A4;
+    }
+
+    public static ImageData prepare(byte[] data, int targetDpi) throws IOException {
+        try (ImageInputStream imageInput = ImageIO.createImageInputStream(new ByteArrayInputStream(data))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(imageInput);
+            if (!readers.hasNext()) {
+                throw new IllegalArgumentException("Unsupported or corrupted image.");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(imageInput, true, true);
+                // only the header is parsed here, no pixels are decoded yet
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > MAX_PIXELS) {
+                    throw new IllegalArgumentException("Image is too large: " + width + "x" + height + " pixels.");
+                }
+                boolean jpeg = "jpeg".equalsIgnoreCase(reader.getFormatName());
+
+                PageSize page = pageFor(width, height);
+                int maxWidth = toPixels(page.getWidth() - 2 * PAGE_MARGIN, targetDpi);
+                int maxHeight = toPixels(page.getHeight() - 2 * PAGE_MARGIN, targetDpi);
+                double scale = Math.min(1.0, Math.min((double) maxWidth / width, (double) maxHeight / height));
+
+                if (scale >= 1.0) {
+                    if (jpeg || !looksLikePhoto(data, width, height, reader)) {
+                        return ImageDataFactory.create(data);
+                    }
+                    BufferedImage decoded = reader.read(0);
+                    return smallest(data, encode(decoded));
+                }
+
+                int targetWidth = Math.max(1, (int) Math.round(width * scale));
+                int targetHeight = Math.max(1, (int) Math.round(height * scale));
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = Math.max(1, Math.min(width / targetWidth, height / targetHeight));
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                BufferedImage decoded = reader.read(0, param);
+                return ImageDataFactory.create(encode(resize(decoded, targetWidth, targetHeight)));
+            } finally {
+                reader.dispose();
+            }
+        } catch (IIOException e) {
+            // e.g. cmyk jpegs that ImageIO cannot decode, iText embeds those as they are; only jpegs,
+            // whose size is read from their header here, iText would decode anything else in full
+            int[] size = jpegSize(data);
+            if (size == null) {
+                throw new IllegalArgumentException("Unsupported or corrupted image.");
+            }
+            if ((long) size[0] * size[1] > MAX_PIXELS) {
+                throw new IllegalArgumentException("Image is too large: " + size[0] + "x" + size[1] + " pixels.");
+            }
+            return ImageDataFactory.create(data);
+        }
+    }
+
+    // width and height from the frame header (SOFn marker) of a jpeg, null when it isn't one
+    static int[] jpegSize(byte[] data) {
+        if (data.length < 4 || (data[0] & 0xFF) != 0xFF || (data[1] & 0xFF) != 0xD8) {
+            return null;
+        }
+        int position = 2;
+        while (position + 3 < data.length) {
+            if ((data[position] & 0xFF) != 0xFF) {
+                return null;
+            }
+            int marker = data[position + 1] & 0xFF;
+            if (marker == 0xFF) {
+                // fill byte before the marker
+                position++;
+                continue;
+            }
+            if (marker == 0x01 || marker >= 0xD0 && marker <= 0xD8) {
+                // markers without a segment
+                position += 2;
+                continue;
+            }
+            // the scan starts without a frame header before it, or the image ended
+            if (marker == 0xDA || marker == 0xD9) {
+                return null;
+            }
+            int length = (data[position + 2] & 0xFF) << 8 | (data[position + 3] & 0xFF);
+            boolean frame = marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+            if (frame) {
+                if (position + 8 >= data.length || length < 7) {
+                    return null;
+                }
+                int height = (data[position + 5] & 0xFF) << 8 | (data[position + 6] & 0xFF);
+                int width = (data[position + 7] & 0xFF) << 8 | (data[position + 8] & 0xFF);
+                return new int[] {width, height};
+            }
+            position += 2 + length;
+        }
+        return null;
+    }
+
+    private static int toPixels(float points, int dpi) {
+        return Math.max(1, Math.round(points / 72f * dpi));
+    }
+
+    private static boolean looksLikePhoto(byte[] data, int width, int height, ImageReader reader) throws IOException {
+        boolean alpha = reader.getRawImageType(0) != null && reader.getRawImageType(0).getColorModel().hasAlpha();
+        return !alpha && (double) data.length / ((long) width * height) > PHOTO_BYTES_PER_PIXEL;
+    }
+
+    private static ImageData smallest(byte[] original, byte[] recompressed) {
+        return ImageDataFactory.create(recompressed.length < original.length ? recompressed : original);
+    }
+
+    private static BufferedImage resize(BufferedImage source, int width, int height) {
+        if (source.getWidth() == width && source.getHeight() == height) {
+            return source;
+        }
+        int type = source.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage target = new BufferedImage(width, height, type);
+        Graphics2D graphics = target.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return target;
+    }
+
+    // jpeg for opaque images, png when there is transparency to keep
+    private static byte[] encode(BufferedImage image) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        if (image.getColorModel().hasAlpha()) {
+            ImageIO.write(image, "png", output);
+            return output.toByteArray();
+        }
+
+        BufferedImage rgb = image;
+        int type = image.getType();
+        if (type != BufferedImage.TYPE_INT_RGB && type != BufferedImage.TYPE_3BYTE_BGR && type != BufferedImage.TYPE_BYTE_GRAY) {
+            // the jpeg writer only handles plain rgb or gray rasters
+            rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = rgb.createGraphics();
+            graphics.drawImage(image, 0, 0, null);
+            graphics.dispose();
+        }
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream imageOutput = ImageIO.createImageOutputStream(output)) {
+            writer.setOutput(imageOutput);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            writer.write(null, new IIOImage(rgb, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return output.toByteArray();
+    }
+}
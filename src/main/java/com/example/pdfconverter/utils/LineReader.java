@@ -0,0 +1,54 @@
+package com.example.pdfconverter.utils;
+
+import java.io.IOException;
+import java.io.Reader;
+
+// Splits text into lines by scanning a char buffer that is filled with bulk reads, instead of one
+// Reader.read() call per char. Carriage returns are dropped, a line longer than maxLineChars is cut
+// into several.
+class LineReader {
+    private final Reader reader;
+    private final char[] buffer;
+    private final int maxLineChars;
+    private int position;
+    private int limit;
+
+    LineReader(Reader reader, int bufferChars, int maxLineChars) {
+        this.reader = reader;
+        this.buffer = new char[bufferChars];
+        this.maxLineChars = maxLineChars;
+    }
+
+    // reads up to the next line break (or maxLineChars), returns false at the end of the stream
+    boolean readLine(StringBuilder line) throws IOException {
+        line.setLength(0);
+        while (true) {
+            if (position == limit) {
+                int read = reader.read(buffer, 0, buffer.length);
+                position = 0;
+                limit = Math.max(read, 0);
+                if (read < 0) {
+                    return line.length() > 0;
+                }
+            }
+            int start = position;
+            int end = Math.min(limit, start + maxLineChars - line.length());
+            int i = start;
+            while (i < end && buffer[i] != '\n' && buffer[i] != '\r') {
+                i++;
+            }
+            line.append(buffer, start, i - start);
+            if (i == end) {
+                position = i;
+                if (line.length() >= maxLineChars) {
+                    return true;
+                }
+                continue;
+            }
+            position = i + 1;
+            if (buffer[i] == '\n') {
+                return true;
+            }
+        }
+    }
+}
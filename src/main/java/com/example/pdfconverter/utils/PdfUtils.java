@@ -1,67 +1,224 @@
 package com.example.pdfconverter.utils;
 import com.itextpdf.kernel.pdf.*;
+import com.itextpdf.kernel.pdf.canvas.PdfCanvas;
+import com.itextpdf.kernel.geom.Rectangle;
+import com.itextpdf.kernel.events.PdfDocumentEvent;
+import com.itextpdf.kernel.font.PdfFont;
+import com.itextpdf.kernel.font.PdfFontFactory;
+import com.itextpdf.io.font.constants.StandardFonts;
 import com.itextpdf.layout.Document;
 import com.itextpdf.layout.element.*;
 import com.itextpdf.io.image.*;
-
-import org.springframework.web.multipart.MultipartFile;
+import com.itextpdf.layout.font.FontProvider;
+import com.itextpdf.layout.properties.UnitValue;
+import com.itextpdf.kernel.geom.PageSize;
+import com.example.pdfconverter.model.OutputProfile;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.io.ByteArrayOutputStream;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
 
 public class PdfUtils {
-    public static byte[] convertTxtToPdf(MultipartFile file) throws IOException {
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        // we create pdf writer that writes in output stream
-        PdfWriter writer = new PdfWriter(outputStream);
+    // longer lines are wrapped into several paragraphs so one element never grows unbounded
+    private static final int MAX_LINE_CHARS = 4096;
+    private static final int READ_BUFFER_CHARS = 64 * 1024;
+    // non-breaking space keeps empty lines at full line height
+    private static final String EMPTY_LINE = "\u00A0";
+    private static final float PAGE_NUMBER_FONT_SIZE = 8;
+    private static final float TABLE_FONT_SIZE = 7;
+    // rows are written out and dropped from the table every this many rows
+    private static final int TABLE_FLUSH_ROWS = 200;
+    private static final int MAX_TABLE_COLUMNS = 64;
+    // tables wider than this get a landscape page
+    private static final int PORTRAIT_MAX_COLUMNS = 6;
+
+    public static void convertTxtToPdf(InputStream input, OutputStream outputStream) throws IOException {
+        convertTxtToPdf(input, outputStream, null, null);
+    }
+
+    public static void convertTxtToPdf(InputStream input, OutputStream outputStream, FontProvider fonts,
+                                       OutputProfile profile) throws IOException {
+        // we create pdf writer that writes straight into the given output stream
+        PdfWriter writer = newWriter(outputStream, profile);
         // then we create new pdf and make it a document for adding string
         PdfDocument pdf = new PdfDocument(writer);
         Document document = new Document(pdf);
+        useFonts(document, fonts);
         // now we get the string form the txt file and write it to the pdf doc
-        String content = new String(file.getBytes(), StandardCharsets.UTF_8);
+        String content = new String(input.readAllBytes(), StandardCharsets.UTF_8);
         document.add(new Paragraph(content));
-        // closing document and returning pdf as byte array
+        // closing document finishes the pdf in the output stream
         document.close();
-        return outputStream.toByteArray();
     }
-    public static byte[] convertImageToPdf(MultipartFile file) throws IOException {
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        PdfWriter writer = new PdfWriter(outputStream);
-        PdfDocument pdf = new PdfDocument(writer);
-        Document document = new Document(pdf);
-        //the same as above, but now we get bytes from uploaded image and create image data
-        ImageData imageData = ImageDataFactory.create(file.getBytes());
+
+    public static void streamTxtToPdf(InputStream input, OutputStream output) throws IOException {
+        streamTxtToPdf(input, output, null, null);
+    }
+
+    public static void streamTxtToPdf(InputStream input, OutputStream output, FontProvider fonts,
+                                      OutputProfile profile) throws IOException {
+        streamTxtToPdf(input, output, fonts, profile, true);
+    }
+
+    // numberPages is off for the parts of a parallel conversion, they are numbered once merged
+    public static void streamTxtToPdf(InputStream input, OutputStream output, FontProvider fonts,
+                                      OutputProfile profile, boolean numberPages) throws IOException {
+        // decoding as a stream, malformed bytes become replacement chars instead of failing the whole file
+        LineReader lines = new LineReader(new InputStreamReader(input, StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)), READ_BUFFER_CHARS, MAX_LINE_CHARS);
+        PdfDocument pdf = new PdfDocument(newWriter(output, profile));
+        if (numberPages) {
+            PdfFont numberFont = PdfFontFactory.createFont(StandardFonts.HELVETICA);
+            pdf.addEventHandler(PdfDocumentEvent.END_PAGE, event -> {
+                PdfPage page = ((PdfDocumentEvent) event).getPage();
+                stampPageNumber(page, pdf.getPageNumber(page), numberFont);
+            });
+        }
+        // immediate flush makes the renderer write every finished page out and drop it from the heap
+        Document document = new Document(pdf, pdf.getDefaultPageSize(), true);
+        useFonts(document, fonts);
+        StringBuilder line = new StringBuilder(256);
+        while (lines.readLine(line)) {
+            document.add(new Paragraph(line.length() == 0 ? EMPTY_LINE : line.toString())
+                    .setMargin(0)
+                    .setMultipliedLeading(1.2f));
+        }
+        document.close();
+    }
+
+    // Renders a table of any length in constant memory: the first row is the header repeated on every
+    // page, column count and widths come from the first sampleRows rows only, and iText's large-table
+    // mode writes finished rows out every TABLE_FLUSH_ROWS rows.
+    public static void streamTableToPdf(RowReader rows, OutputStream output, FontProvider fonts,
+                                        OutputProfile profile, int sampleRows) throws IOException {
+        List<List<String>> sample = new ArrayList<>();
+        List<String> row;
+        while (sample.size() < sampleRows && (row = rows.next()) != null) {
+            sample.add(row);
+        }
+        if (sample.isEmpty()) {
+            throw new IllegalArgumentException("The table is empty.");
+        }
+        float[] widths = estimateColumnWidths(sample);
+        int columns = widths.length;
+
+        PdfDocument pdf = new PdfDocument(newWriter(output, profile));
+        PageSize pageSize = columns > PORTRAIT_MAX_COLUMNS ? PageSize.A4.rotate() : PageSize.A4;
+        Document document = new Document(pdf, pageSize, true);
+        document.setMargins(24, 24, 36, 24);
+        useFonts(document, fonts);
+        document.setFontSize(TABLE_FONT_SIZE);
+        PdfFont numberFont = PdfFontFactory.createFont(StandardFonts.HELVETICA);
+        pdf.addEventHandler(PdfDocumentEvent.END_PAGE, event -> {
+            PdfPage page = ((PdfDocumentEvent) event).getPage();
+            stampPageNumber(page, pdf.getPageNumber(page), numberFont);
+        });
+
+        Table table = new Table(UnitValue.createPercentArray(widths), true).useAllAvailableWidth();
+        for (String header : fit(sample.get(0), columns)) {
+            table.addHeaderCell(new Cell().add(new Paragraph(header).setBold()).setPadding(2));
+        }
+        // the table is added before its rows, so rows can be flushed while it grows
+        document.add(table);
+
+        int written = 0;
+        for (int i = 1; i < sample.size(); i++) {
+            addTableRow(table, fit(sample.get(i), columns));
+            written++;
+        }
+        sample.clear();
+        while ((row = rows.next()) != null) {
+            addTableRow(table, fit(row, columns));
+            if (++written % TABLE_FLUSH_ROWS == 0) {
+                table.flush();
+            }
+        }
+        table.complete();
+        document.close();
+    }
+
+    // relative widths from the average cell length of each column, extremes clamped
+    private static float[] estimateColumnWidths(List<List<String>> sample) {
+        int columns = 1;
+        for (List<String> row : sample) {
+            columns = Math.max(columns, row.size());
+        }
+        columns = Math.min(columns, MAX_TABLE_COLUMNS);
+        float[] widths = new float[columns];
+        for (List<String> row : sample) {
+            for (int i = 0; i < columns && i < row.size(); i++) {
+                widths[i] += row.get(i).length();
+            }
+        }
+        for (int i = 0; i < columns; i++) {
+            widths[i] = Math.max(3, Math.min(40, widths[i] / sample.size()));
+        }
+        return widths;
+    }
+
+    // rows shorter than the table are padded, the surplus of longer rows goes into the last column
+    private static List<String> fit(List<String> row, int columns) {
+        if (row.size() == columns) {
+            return row;
+        }
+        List<String> fitted = new ArrayList<>(row.subList(0, Math.min(row.size(), columns)));
+        while (fitted.size() < columns) {
+            fitted.add("");
+        }
+        if (row.size() > columns) {
+            fitted.set(columns - 1, String.join(" ", row.subList(columns - 1, row.size())));
+        }
+        return fitted;
+    }
+
+    private static void addTableRow(Table table, List<String> row) {
+        for (String value : row) {
+            table.addCell(new Cell().add(new Paragraph(value.isEmpty() ? EMPTY_LINE : value)).setPadding(2));
+        }
+    }
+
+    // no profile keeps iText's default writer settings
+    public static PdfWriter newWriter(OutputStream outputStream, OutputProfile profile) {
+        return profile == null ? new PdfWriter(outputStream) : new PdfWriter(outputStream, profile.writerProperties());
+    }
+
+    // small page number centered in the bottom margin
+    public static void stampPageNumber(PdfPage page, int number, PdfFont font) {
+        Rectangle pageSize = page.getPageSize();
+        String text = String.valueOf(number);
+        float width = font.getWidth(text, PAGE_NUMBER_FONT_SIZE);
+        new PdfCanvas(page.newContentStreamAfter(), page.getResources(), page.getDocument())
+                .beginText()
+                .setFontAndSize(font, PAGE_NUMBER_FONT_SIZE)
+                .moveText(pageSize.getLeft() + (pageSize.getWidth() - width) / 2, pageSize.getBottom() + 18)
+                .showText(text)
+                .endText()
+                .release();
+    }
+
+    // without a provider iText's standard Helvetica is used, which has no glyphs outside Latin-1
+    private static void useFonts(Document document, FontProvider fonts) {
+        if (fonts != null) {
+            document.setFontProvider(fonts);
+            document.setFontFamily(fonts.getDefaultFontFamily());
+        }
+    }
+
+    public static void convertImageToPdf(InputStream input, OutputStream outputStream, int targetDpi,
+                                         OutputProfile profile) throws IOException {
+        //we get bytes from uploaded image and let the image pipeline downscale or recompress it if needed
+        ImageData imageData = ImageUtils.prepare(input.readAllBytes(), targetDpi);
+        PdfDocument pdf = new PdfDocument(newWriter(outputStream, profile));
+        //the page follows the image orientation, and the image is fitted inside the margins
+        Document document = new Document(pdf, ImageUtils.pageFor((int) imageData.getWidth(), (int) imageData.getHeight()));
+        document.setMargins(ImageUtils.PAGE_MARGIN, ImageUtils.PAGE_MARGIN, ImageUtils.PAGE_MARGIN, ImageUtils.PAGE_MARGIN);
         Image image = new Image(imageData);
-        //adding image form image data to pdf doc, closing and returning
+        image.setAutoScale(true);
+        //adding image form image data to pdf doc and closing
         document.add(image);
         document.close();
-        return outputStream.toByteArray();
-    }
-    public static byte[] convertDocxToPdf(MultipartFile file) throws IOException, InterruptedException {
-        //there we create temporary files for input
-        File tempFileInput = File.createTempFile("input", ".docx");
-        //next we save the input file
-        file.transferTo(tempFileInput);
-        //there we use LibreOffice
-        ProcessBuilder builder = new ProcessBuilder(
-                "soffice", "--headless", "--convert-to", "pdf", "--outdir",
-                tempFileInput.getParent(), tempFileInput.getAbsolutePath()
-        );
-        //then we start the process and wait
-        builder.redirectErrorStream(true);
-        Process process = builder.start();
-        process.waitFor();
-        // libreOffice creates the output file with the same name (but .pdf)
-        String baseName = tempFileInput.getName().replaceFirst("[.][^.]+$", "");
-        File generatedPdf = new File(tempFileInput.getParent(), baseName + ".pdf");
-        //now we finally read generated pdf to byte array
-        byte[] pdfBytes = Files.readAllBytes(generatedPdf.toPath());
-        //deleting the temporary files now
-        tempFileInput.delete();
-        generatedPdf.delete();
-        //returning pdf as bytes
-        return pdfBytes;
     }
 }
@@ -0,0 +1,14 @@
+package com.example.pdfconverter.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+// Reads a table one row at a time, so tables of any length can be rendered in constant memory.
+public interface RowReader extends Closeable {
+    // cells further right are dropped instead of padding or splitting rows into thousands of cells
+    int MAX_COLUMNS = 1024;
+
+    // the cells of the next row, null after the last one
+    List<String> next() throws IOException;
+}
@@ -0,0 +1,53 @@
+package com.example.pdfconverter.utils;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+// Deduplicates concurrent work per key: the first caller runs the leader task, callers arriving
+// while it runs wait for it and then run the (cheap) follower task, e.g. reading a cached result.
+// A leader failure is rethrown to every waiter; if the leader is interrupted the waiters
+// don't fail with it, one of them takes over as the new leader instead.
+public class SingleFlight<K> {
+    private final ConcurrentHashMap<K, CompletableFuture<Void>> flights = new ConcurrentHashMap<>();
+
+    public <T> T execute(K key, Callable<T> leaderTask, Callable<T> followerTask) throws Exception {
+        while (true) {
+            CompletableFuture<Void> flight = new CompletableFuture<>();
+            CompletableFuture<Void> running = flights.putIfAbsent(key, flight);
+            if (running == null) {
+                return lead(key, flight, leaderTask);
+            }
+
+            try {
+                running.get();
+            } catch (CancellationException e) {
+                continue;
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception cause) {
+                    throw cause;
+                }
+                throw e;
+            }
+            return followerTask.call();
+        }
+    }
+
+    private <T> T lead(K key, CompletableFuture<Void> flight, Callable<T> leaderTask) throws Exception {
+        try {
+            T result = leaderTask.call();
+            flight.complete(null);
+            return result;
+        } catch (InterruptedException | CancellationException e) {
+            flight.cancel(false);
+            throw e;
+        } catch (Throwable e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            flights.remove(key, flight);
+        }
+    }
+}
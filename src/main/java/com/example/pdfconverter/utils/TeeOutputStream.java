@@ -0,0 +1,110 @@
+package com.example.pdfconverter.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Writes everything to two streams at once, e.g. the client response and a cache entry.
+// If either stream fails (the client went away, the cache disk is full) it is detached and writing
+// carries on into the other one; the failures are kept for the caller to report afterwards.
+// Once both have failed nobody reads the output any more, the primary's failure is thrown.
+public class TeeOutputStream extends OutputStream {
+    private final OutputStream primary;
+    private final OutputStream secondary;
+    private IOException primaryFailure;
+    private IOException secondaryFailure;
+
+    public TeeOutputStream(OutputStream primary, OutputStream secondary) {
+        this.primary = primary;
+        this.secondary = secondary;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (primaryFailure == null) {
+            try {
+                primary.write(b);
+            } catch (IOException e) {
+                primaryFailure = e;
+            }
+        }
+        if (secondaryFailure == null) {
+            try {
+                secondary.write(b);
+            } catch (IOException e) {
+                secondaryFailure = e;
+            }
+        }
+        throwIfBothFailed();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (primaryFailure == null) {
+            try {
+                primary.write(b, off, len);
+            } catch (IOException e) {
+                primaryFailure = e;
+            }
+        }
+        if (secondaryFailure == null) {
+            try {
+                secondary.write(b, off, len);
+            } catch (IOException e) {
+                secondaryFailure = e;
+            }
+        }
+        throwIfBothFailed();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (primaryFailure == null) {
+            try {
+                primary.flush();
+            } catch (IOException e) {
+                primaryFailure = e;
+            }
+        }
+        if (secondaryFailure == null) {
+            try {
+                secondary.flush();
+            } catch (IOException e) {
+                secondaryFailure = e;
+            }
+        }
+        throwIfBothFailed();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (primaryFailure == null) {
+            try {
+                primary.close();
+            } catch (IOException e) {
+                primaryFailure = e;
+            }
+        }
+        if (secondaryFailure == null) {
+            try {
+                secondary.close();
+            } catch (IOException e) {
+                secondaryFailure = e;
+            }
+        }
+        throwIfBothFailed();
+    }
+
+    public IOException getPrimaryFailure() {
+        return primaryFailure;
+    }
+
+    public IOException getSecondaryFailure() {
+        return secondaryFailure;
+    }
+
+    private void throwIfBothFailed() throws IOException {
+        if (primaryFailure != null && secondaryFailure != null) {
+            throw primaryFailure;
+        }
+    }
+}
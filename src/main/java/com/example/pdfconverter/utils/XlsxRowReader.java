@@ -0,0 +1,301 @@
+package com.example.pdfconverter.utils;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+// Reads the first worksheet of an xlsx file with a streaming xml parser, one <row> at a time.
+// Only the shared string table is kept in memory, cells are returned as stored: numbers and dates
+// keep their raw value because cell styles are not evaluated.
+// A small, highly compressed file can inflate to gigabytes, so what is inflated from each part and what
+// the shared string table holds are both limited; a spreadsheet past either is rejected.
+public class XlsxRowReader implements RowReader {
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newFactory();
+    private static final long MAX_PART_BYTES = 256L * 1024 * 1024;
+    // ~60 MB of heap at most, an entry costs ~60 bytes besides its characters
+    private static final int MAX_SHARED_STRINGS = 500_000;
+    private static final long MAX_SHARED_STRING_CHARS = 16L * 1024 * 1024;
+
+    static {
+        // workbook xml comes from the client, no dtds and no external entities
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private final ZipFile zip;
+    private final InputStream sheetStream;
+    private final XMLStreamReader sheet;
+    private final List<String> sharedStrings;
+    private final int maxCellChars;
+
+    public XlsxRowReader(Path file, int maxCellChars) throws IOException {
+        this.maxCellChars = maxCellChars;
+        this.zip = new ZipFile(file.toFile());
+        try {
+            this.sharedStrings = readSharedStrings();
+            this.sheetStream = open(entry(firstSheetPath()));
+            this.sheet = XML_INPUT_FACTORY.createXMLStreamReader(sheetStream);
+        } catch (IllegalArgumentException e) {
+            zip.close();
+            throw e;
+        } catch (XMLStreamException | RuntimeException e) {
+            zip.close();
+            throw new IllegalArgumentException("The spreadsheet is malformed: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public List<String> next() throws IOException {
+        try {
+            while (sheet.hasNext()) {
+                if (sheet.next() == XMLStreamConstants.START_ELEMENT && "row".equals(sheet.getLocalName())) {
+                    return readRow();
+                }
+            }
+            return null;
+        } catch (XMLStreamException e) {
+            throw new IllegalArgumentException("The spreadsheet is malformed: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            sheet.close();
+        } catch (XMLStreamException ignored) {
+            // the zip is closed anyway
+        }
+        sheetStream.close();
+        zip.close();
+    }
+
+    private List<String> readRow() throws XMLStreamException {
+        List<String> row = new ArrayList<>();
+        while (sheet.hasNext()) {
+            int event = sheet.next();
+            if (event == XMLStreamConstants.END_ELEMENT && "row".equals(sheet.getLocalName())) {
+                return row;
+            }
+            if (event == XMLStreamConstants.START_ELEMENT && "c".equals(sheet.getLocalName())) {
+                // cells may be left out, the reference tells which column this one is in
+                int column = columnIndex(sheet.getAttributeValue(null, "r"), row.size());
+                if (column >= MAX_COLUMNS) {
+                    skipElement(sheet);
+                    continue;
+                }
+                while (row.size() < column) {
+                    row.add("");
+                }
+                row.add(readCell(sheet.getAttributeValue(null, "t")));
+            }
+        }
+        return row;
+    }
+
+    private String readCell(String type) throws XMLStreamException {
+        StringBuilder text = new StringBuilder();
+        while (sheet.hasNext()) {
+            int event = sheet.next();
+            if (event == XMLStreamConstants.END_ELEMENT && "c".equals(sheet.getLocalName())) {
+                break;
+            }
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String name = sheet.getLocalName();
+                if ("v".equals(name)) {
+                    text.setLength(0);
+                    appendText(sheet, text);
+                } else if ("t".equals(name)) {
+                    // inline string
+                    appendText(sheet, text);
+                }
+            }
+        }
+        String value = text.toString();
+        if ("s".equals(type)) {
+            int index = Integer.parseInt(value.trim());
+            value = index >= 0 && index < sharedStrings.size() ? sharedStrings.get(index) : "";
+        } else if ("b".equals(type)) {
+            value = "1".equals(value) ? "TRUE" : "FALSE";
+        }
+        return value;
+    }
+
+    private List<String> readSharedStrings() throws IOException, XMLStreamException {
+        List<String> strings = new ArrayList<>();
+        ZipEntry entry = zip.getEntry("xl/sharedStrings.xml");
+        if (entry == null) {
+            return strings;
+        }
+        long chars = 0;
+        try (InputStream in = open(entry)) {
+            XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+            StringBuilder current = null;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+                    if ("si".equals(name)) {
+                        current = new StringBuilder();
+                    } else if ("t".equals(name) && current != null) {
+                        // rich text is split into several runs, each with its own <t>
+                        appendText(reader, current);
+                    } else if ("rPh".equals(name)) {
+                        skipElement(reader);
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && "si".equals(reader.getLocalName()) && current != null) {
+                    chars += current.length();
+                    if (strings.size() >= MAX_SHARED_STRINGS || chars > MAX_SHARED_STRING_CHARS) {
+                        throw new IllegalArgumentException("The spreadsheet has too much text to convert.");
+                    }
+                    strings.add(current.isEmpty() ? "" : current.toString());
+                    current = null;
+                }
+            }
+            reader.close();
+        }
+        return strings;
+    }
+
+    // the first <sheet> of the workbook, resolved through the workbook relationships
+    private String firstSheetPath() throws IOException, XMLStreamException {
+        String relationshipId = null;
+        try (InputStream in = open(entry("xl/workbook.xml"))) {
+            XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+            while (reader.hasNext() && relationshipId == null) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && "sheet".equals(reader.getLocalName())) {
+                    relationshipId = attribute(reader, "id");
+                }
+            }
+            reader.close();
+        }
+
+        Map<String, String> targets = new HashMap<>();
+        ZipEntry relationships = zip.getEntry("xl/_rels/workbook.xml.rels");
+        if (relationships != null) {
+            try (InputStream in = open(relationships)) {
+                XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT && "Relationship".equals(reader.getLocalName())) {
+                        targets.put(reader.getAttributeValue(null, "Id"), reader.getAttributeValue(null, "Target"));
+                    }
+                }
+                reader.close();
+            }
+        }
+
+        String target = relationshipId != null ? targets.get(relationshipId) : null;
+        if (target == null) {
+            return "xl/worksheets/sheet1.xml";
+        }
+        return target.startsWith("/") ? target.substring(1) : "xl/" + target;
+    }
+
+    private InputStream open(ZipEntry entry) throws IOException {
+        return new LimitedInputStream(zip.getInputStream(entry));
+    }
+
+    // the text of the current element, cut at maxCellChars without holding the rest in memory
+    private void appendText(XMLStreamReader reader, StringBuilder text) throws XMLStreamException {
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+                    || event == XMLStreamConstants.SPACE) {
+                int room = maxCellChars - text.length();
+                if (room > 0) {
+                    text.append(reader.getTextCharacters(), reader.getTextStart(), Math.min(room, reader.getTextLength()));
+                }
+            } else if (event == XMLStreamConstants.START_ELEMENT) {
+                skipElement(reader);
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                return;
+            }
+        }
+    }
+
+    private ZipEntry entry(String name) {
+        ZipEntry entry = zip.getEntry(name);
+        if (entry == null) {
+            throw new IllegalArgumentException("The spreadsheet has no " + name);
+        }
+        return entry;
+    }
+
+    // the r:id attribute, whatever prefix the relationships namespace got
+    private static String attribute(XMLStreamReader reader, String localName) {
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            if (localName.equals(reader.getAttributeLocalName(i))) {
+                return reader.getAttributeValue(i);
+            }
+        }
+        return null;
+    }
+
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    // stops inflating a part at MAX_PART_BYTES, whatever size the zip claims for it
+    private static final class LimitedInputStream extends FilterInputStream {
+        private long remaining = MAX_PART_BYTES;
+
+        private LimitedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                consumed(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                consumed(read);
+            }
+            return read;
+        }
+
+        private void consumed(int bytes) {
+            remaining -= bytes;
+            if (remaining < 0) {
+                throw new IllegalArgumentException("The spreadsheet is too large once uncompressed.");
+            }
+        }
+    }
+
+    // "C7" -> 2, falls back to the next free column when there is no reference
+    private static int columnIndex(String reference, int next) {
+        if (reference == null) {
+            return next;
+        }
+        int column = 0;
+        for (int i = 0; i < reference.length() && Character.isLetter(reference.charAt(i)); i++) {
+            column = column * 26 + (Character.toUpperCase(reference.charAt(i)) - 'A' + 1);
+        }
+        return column > 0 ? column - 1 : next;
+    }
+}
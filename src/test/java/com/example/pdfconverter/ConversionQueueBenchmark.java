@@ -0,0 +1,118 @@
+package com.example.pdfconverter;
+
+import com.example.pdfconverter.model.ConversionFormat;
+import com.example.pdfconverter.model.ConversionInput;
+import com.example.pdfconverter.model.Requester;
+import com.example.pdfconverter.model.SubscriptionType;
+import com.example.pdfconverter.ratelimit.AdaptiveConcurrencyLimiter;
+import com.example.pdfconverter.ratelimit.ConversionCostModel;
+import com.example.pdfconverter.ratelimit.LocalRateLimitState;
+import com.example.pdfconverter.service.ConversionBulkheads;
+import com.example.pdfconverter.service.QueueWaitStats;
+import com.example.pdfconverter.service.RateLimitService;
+import com.example.pdfconverter.utils.LatencyHistogram;
+import org.springframework.boot.convert.ApplicationConversionService;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Queue wait per subscription while one free user floods a bulkhead with a batch and other users keep
+// converting at a steady rate; once with the subscription weights and once with every weight at 1.
+// Conversions are simulated by a sleep, two workers handle 100 of them per second.
+// Run with: java ... com.example.pdfconverter.ConversionQueueBenchmark [batchSize]
+public class ConversionQueueBenchmark {
+
+    private static final long CONVERSION_MILLIS = 20;
+    private static final long RUN_MILLIS = 4_000;
+    private static final long STEADY_INTERVAL_MILLIS = 200;
+    private static final int LIGHT_FREE_USERS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int batchSize = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        run("weighted (1/4/16)", Map.of(), batchSize);
+        run("fair only (1/1/1)", Map.of("pdf.scheduler.weight.pro", "1", "pdf.scheduler.weight.vip", "1"), batchSize);
+    }
+
+    private static void run(String name, Map<String, Object> weights, int batchSize) throws Exception {
+        Map<String, Object> properties = new LinkedHashMap<>(weights);
+        properties.put("pdf.bulkhead.text.concurrency", "2");
+        properties.put("pdf.bulkhead.text.queue-length", "10000");
+        properties.put("pdf.bulkhead.text.queue-timeout", "10m");
+        StandardEnvironment environment = new StandardEnvironment();
+        // reads durations like "10m" the way the application does
+        environment.setConversionService(new ApplicationConversionService());
+        environment.getPropertySources().addFirst(new MapPropertySource("benchmark", properties));
+        // a limiter that hasn't been started doesn't limit
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter();
+        RateLimitService rateLimitService = new RateLimitService(new LocalRateLimitState(), limiter,
+                new ConversionCostModel(Duration.ofSeconds(2)));
+        ConversionBulkheads bulkheads = new ConversionBulkheads(environment, limiter, rateLimitService);
+        bulkheads.start();
+
+        Map<String, LatencyHistogram> latencies = new LinkedHashMap<>();
+        List<Requester> steady = new ArrayList<>();
+        for (int i = 0; i < LIGHT_FREE_USERS; i++) {
+            steady.add(new Requester("free-" + i, SubscriptionType.FREE));
+        }
+        steady.add(new Requester("pro", SubscriptionType.PRO));
+        steady.add(new Requester("vip", SubscriptionType.VIP));
+        latencies.put("heavy free user", new LatencyHistogram());
+        latencies.put("light free users", new LatencyHistogram());
+        latencies.put("pro user", new LatencyHistogram());
+        latencies.put("vip user", new LatencyHistogram());
+
+        ExecutorService clients = Executors.newCachedThreadPool();
+        List<Future<?>> pending = new ArrayList<>();
+        Requester heavy = new Requester("heavy", SubscriptionType.FREE);
+        for (int i = 0; i < batchSize; i++) {
+            pending.add(clients.submit(() -> convert(bulkheads, heavy, latencies.get("heavy free user"))));
+        }
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < RUN_MILLIS * 1_000_000) {
+            for (Requester requester : steady) {
+                LatencyHistogram histogram = latencies.get(switch (requester.subscription()) {
+                    case FREE -> "light free users";
+                    case PRO -> "pro user";
+                    case VIP -> "vip user";
+                });
+                pending.add(clients.submit(() -> convert(bulkheads, requester, histogram)));
+            }
+            Thread.sleep(STEADY_INTERVAL_MILLIS);
+        }
+        for (Future<?> future : pending) {
+            future.get();
+        }
+        clients.shutdown();
+        bulkheads.shutdown();
+
+        System.out.println(name);
+        latencies.forEach((group, histogram) -> System.out.printf(
+                "  %-18s %5d conversions, latency p50 %7.0f ms  p99 %7.0f ms%n",
+                group, histogram.count(), histogram.percentileMillis(50), histogram.percentileMillis(99)));
+        for (Map.Entry<SubscriptionType, QueueWaitStats> tier : bulkheads.queueWaitStats().entrySet()) {
+            QueueWaitStats stats = tier.getValue();
+            System.out.printf("  queue wait %-7s %5d conversions, p50 %7.0f ms  p95 %7.0f ms  p99 %7.0f ms%n",
+                    tier.getKey(), stats.conversions(), stats.p50Millis(), stats.p95Millis(), stats.p99Millis());
+        }
+    }
+
+    private static Void convert(ConversionBulkheads bulkheads, Requester requester, LatencyHistogram latency) throws Exception {
+        long start = System.nanoTime();
+        ConversionInput input = new ConversionInput("benchmark.txt", "text/plain", 1024, null, null, requester, null,
+                ConversionFormat.TEXT, null);
+        bulkheads.execute(ConversionFormat.TEXT, input, () -> {
+            Thread.sleep(CONVERSION_MILLIS);
+            return null;
+        });
+        latency.record(System.nanoTime() - start);
+        return null;
+    }
+}
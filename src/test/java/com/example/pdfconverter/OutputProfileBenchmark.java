@@ -0,0 +1,131 @@
+package com.example.pdfconverter;
+
+import com.example.pdfconverter.model.OutputProfile;
+import com.example.pdfconverter.utils.PdfUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+// Reports output size and cpu time of every output profile over a corpus of .txt/.png/.jpg files.
+// Run with: java ... com.example.pdfconverter.OutputProfileBenchmark [corpusDirectory]
+// Without a directory a small reference corpus (text, photo, screenshot-like image) is generated.
+public class OutputProfileBenchmark {
+
+    private static final int WARMUP_ROUNDS = 2;
+    private static final int MEASURED_ROUNDS = 5;
+    private static final int TARGET_DPI = 150;
+
+    public static void main(String[] args) throws Exception {
+        Path corpus = args.length > 0 ? Path.of(args[0]) : generateCorpus();
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(corpus)) {
+            files = listing.filter(OutputProfileBenchmark::isSupported).sorted().toList();
+        }
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        System.out.printf("%-24s %-9s %12s %10s%n", "file", "profile", "bytes", "cpu ms");
+        for (Path file : files) {
+            for (OutputProfile profile : OutputProfile.values()) {
+                for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                    convert(file, profile, OutputStream.nullOutputStream());
+                }
+                long size = 0;
+                long cpuStart = threads.getCurrentThreadCpuTime();
+                for (int i = 0; i < MEASURED_ROUNDS; i++) {
+                    CountingOutputStream out = new CountingOutputStream();
+                    convert(file, profile, out);
+                    size = out.count;
+                }
+                double cpuMillis = (threads.getCurrentThreadCpuTime() - cpuStart) / 1e6 / MEASURED_ROUNDS;
+                System.out.printf("%-24s %-9s %12d %10.1f%n", file.getFileName(), profile, size, cpuMillis);
+            }
+        }
+    }
+
+    private static boolean isSupported(Path file) {
+        String name = file.getFileName().toString().toLowerCase();
+        return name.endsWith(".txt") || name.endsWith(".png") || name.endsWith(".jpg");
+    }
+
+    private static void convert(Path file, OutputProfile profile, OutputStream out) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            if (file.toString().toLowerCase().endsWith(".txt")) {
+                PdfUtils.streamTxtToPdf(in, out, null, profile);
+            } else {
+                PdfUtils.convertImageToPdf(in, out, TARGET_DPI, profile);
+            }
+        }
+    }
+
+    private static Path generateCorpus() throws IOException {
+        Path directory = Files.createTempDirectory("profile-bench");
+        // registered before its files, so it is deleted after them
+        directory.toFile().deleteOnExit();
+        Random random = new Random(42);
+
+        StringBuilder text = new StringBuilder();
+        String[] words = {"invoice", "total", "amount", "customer", "delivery", "order", "payment", "date"};
+        while (text.length() < 2 * 1024 * 1024) {
+            int length = random.nextInt(12) + 3;
+            for (int i = 0; i < length; i++) {
+                text.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            text.append(random.nextInt(100_000)).append('\n');
+        }
+        Files.writeString(directory.resolve("text-2mb.txt"), text, StandardCharsets.UTF_8);
+
+        // noisy gradients compress like a photo
+        BufferedImage photo = new BufferedImage(2400, 1600, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < photo.getHeight(); y++) {
+            for (int x = 0; x < photo.getWidth(); x++) {
+                int noise = random.nextInt(24);
+                photo.setRGB(x, y, new Color((x / 10 + noise) % 256, (y / 7 + noise) % 256, (x + y) / 16 % 256).getRGB());
+            }
+        }
+        ImageIO.write(photo, "jpg", directory.resolve("photo.jpg").toFile());
+
+        // flat colours and text compress like a screenshot
+        BufferedImage screenshot = new BufferedImage(1280, 800, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = screenshot.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, 1280, 800);
+        graphics.setColor(Color.DARK_GRAY);
+        for (int y = 20; y < 800; y += 18) {
+            graphics.drawString(words[random.nextInt(words.length)] + " " + random.nextInt(1_000_000), 20, y);
+        }
+        graphics.dispose();
+        ImageIO.write(screenshot, "png", directory.resolve("screenshot.png").toFile());
+
+        try (Stream<Path> listing = Files.list(directory)) {
+            listing.forEach(file -> file.toFile().deleteOnExit());
+        }
+        return directory;
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
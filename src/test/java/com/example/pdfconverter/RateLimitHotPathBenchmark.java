@@ -0,0 +1,104 @@
+package com.example.pdfconverter;
+
+import com.example.pdfconverter.model.ConversionFormat;
+import com.example.pdfconverter.model.ConversionInput;
+import com.example.pdfconverter.ratelimit.AdaptiveConcurrencyLimiter;
+import com.example.pdfconverter.ratelimit.ConversionCostModel;
+import com.example.pdfconverter.ratelimit.LocalRateLimitState;
+import com.example.pdfconverter.service.RateLimitService;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Throughput and allocations per call of RateLimitService.isAllowed for known users and files,
+// i.e. the requests that get through, at 1 to 64 threads. It calls the overload RateLimitFilter calls
+// for an upload, with one file that was hashed and sniffed at ingest; the inputs are built up front, as
+// the filter builds them from the ingested request.
+// Run with: java -Xmx1g ... com.example.pdfconverter.RateLimitHotPathBenchmark [files]
+public class RateLimitHotPathBenchmark {
+
+    private static final int USERS = 5_000;
+    // each file is converted once to create its state and then ROUNDS times more, which stays below
+    // the generation limit and, with files / USERS per user, below the VIP bucket
+    private static final int ROUNDS = 3;
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32, 64};
+
+    public static void main(String[] args) throws Exception {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        String[] users = new String[USERS];
+        for (int i = 0; i < USERS; i++) {
+            users[i] = "user-" + i;
+        }
+        String[] hashes = new String[files];
+        List<List<ConversionInput>> uploads = new ArrayList<>(files);
+        for (int i = 0; i < files; i++) {
+            byte[] bytes = new byte[16];
+            ThreadLocalRandom.current().nextBytes(bytes);
+            hashes[i] = HexFormat.of().formatHex(bytes);
+            // the content isn't read, the format is already known
+            uploads.add(List.of(new ConversionInput("file-" + i + ".txt", "text/plain", 1024, hashes[i],
+                    null, null, null, ConversionFormat.TEXT, null)));
+        }
+
+        // warms up the jit
+        run(1, users, hashes, uploads);
+        for (int threads : THREADS) {
+            Result result = run(threads, users, hashes, uploads);
+            System.out.printf("%2d threads: %10.0f calls/s  %6.1f bytes/call  %d of %d allowed%n",
+                    threads, result.calls / result.seconds, (double) result.allocatedBytes / result.calls,
+                    result.allowed, result.calls);
+        }
+    }
+
+    private static Result run(int threads, String[] users, String[] hashes, List<List<ConversionInput>> uploads)
+            throws InterruptedException {
+        // a limiter that hasn't been started sheds nothing, only the per-user limits are measured
+        RateLimitService service = new RateLimitService(new LocalRateLimitState(), new AdaptiveConcurrencyLimiter(),
+                new ConversionCostModel(Duration.ofSeconds(2)));
+        for (int i = 0; i < hashes.length; i++) {
+            service.isAllowed(users[i % users.length], "VIP", hashes[i], uploads.get(i));
+        }
+
+        AtomicLong allocated = new AtomicLong();
+        AtomicLong allowed = new AtomicLong();
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int offset = t;
+            workers[t] = new Thread(() -> {
+                long before = allocatedBytes();
+                long passed = 0;
+                for (int round = 0; round < ROUNDS; round++) {
+                    for (int i = offset; i < hashes.length; i += threads) {
+                        if (service.isAllowed(users[i % users.length], "VIP", hashes[i], uploads.get(i)).allowed()) {
+                            passed++;
+                        }
+                    }
+                }
+                allocated.addAndGet(allocatedBytes() - before);
+                allowed.addAndGet(passed);
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return new Result((long) hashes.length * ROUNDS, allowed.get(), allocated.get(), seconds);
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private record Result(long calls, long allowed, long allocatedBytes, double seconds) {
+    }
+}
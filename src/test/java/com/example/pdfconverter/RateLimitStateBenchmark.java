@@ -0,0 +1,106 @@
+package com.example.pdfconverter;
+
+import com.example.pdfconverter.ratelimit.AdaptiveConcurrencyLimiter;
+import com.example.pdfconverter.ratelimit.ConversionCostModel;
+import com.example.pdfconverter.ratelimit.LocalRateLimitState;
+import com.example.pdfconverter.service.RateLimitService;
+import com.example.pdfconverter.utils.ExpiringStore;
+
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Measures the heap kept per tracked entry by the rate limiter and shows that the caps bound it.
+// Run with: java -Xmx1g ... com.example.pdfconverter.RateLimitStateBenchmark [entries]
+public class RateLimitStateBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        String[] users = new String[entries * 3];
+        String[] hashes = new String[entries * 3];
+        for (int i = 0; i < users.length; i++) {
+            users[i] = randomUserId();
+            hashes[i] = HexFormat.of().formatHex(randomBytes(16));
+        }
+
+        // the bookkeeping the store adds on top of a plain map
+        report("ConcurrentHashMap<String, AtomicLong>", entries, () -> {
+            Map<String, AtomicLong> map = new ConcurrentHashMap<>();
+            fill(entries, i -> map.put(users[i], new AtomicLong(1)));
+            return map;
+        });
+        report("ExpiringStore<String, AtomicLong>", entries, () -> {
+            ExpiringStore<String, AtomicLong> store = new ExpiringStore<>(Duration.ofMinutes(30), true, Integer.MAX_VALUE);
+            fill(entries, i -> store.compute(users[i], (k, v) -> new AtomicLong(1)));
+            return store;
+        });
+
+        // every allowed request from a new user with a new file creates a user and a generation entry
+        report("RateLimitService, per request", entries, () -> {
+            RateLimitService service = new RateLimitService(new LocalRateLimitState(), new AdaptiveConcurrencyLimiter(),
+                new ConversionCostModel(Duration.ofSeconds(2)));
+            fill(entries, i -> service.isAllowed(users[i], "FREE", 1024, hashes[i]));
+            return service;
+        });
+
+        // past the cap the store stays at its size
+        int cap = entries / 2;
+        ExpiringStore<String, AtomicLong> capped = new ExpiringStore<>(Duration.ofMinutes(30), true, cap);
+        for (int round = 1; round <= 3; round++) {
+            int offset = (round - 1) * entries;
+            fill(entries, i -> capped.compute(users[offset + i], (k, v) -> new AtomicLong(1)));
+            System.out.printf("capped store, %7d inserts: %7d entries, heap %6d KB%n",
+                    round * entries, capped.size(), usedHeap() / 1024);
+        }
+    }
+
+    private static void report(String name, int entries, StateBuilder builder) throws Exception {
+        long before = usedHeap();
+        Object state = builder.build();
+        long after = usedHeap();
+        System.out.printf("%-40s %6d bytes per entry%n", name, (after - before) / entries);
+        // keeps the state reachable until it has been measured
+        if (state.hashCode() == 42) {
+            System.out.println();
+        }
+    }
+
+    private static void fill(int entries, Consumer<Integer> insert) {
+        for (int i = 0; i < entries; i++) {
+            insert.accept(i);
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // shaped like a Firebase uid
+    private static String randomUserId() {
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+        StringBuilder id = new StringBuilder(28);
+        for (int i = 0; i < 28; i++) {
+            id.append(alphabet.charAt(ThreadLocalRandom.current().nextInt(alphabet.length())));
+        }
+        return id.toString();
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        return bytes;
+    }
+
+    private interface StateBuilder {
+        Object build() throws Exception;
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.pdfconverter;
+
+import com.example.pdfconverter.utils.PdfUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Compares the legacy single-paragraph TXT path with the streaming one.
+// Run with: java -Xmx1g ... com.example.pdfconverter.TxtConversionBenchmark [sizeInMb]
+public class TxtConversionBenchmark {
+
+    private static final int WARMUP_ROUNDS = 2;
+    private static final int MEASURED_ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int sizeMb = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        Path input = generateTextFile(sizeMb * 1024L * 1024L);
+        try {
+            report("legacy", input, () -> {
+                try (InputStream in = Files.newInputStream(input)) {
+                    PdfUtils.convertTxtToPdf(in, OutputStream.nullOutputStream());
+                }
+                return null;
+            });
+            report("streaming", input, () -> {
+                try (InputStream in = Files.newInputStream(input)) {
+                    PdfUtils.streamTxtToPdf(in, OutputStream.nullOutputStream());
+                }
+                return null;
+            });
+        } finally {
+            Files.deleteIfExists(input);
+        }
+    }
+
+    private static void report(String name, Path input, Conversion conversion) throws Exception {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            conversion.run();
+        }
+        System.gc();
+        resetPeakHeap();
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            conversion.run();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9 / MEASURED_ROUNDS;
+        double megabytes = Files.size(input) / (1024.0 * 1024.0);
+        System.out.printf("%-10s %8.2f MB/s  peak heap %6d MB%n",
+                name, megabytes / seconds, peakHeap() / (1024 * 1024));
+    }
+
+    private static Path generateTextFile(long size) throws IOException {
+        Path file = Files.createTempFile("txt-bench", ".txt");
+        StringBuilder line = new StringBuilder(120);
+        try (OutputStream out = Files.newOutputStream(file)) {
+            long written = 0;
+            while (written < size) {
+                line.setLength(0);
+                int length = ThreadLocalRandom.current().nextInt(20, 120);
+                for (int i = 0; i < length; i++) {
+                    line.append((char) (ThreadLocalRandom.current().nextInt(26) + 'a'));
+                }
+                byte[] bytes = line.append('\n').toString().getBytes(StandardCharsets.UTF_8);
+                out.write(bytes);
+                written += bytes.length;
+            }
+        }
+        return file;
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private interface Conversion {
+        Object run() throws Exception;
+    }
+}
@@ -0,0 +1,391 @@
+package com.example.pdfconverter.controller;
+
+import com.example.pdfconverter.exception.BulkheadFullException;
+import com.example.pdfconverter.exception.GlobalExceptionHandler;
+import com.example.pdfconverter.converter.FormatSniffer;
+import com.example.pdfconverter.model.BatchItemResult;
+import com.example.pdfconverter.model.ConversionInput;
+import com.example.pdfconverter.model.SubscriptionType;
+import com.example.pdfconverter.model.User;
+import com.example.pdfconverter.ratelimit.AdaptiveConcurrencyLimiter;
+import com.example.pdfconverter.ratelimit.ConversionCostModel;
+import com.example.pdfconverter.ratelimit.LocalRateLimitState;
+import com.example.pdfconverter.service.AlbumConversionService;
+import com.example.pdfconverter.service.BatchConversionService;
+import com.example.pdfconverter.service.ConversionBulkheads;
+import com.example.pdfconverter.service.ConversionJobService;
+import com.example.pdfconverter.service.ConversionService;
+import com.example.pdfconverter.service.OutputProfileResolver;
+import com.example.pdfconverter.service.RateLimitService;
+import com.example.pdfconverter.store.ResultStore;
+import com.example.pdfconverter.utils.PdfUtils;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.itextpdf.kernel.pdf.PdfDictionary;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfName;
+import com.itextpdf.kernel.pdf.PdfPage;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.canvas.parser.PdfTextExtractor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.MediaType;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.util.unit.DataSize;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// The conversion endpoints through spring mvc: the pdf is a StreamingResponseBody, written on an
+// async dispatch, so these check what a client actually receives.
+class FileControllerTest {
+    private static final Authentication USER = new UsernamePasswordAuthenticationToken(
+            new User("user-1", "user@example.com", SubscriptionType.VIP), null, List.of());
+
+    @TempDir
+    Path outputDir;
+
+    // converts text like the txt converter does, without the fonts and the bulkheads
+    private final ConversionService conversionService = new ConversionService() {
+        @Override
+        public ConversionInput prepare(ConversionInput input) throws IOException {
+            return input.withFormat(new FormatSniffer().sniff(input));
+        }
+
+        // the bulkhead of a file named busy.* is full
+        @Override
+        public void admit(ConversionInput input) {
+            if (input.originalFilename().startsWith("busy")) {
+                throw new BulkheadFullException("TEXT", "Too many TEXT conversions in progress. Please try again later.", 15);
+            }
+        }
+
+        @Override
+        public void convertToPdf(ConversionInput input, OutputStream outputStream) throws Exception {
+            if (input.originalFilename().startsWith("broken")) {
+                throw new IllegalArgumentException("Unreadable file");
+            }
+            try (InputStream content = input.openStream()) {
+                PdfUtils.streamTxtToPdf(content, outputStream);
+            }
+        }
+
+        @Override
+        public boolean exceedsInlineLimit(ConversionInput input) {
+            return input.size() > 1024;
+        }
+    };
+
+    private ConversionJobService conversionJobService;
+    private BatchConversionService batchConversionService;
+    private ConversionBulkheads bulkheads;
+    private AlbumConversionService albumConversionService;
+    // the batch pdfs that were deleted after the response
+    private final List<Path> cleanedUp = new CopyOnWriteArrayList<>();
+    private MockMvc mvc;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        ResultStore resultStore = new ResultStore();
+        ReflectionTestUtils.setField(resultStore, "outputDir", outputDir.toString());
+        ReflectionTestUtils.setField(resultStore, "maxSize", DataSize.ofMegabytes(10));
+        ReflectionTestUtils.setField(resultStore, "ttl", Duration.ofHours(1));
+        resultStore.start();
+        conversionJobService = new ConversionJobService(conversionService, resultStore);
+        ReflectionTestUtils.setField(conversionJobService, "outputDir", outputDir.toString());
+        ReflectionTestUtils.setField(conversionJobService, "workers", 1);
+        ReflectionTestUtils.setField(conversionJobService, "queueLength", 10);
+        ReflectionTestUtils.setField(conversionJobService, "queueTimeout", Duration.ofMinutes(1));
+        ReflectionTestUtils.setField(conversionJobService, "jobTtl", Duration.ofHours(1));
+        conversionJobService.start();
+        batchConversionService = new BatchConversionService(conversionService, new ObjectMapper()) {
+            @Override
+            public void cleanup(List<BatchItemResult> results) {
+                super.cleanup(results);
+                results.stream().filter(BatchItemResult::succeeded).forEach(result -> cleanedUp.add(result.result()));
+            }
+        };
+        ReflectionTestUtils.setField(batchConversionService, "parallelism", 2);
+        ReflectionTestUtils.setField(batchConversionService, "maxFiles", 10);
+        ReflectionTestUtils.setField(batchConversionService, "queueLength", 10);
+        batchConversionService.start();
+        // a limiter that hasn't been started doesn't limit
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter();
+        bulkheads = new ConversionBulkheads(new MockEnvironment(), limiter, new RateLimitService(
+                new LocalRateLimitState(), limiter, new ConversionCostModel(Duration.ofSeconds(2))));
+        bulkheads.start();
+        albumConversionService = new AlbumConversionService(bulkheads, new FormatSniffer());
+        ReflectionTestUtils.setField(albumConversionService, "parallelism", 2);
+        ReflectionTestUtils.setField(albumConversionService, "maxImages", 10);
+        ReflectionTestUtils.setField(albumConversionService, "queueLength", 10);
+        ReflectionTestUtils.setField(albumConversionService, "targetDpi", 150);
+        albumConversionService.start();
+
+        FileController controller = new FileController(conversionService, conversionJobService, batchConversionService,
+                albumConversionService,
+                new OutputProfileResolver(new MockEnvironment()), null, resultStore);
+        mvc = MockMvcBuilders.standaloneSetup(controller)
+                .setControllerAdvice(new GlobalExceptionHandler())
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        conversionJobService.shutdown();
+        batchConversionService.shutdown();
+        albumConversionService.shutdown();
+        bulkheads.shutdown();
+    }
+
+    @Test
+    void convertedFileIsStreamedAsPdf() throws Exception {
+        MockMultipartFile file = new MockMultipartFile("file", "notes.txt", MediaType.TEXT_PLAIN_VALUE,
+                "hello from the test".getBytes(StandardCharsets.UTF_8));
+
+        MvcResult started = mvc.perform(multipart("/api/convert").file(file).principal(USER))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        byte[] pdf = completed(started)
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_PDF))
+                .andExpect(header().string("Content-Disposition", "attachment; filename=notes_converted.pdf"))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        assertEquals(1, pageCount(pdf));
+        assertTrue(text(pdf).contains("hello from the test"));
+    }
+
+    @Test
+    void largeFileIsQueuedAsAJob() throws Exception {
+        MockMultipartFile file = new MockMultipartFile("file", "large.txt", MediaType.TEXT_PLAIN_VALUE,
+                "line of text\n".repeat(200).getBytes(StandardCharsets.UTF_8));
+
+        mvc.perform(multipart("/api/convert").file(file).principal(USER))
+                .andExpect(request().asyncNotStarted())
+                .andExpect(status().isAccepted())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+                .andExpect(header().exists("Location"));
+    }
+
+    @Test
+    void unsupportedFileIsRejectedBeforeTheResponse() throws Exception {
+        MockMultipartFile file = new MockMultipartFile("file", "notes.txt", MediaType.TEXT_PLAIN_VALUE,
+                "%PDF-1.7 already a pdf".getBytes(StandardCharsets.US_ASCII));
+
+        mvc.perform(multipart("/api/convert").file(file).principal(USER))
+                .andExpect(request().asyncNotStarted())
+                .andExpect(status().isUnsupportedMediaType())
+                .andExpect(jsonPath("$.message").value("The file is already a PDF."));
+    }
+
+    @Test
+    void fullQueueIsRejectedBeforeTheResponse() throws Exception {
+        MockMultipartFile file = textFile("file", "busy.txt", "waits for a worker");
+
+        mvc.perform(multipart("/api/convert").file(file).principal(USER))
+                .andExpect(request().asyncNotStarted())
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "15"));
+    }
+
+    @Test
+    void anonymousRequestIsRejected() throws Exception {
+        MockMultipartFile file = new MockMultipartFile("file", "notes.txt", MediaType.TEXT_PLAIN_VALUE, new byte[1]);
+
+        mvc.perform(multipart("/api/convert").file(file))
+                .andExpect(status().isUnauthorized());
+    }
+
+    @Test
+    void batchIsMergedIntoOnePdf() throws Exception {
+        MvcResult started = mvc.perform(multipart("/api/convert/batch")
+                        .file(textFile("files", "first.txt", "first file"))
+                        .file(textFile("files", "broken.txt", "not converted"))
+                        .file(textFile("files", "second.txt", "second file"))
+                        .principal(USER))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        byte[] pdf = completed(started)
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_PDF))
+                .andExpect(header().string("X-Batch-Converted", "2"))
+                .andExpect(header().string("X-Batch-Failed", "2"))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        assertEquals(2, pageCount(pdf));
+        String text = text(pdf);
+        assertTrue(text.indexOf("first file") < text.indexOf("second file"), text);
+        assertEquals(2, cleanedUp.size());
+        assertTrue(cleanedUp.stream().noneMatch(Files::exists));
+    }
+
+    @Test
+    void batchIsStreamedAsZip() throws Exception {
+        MvcResult started = mvc.perform(multipart("/api/convert/batch")
+                        .file(textFile("files", "first.txt", "first file"))
+                        .file(textFile("files", "second.txt", "second file"))
+                        .param("output", "zip")
+                        .principal(USER))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        byte[] zip = completed(started)
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/zip"))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (ZipInputStream entriesIn = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            ZipEntry entry;
+            while ((entry = entriesIn.getNextEntry()) != null) {
+                entries.put(entry.getName(), entriesIn.readAllBytes());
+            }
+        }
+        assertEquals(List.of("first_converted.pdf", "second_converted.pdf", "manifest.json"), List.copyOf(entries.keySet()));
+        assertTrue(text(entries.get("first_converted.pdf")).contains("first file"));
+        assertTrue(text(entries.get("second_converted.pdf")).contains("second file"));
+    }
+
+    @Test
+    void batchWithoutAConvertedFileIsUnprocessable() throws Exception {
+        MvcResult started = mvc.perform(multipart("/api/convert/batch")
+                        .file(textFile("files", "broken.txt", "not converted"))
+                        .principal(USER))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        completed(started)
+                .andExpect(status().isUnprocessableEntity())
+                .andExpect(jsonPath("$.failed[0].position").value(1))
+                .andExpect(jsonPath("$.failed[0].error").value("Unreadable file"));
+    }
+
+    @Test
+    void albumIsStreamedAsPdf() throws Exception {
+        byte[] red = png(Color.RED);
+        MvcResult started = mvc.perform(multipart("/api/convert/album")
+                        .file(new MockMultipartFile("files", "red.png", MediaType.IMAGE_PNG_VALUE, red))
+                        .file(new MockMultipartFile("files", "blue.png", MediaType.IMAGE_PNG_VALUE, png(Color.BLUE)))
+                        .file(new MockMultipartFile("files", "red-again.png", MediaType.IMAGE_PNG_VALUE, red))
+                        .principal(USER))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        byte[] pdf = completed(started)
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_PDF))
+                .andExpect(header().string("Content-Disposition", "attachment; filename=album.pdf"))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        try (PdfDocument document = new PdfDocument(new PdfReader(new ByteArrayInputStream(pdf)))) {
+            assertEquals(3, document.getNumberOfPages());
+            // the identical upload is embedded once, both pages show the same image
+            assertEquals(images(document.getPage(1)), images(document.getPage(3)));
+            assertNotEquals(images(document.getPage(1)), images(document.getPage(2)));
+        }
+    }
+
+    @Test
+    void albumGridPutsTheImagesOnOnePage() throws Exception {
+        MvcResult started = mvc.perform(multipart("/api/convert/album")
+                        .file(new MockMultipartFile("files", "red.png", MediaType.IMAGE_PNG_VALUE, png(Color.RED)))
+                        .file(new MockMultipartFile("files", "blue.png", MediaType.IMAGE_PNG_VALUE, png(Color.BLUE)))
+                        .param("layout", "grid")
+                        .param("columns", "2")
+                        .param("rows", "2")
+                        .principal(USER))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        byte[] pdf = completed(started)
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsByteArray();
+
+        assertEquals(1, pageCount(pdf));
+    }
+
+    // a future's response is dispatched first, its streaming body then starts one more async round
+    private ResultActions completed(MvcResult started) throws Exception {
+        ResultActions dispatched = mvc.perform(asyncDispatch(started));
+        while (dispatched.andReturn().getRequest().isAsyncStarted()) {
+            dispatched = mvc.perform(asyncDispatch(dispatched.andReturn()));
+        }
+        return dispatched;
+    }
+
+    private static MockMultipartFile textFile(String name, String filename, String text) {
+        return new MockMultipartFile(name, filename, MediaType.TEXT_PLAIN_VALUE, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] png(Color color) throws Exception {
+        BufferedImage image = new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(color);
+        graphics.fillRect(0, 0, 40, 30);
+        graphics.dispose();
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", png);
+        return png.toByteArray();
+    }
+
+    // the object numbers of the image XObjects a page draws
+    private static Set<Integer> images(PdfPage page) {
+        PdfDictionary xObjects = page.getResources().getResource(PdfName.XObject);
+        Set<Integer> images = new HashSet<>();
+        for (PdfName name : xObjects.keySet()) {
+            images.add(xObjects.get(name).getIndirectReference().getObjNumber());
+        }
+        return images;
+    }
+
+    static int pageCount(byte[] pdf) throws Exception {
+        try (PdfDocument document = new PdfDocument(new PdfReader(new ByteArrayInputStream(pdf)))) {
+            return document.getNumberOfPages();
+        }
+    }
+
+    static String text(byte[] pdf) throws Exception {
+        try (PdfDocument document = new PdfDocument(new PdfReader(new ByteArrayInputStream(pdf)))) {
+            StringBuilder text = new StringBuilder();
+            for (int i = 1; i <= document.getNumberOfPages(); i++) {
+                text.append(PdfTextExtractor.getTextFromPage(document.getPage(i)));
+            }
+            return text.toString();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.pdfconverter.controller;
+
+import com.example.pdfconverter.converter.FormatSniffer;
+import com.example.pdfconverter.exception.GlobalExceptionHandler;
+import com.example.pdfconverter.model.ConversionInput;
+import com.example.pdfconverter.model.SubscriptionType;
+import com.example.pdfconverter.model.User;
+import com.example.pdfconverter.service.ConversionService;
+import com.example.pdfconverter.service.OutputProfileResolver;
+import com.example.pdfconverter.upload.ChunkedUpload;
+import com.example.pdfconverter.upload.ChunkedUploadService;
+import com.example.pdfconverter.utils.PdfUtils;
+import jakarta.servlet.ServletException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.MediaType;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// Completing a chunked upload streams the pdf; the assembled file is gone afterwards, whatever happened.
+class UploadControllerTest {
+    private static final Authentication USER = new UsernamePasswordAuthenticationToken(
+            new User("user-1", "user@example.com", SubscriptionType.PRO), null, List.of());
+
+    @TempDir
+    Path outputDir;
+
+    // converts text like the txt converter does, fails for files named broken.*
+    private final ConversionService conversionService = new ConversionService() {
+        @Override
+        public ConversionInput prepare(ConversionInput input) throws IOException {
+            return input.withFormat(new FormatSniffer().sniff(input));
+        }
+
+        @Override
+        public void admit(ConversionInput input) {
+        }
+
+        @Override
+        public void convertToPdf(ConversionInput input, OutputStream outputStream) throws Exception {
+            if (input.originalFilename().startsWith("broken")) {
+                throw new IllegalArgumentException("Unreadable file");
+            }
+            try (InputStream content = input.openStream()) {
+                PdfUtils.streamTxtToPdf(content, outputStream);
+            }
+        }
+
+        @Override
+        public boolean exceedsInlineLimit(ConversionInput input) {
+            return false;
+        }
+    };
+
+    private ChunkedUploadService chunkedUploadService;
+    private MockMvc mvc;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        chunkedUploadService = new ChunkedUploadService();
+        ReflectionTestUtils.setField(chunkedUploadService, "outputDir", outputDir.toString());
+        ReflectionTestUtils.setField(chunkedUploadService, "maxSize", DataSize.ofMegabytes(10));
+        ReflectionTestUtils.setField(chunkedUploadService, "defaultChunkSize", DataSize.ofMegabytes(1));
+        ReflectionTestUtils.setField(chunkedUploadService, "maxSessionsPerUser", 5);
+        ReflectionTestUtils.setField(chunkedUploadService, "sessionTtl", Duration.ofHours(1));
+        chunkedUploadService.start();
+
+        UploadController controller = new UploadController(chunkedUploadService, conversionService, null,
+                new OutputProfileResolver(new MockEnvironment()));
+        mvc = MockMvcBuilders.standaloneSetup(controller)
+                .setControllerAdvice(new GlobalExceptionHandler())
+                .build();
+    }
+
+    @Test
+    void completedUploadIsStreamedAsPdfAndRemoved() throws Exception {
+        ChunkedUpload upload = uploaded("notes.txt", "hello from a chunked upload");
+
+        MvcResult started = mvc.perform(post("/api/uploads/{id}/complete", upload.getId()).principal(USER))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        byte[] pdf = mvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_PDF))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        assertTrue(FileControllerTest.text(pdf).contains("hello from a chunked upload"));
+        assertFalse(Files.exists(upload.getFile()));
+    }
+
+    @Test
+    void uploadIsRemovedWhenTheConversionFails() throws Exception {
+        ChunkedUpload upload = uploaded("broken.txt", "not converted");
+
+        MvcResult started = mvc.perform(post("/api/uploads/{id}/complete", upload.getId()).principal(USER))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        // the pdf headers are set already, the error can't be answered with a json body
+        assertThrows(ServletException.class, () -> mvc.perform(asyncDispatch(started)));
+
+        assertFalse(Files.exists(upload.getFile()));
+    }
+
+    @Test
+    void unknownUploadIsNotFound() throws Exception {
+        mvc.perform(post("/api/uploads/{id}/complete", "missing").principal(USER))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void incompleteUploadIsAConflictAndKept() throws Exception {
+        ChunkedUpload upload = chunkedUploadService.initiate("user-1", "notes.txt", "text/plain", 10, null);
+
+        mvc.perform(post("/api/uploads/{id}/complete", upload.getId()).principal(USER))
+                .andExpect(status().isConflict());
+        assertTrue(Files.exists(upload.getFile()));
+        assertEquals(1, upload.getChunkCount());
+    }
+
+    private ChunkedUpload uploaded(String filename, String text) throws Exception {
+        byte[] content = text.getBytes(StandardCharsets.UTF_8);
+        ChunkedUpload upload = chunkedUploadService.initiate("user-1", filename, "text/plain", content.length, null);
+        String md5 = Base64.getEncoder().encodeToString(MessageDigest.getInstance("MD5").digest(content));
+        chunkedUploadService.writeChunk(upload, 0, md5, new ByteArrayInputStream(content));
+        return upload;
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.pdfconverter.office;
+
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.layout.Document;
+import com.itextpdf.layout.element.Paragraph;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// Stand-in for LibreOffice, so the pool can be exercised without an office install.
+// It writes a one-page pdf naming the input instead of rendering the document. An input reading
+// "hold" blocks until the test lets it go, "crash" leaves a dump in the profile and the worker unhealthy.
+class FakeOfficeWorker implements OfficeWorker {
+    private final Path profileDir;
+    private final CountDownLatch held;
+    private int completedJobs;
+    private volatile boolean crashed;
+    private volatile boolean closed;
+
+    FakeOfficeWorker(Path profileDir, CountDownLatch held) throws IOException {
+        this.profileDir = Files.createDirectories(profileDir);
+        this.held = held;
+    }
+
+    @Override
+    public Path convert(Path input, Path outputDir) throws IOException, InterruptedException {
+        String content = Files.readString(input);
+        if (content.equals("hold") && !held.await(10, TimeUnit.SECONDS)) {
+            throw new IOException("held conversion was never released");
+        }
+        if (content.equals("crash")) {
+            crashed = true;
+            Files.writeString(profileDir.resolve("crash.dmp"), "core");
+            throw new IOException("LibreOffice crashed");
+        }
+
+        String baseName = input.getFileName().toString().replaceFirst("[.][^.]+$", "");
+        Path generatedPdf = outputDir.resolve(baseName + ".pdf");
+        try (Document document = new Document(new PdfDocument(new PdfWriter(generatedPdf.toString())))) {
+            document.add(new Paragraph("Converted by fake office worker: " + input.getFileName()
+                    + " (" + Files.size(input) + " bytes)"));
+        }
+        completedJobs++;
+        return generatedPdf;
+    }
+
+    @Override
+    public boolean isHealthy() {
+        return !crashed && !closed;
+    }
+
+    @Override
+    public int completedJobs() {
+        return completedJobs;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+}
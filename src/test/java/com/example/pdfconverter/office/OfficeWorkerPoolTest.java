@@ -0,0 +1,119 @@
+package com.example.pdfconverter.office;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// A pool of one fake worker, so every conversion borrows the same slot.
+class OfficeWorkerPoolTest {
+    @TempDir
+    Path profileRoot;
+
+    private final CountDownLatch held = new CountDownLatch(1);
+    private final List<FakeOfficeWorker> workers = new CopyOnWriteArrayList<>();
+    private final ExecutorService clients = Executors.newCachedThreadPool();
+    private OfficeWorkerPool pool;
+
+    @AfterEach
+    void stop() {
+        held.countDown();
+        clients.shutdownNow();
+        pool.shutdown();
+    }
+
+    @Test
+    void borrowTimesOutWhileTheOnlyWorkerIsBusy() throws Exception {
+        start(200, Duration.ofMillis(200));
+
+        Future<byte[]> busy = clients.submit(() -> convert("hold"));
+        await(() -> !workers.isEmpty());
+        IOException timeout = assertThrows(IOException.class, () -> convert("a document"));
+        assertEquals("No LibreOffice worker became available within PT0.2S", timeout.getMessage());
+
+        held.countDown();
+        assertTrue(new String(busy.get(5, TimeUnit.SECONDS), StandardCharsets.ISO_8859_1).startsWith("%PDF"));
+    }
+
+    @Test
+    void workerIsRecycledAfterMaxJobs() throws Exception {
+        start(2, Duration.ofSeconds(5));
+
+        convert("first");
+        convert("second");
+        // the third job waits for the replacement
+        convert("third");
+
+        assertEquals(2, workers.size());
+        assertTrue(workers.get(0).isClosed());
+        assertEquals(1, workers.get(1).completedJobs());
+        assertTrue(Files.isDirectory(profileRoot.resolve("worker-0")));
+    }
+
+    @Test
+    void unhealthyWorkerIsReplacedWithAWipedProfile() throws Exception {
+        start(200, Duration.ofSeconds(5));
+
+        IOException crash = assertThrows(IOException.class, () -> convert("crash"));
+        assertEquals("LibreOffice crashed", crash.getMessage());
+
+        await(() -> workers.size() == 2);
+        assertTrue(workers.get(0).isClosed());
+        assertFalse(Files.exists(profileRoot.resolve("worker-0").resolve("crash.dmp")));
+
+        convert("a document");
+        assertEquals(1, workers.get(1).completedJobs());
+    }
+
+    private void start(int maxJobsPerWorker, Duration borrowTimeout) {
+        pool = new OfficeWorkerPool() {
+            @Override
+            OfficeWorker createWorker(int index) throws IOException {
+                FakeOfficeWorker worker = new FakeOfficeWorker(profileDir(index), held);
+                workers.add(worker);
+                return worker;
+            }
+        };
+        ReflectionTestUtils.setField(pool, "configuredPoolSize", 1);
+        ReflectionTestUtils.setField(pool, "maxJobsPerWorker", maxJobsPerWorker);
+        ReflectionTestUtils.setField(pool, "profileRoot", profileRoot.toString());
+        ReflectionTestUtils.setField(pool, "borrowTimeout", borrowTimeout);
+        pool.start();
+    }
+
+    private byte[] convert(String document) throws Exception {
+        ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+        pool.convert(new ByteArrayInputStream(document.getBytes(StandardCharsets.UTF_8)), pdf);
+        return pdf.toByteArray();
+    }
+
+    // recycling happens on the pool's maintenance thread
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "condition not met within 5s");
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.example.pdfconverter.office;
+
+import com.sun.star.beans.PropertyValue;
+import com.sun.star.bridge.XBridgeFactory;
+import com.sun.star.comp.helper.Bootstrap;
+import com.sun.star.connection.XAcceptor;
+import com.sun.star.connection.XConnection;
+import com.sun.star.document.MacroExecMode;
+import com.sun.star.frame.XComponentLoader;
+import com.sun.star.frame.XStorable;
+import com.sun.star.lang.XComponent;
+import com.sun.star.lang.XEventListener;
+import com.sun.star.lang.XMultiComponentFactory;
+import com.sun.star.lib.uno.helper.WeakBase;
+import com.sun.star.uno.UnoRuntime;
+import com.sun.star.uno.XComponentContext;
+import com.sun.star.util.XCloseListener;
+import com.sun.star.util.XCloseable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The worker talks urp to a stand-in office in this jvm, the same calls it makes to LibreOffice;
+// the "executable" is a script that only stays alive.
+class SofficeWorkerTest {
+    @TempDir
+    Path dir;
+
+    private final FakeOffice office = new FakeOffice();
+    private int port;
+    private XAcceptor acceptor;
+    private Path executable;
+
+    @BeforeEach
+    void startOffice() throws Exception {
+        try (ServerSocket free = new ServerSocket(0)) {
+            port = free.getLocalPort();
+        }
+        XComponentContext local = Bootstrap.createInitialComponentContext((Map<String, Object>) null);
+        XMultiComponentFactory services = local.getServiceManager();
+        acceptor = UnoRuntime.queryInterface(XAcceptor.class,
+                services.createInstanceWithContext("com.sun.star.connection.Acceptor", local));
+        XBridgeFactory bridges = UnoRuntime.queryInterface(XBridgeFactory.class,
+                services.createInstanceWithContext("com.sun.star.bridge.BridgeFactory", local));
+        Thread accepting = new Thread(() -> {
+            while (true) {
+                try {
+                    XConnection connection = acceptor.accept("socket,host=127.0.0.1,port=" + port);
+                    // the worker's port probes connect too, only a bridge the office was handed out on counts
+                    AtomicBoolean used = new AtomicBoolean();
+                    XComponent bridge = UnoRuntime.queryInterface(XComponent.class,
+                            bridges.createBridge("", "urp", connection, name -> {
+                                used.set(true);
+                                return office;
+                            }));
+                    bridge.addEventListener(event -> {
+                        if (used.get()) {
+                            office.hungUp.countDown();
+                        }
+                    });
+                } catch (com.sun.star.uno.Exception | com.sun.star.uno.RuntimeException e) {
+                    // stopAccepting
+                    return;
+                }
+            }
+        });
+        accepting.setDaemon(true);
+        accepting.start();
+
+        executable = dir.resolve("soffice");
+        Files.writeString(executable, "#!/bin/sh\nexec sleep 600\n");
+        executable.toFile().setExecutable(true);
+    }
+
+    @AfterEach
+    void stopOffice() {
+        acceptor.stopAccepting();
+    }
+
+    @Test
+    void documentsAreConvertedOverOneBridge() throws Exception {
+        try (SofficeWorker worker = worker(Duration.ofSeconds(10))) {
+            for (int i = 1; i <= 2; i++) {
+                Path pdf = worker.convert(document("input.docx"), dir);
+
+                assertEquals(dir.resolve("input.pdf"), pdf);
+                assertTrue(Files.readString(pdf).startsWith("%PDF"));
+                assertEquals(i, worker.completedJobs());
+            }
+            assertEquals(2, office.closedDocuments.get());
+            assertEquals("writer_pdf_Export", office.filter);
+            assertEquals(MacroExecMode.NEVER_EXECUTE, office.macroExecutionMode);
+            assertTrue(worker.isHealthy());
+        }
+    }
+
+    @Test
+    void unreadableDocumentFailsTheJobNotTheWorker() throws Exception {
+        try (SofficeWorker worker = worker(Duration.ofSeconds(10))) {
+            IOException failure = assertThrows(IOException.class, () -> worker.convert(document("broken.docx"), dir));
+
+            assertTrue(failure.getMessage().startsWith("LibreOffice could not convert broken.docx"));
+            assertTrue(worker.isHealthy());
+            assertEquals(0, worker.completedJobs());
+        }
+    }
+
+    @Test
+    void stuckConversionIsEndedByTheWatchdog() throws Exception {
+        try (SofficeWorker worker = worker(Duration.ofMillis(500))) {
+            IOException failure = assertThrows(IOException.class, () -> worker.convert(document("stuck.docx"), dir));
+
+            assertEquals("LibreOffice conversion timed out after PT0.5S", failure.getMessage());
+            assertFalse(worker.isHealthy());
+        }
+    }
+
+    private SofficeWorker worker(Duration conversionTimeout) throws Exception {
+        return new SofficeWorker(executable.toString(), dir.resolve("profile"), port, conversionTimeout);
+    }
+
+    private Path document(String name) throws IOException {
+        return Files.writeString(dir.resolve(name), "a document");
+    }
+
+    // context, service manager and desktop in one; broken.* can't be loaded, stuck.* loads until the worker
+    // hangs up. Both ends of the bridge share this jvm's uno thread pool, so a call runs on the worker's own
+    // thread, which the watchdog can't get back from a sleeping office the way it can from LibreOffice
+    private static class FakeOffice extends WeakBase implements XComponentContext, XMultiComponentFactory, XComponentLoader {
+        private final CountDownLatch hungUp = new CountDownLatch(1);
+        private final AtomicInteger closedDocuments = new AtomicInteger();
+        private volatile String filter;
+        private volatile Object macroExecutionMode;
+
+        @Override
+        public Object getValueByName(String name) {
+            return null;
+        }
+
+        @Override
+        public XMultiComponentFactory getServiceManager() {
+            return this;
+        }
+
+        @Override
+        public Object createInstanceWithContext(String service, XComponentContext context) {
+            return "com.sun.star.frame.Desktop".equals(service) ? this : null;
+        }
+
+        @Override
+        public Object createInstanceWithArgumentsAndContext(String service, Object[] arguments, XComponentContext context) {
+            return createInstanceWithContext(service, context);
+        }
+
+        @Override
+        public String[] getAvailableServiceNames() {
+            return new String[]{"com.sun.star.frame.Desktop"};
+        }
+
+        @Override
+        public XComponent loadComponentFromURL(String url, String target, int flags, PropertyValue[] arguments)
+                throws com.sun.star.lang.IllegalArgumentException {
+            for (PropertyValue argument : arguments) {
+                if ("MacroExecutionMode".equals(argument.Name)) {
+                    macroExecutionMode = argument.Value;
+                }
+            }
+            if (url.endsWith("/broken.docx")) {
+                throw new com.sun.star.lang.IllegalArgumentException("Unsupported URL");
+            }
+            if (url.endsWith("/stuck.docx")) {
+                try {
+                    hungUp.await(60, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return new Document();
+        }
+
+        private class Document extends WeakBase implements XStorable, XCloseable, XComponent {
+            @Override
+            public void storeToURL(String url, PropertyValue[] arguments) throws com.sun.star.io.IOException {
+                filter = (String) arguments[0].Value;
+                try {
+                    Files.writeString(Paths.get(URI.create(url)), "%PDF-1.7 fake", StandardCharsets.US_ASCII);
+                } catch (IOException e) {
+                    throw new com.sun.star.io.IOException(e.getMessage());
+                }
+            }
+
+            @Override
+            public void close(boolean deliverOwnership) {
+                closedDocuments.incrementAndGet();
+            }
+
+            @Override
+            public boolean hasLocation() {
+                return false;
+            }
+
+            @Override
+            public String getLocation() {
+                return "";
+            }
+
+            @Override
+            public boolean isReadonly() {
+                return true;
+            }
+
+            @Override
+            public void store() {
+            }
+
+            @Override
+            public void storeAsURL(String url, PropertyValue[] arguments) {
+            }
+
+            @Override
+            public void addCloseListener(XCloseListener listener) {
+            }
+
+            @Override
+            public void removeCloseListener(XCloseListener listener) {
+            }
+
+            @Override
+            public void dispose() {
+            }
+
+            @Override
+            public void addEventListener(XEventListener listener) {
+            }
+
+            @Override
+            public void removeEventListener(XEventListener listener) {
+            }
+        }
+    }
+}
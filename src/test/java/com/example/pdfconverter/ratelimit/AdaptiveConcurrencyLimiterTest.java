@@ -0,0 +1,50 @@
+package com.example.pdfconverter.ratelimit;
+
+import com.example.pdfconverter.model.ConversionFormat;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Docx conversions that usually take a second per MB; the limit only reacts to the time per MB.
+class AdaptiveConcurrencyLimiterTest {
+    private static final long MB = 1024 * 1024;
+
+    private final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter();
+
+    @BeforeEach
+    void start() {
+        ReflectionTestUtils.setField(limiter, "initialLimit", 50);
+        ReflectionTestUtils.setField(limiter, "minLimit", 4);
+        ReflectionTestUtils.setField(limiter, "maxLimit", 200);
+        ReflectionTestUtils.setField(limiter, "backoffRatio", 0.8);
+        ReflectionTestUtils.setField(limiter, "latencyTolerance", 2.0);
+        ReflectionTestUtils.setField(limiter, "sampleInterval", Duration.ofSeconds(1));
+        limiter.start();
+        for (int i = 0; i < 20; i++) {
+            limiter.onSuccess(ConversionFormat.DOCX, MB, TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    @Test
+    void largeUploadsAreNoSlowdown() {
+        for (int i = 0; i < 20; i++) {
+            limiter.onSuccess(ConversionFormat.DOCX, 10 * MB, TimeUnit.SECONDS.toNanos(10));
+        }
+
+        assertEquals(50, limiter.getLimit(ConversionFormat.DOCX));
+    }
+
+    @Test
+    void slowerConversionsPerMegabyteBackOff() {
+        for (int i = 0; i < 5; i++) {
+            limiter.onSuccess(ConversionFormat.DOCX, MB, TimeUnit.SECONDS.toNanos(5));
+        }
+
+        assertEquals(40, limiter.getLimit(ConversionFormat.DOCX));
+    }
+}
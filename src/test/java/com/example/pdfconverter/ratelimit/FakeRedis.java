@@ -0,0 +1,303 @@
+package com.example.pdfconverter.ratelimit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// A redis stand-in for tests without a container: a RESP2 server on a free local port that knows the
+// commands RedisRateLimitState sends, and runs its lua scripts and those of bucket4j 8.7 in java.
+// Scripts are recognised by their exact text, any other script is answered with an error, so a test
+// notices when bucket4j or RedisRateLimitState start sending something else.
+class FakeRedis implements AutoCloseable {
+    // the scripts of bucket4j 8.7 LettuceBasedProxyManager
+    static final String INSERT_PX = "if redis.call('set', KEYS[1], ARGV[1], 'nx', 'px', ARGV[2]) then return 1; else return 0; end";
+    static final String INSERT = "if redis.call('set', KEYS[1], ARGV[1], 'nx') then return 1; else return 0; end";
+    static final String CAS_PX = "if redis.call('get', KEYS[1]) == ARGV[1] then redis.call('psetex', KEYS[1], ARGV[3], ARGV[2]); return 1; else return 0; end";
+    static final String CAS = "if redis.call('get', KEYS[1]) == ARGV[1] then redis.call('set', KEYS[1], ARGV[2]); return 1; else return 0; end";
+
+    private final ServerSocket server;
+    private final List<Socket> clients = new CopyOnWriteArrayList<>();
+    // guarded by data
+    private final Map<String, byte[]> data = new HashMap<>();
+    private final Map<String, Long> expiresAt = new HashMap<>();
+    private final Set<String> scripts = ConcurrentHashMap.newKeySet();
+    private final Set<String> unknownScripts = ConcurrentHashMap.newKeySet();
+
+    FakeRedis() throws IOException {
+        this(0);
+    }
+
+    // on a given port, e.g. the one of a redis that went down
+    FakeRedis(int port) throws IOException {
+        server = new ServerSocket(port);
+        Thread acceptor = new Thread(this::accept, "fake-redis");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int port() {
+        return server.getLocalPort();
+    }
+
+    // every script that was run, as received
+    Set<String> scripts() {
+        return scripts;
+    }
+
+    Set<String> unknownScripts() {
+        return unknownScripts;
+    }
+
+    boolean exists(String key) {
+        synchronized (data) {
+            return get(key) != null;
+        }
+    }
+
+    // stops answering, connected clients see the connection drop
+    @Override
+    public void close() throws IOException {
+        server.close();
+        for (Socket client : clients) {
+            client.close();
+        }
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                Socket client = server.accept();
+                clients.add(client);
+                Thread connection = new Thread(() -> serve(client), "fake-redis-client");
+                connection.setDaemon(true);
+                connection.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket client) {
+        try (client) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+            OutputStream out = new BufferedOutputStream(client.getOutputStream());
+            List<byte[]> command;
+            while ((command = readCommand(in)) != null) {
+                byte[] reply;
+                synchronized (data) {
+                    reply = handle(command);
+                }
+                out.write(reply);
+                // pipelined commands are answered together
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            // the client went away or the server was closed
+        }
+    }
+
+    private byte[] handle(List<byte[]> command) {
+        String name = string(command.get(0)).toUpperCase();
+        return switch (name) {
+            // lettuce falls back to RESP2
+            case "HELLO" -> error("unknown command 'HELLO'");
+            case "PING" -> "+PONG\r\n".getBytes(StandardCharsets.US_ASCII);
+            case "GET" -> bulk(get(string(command.get(1))));
+            case "EXISTS" -> {
+                long count = 0;
+                for (byte[] key : command.subList(1, command.size())) {
+                    count += get(string(key)) != null ? 1 : 0;
+                }
+                yield integer(count);
+            }
+            case "DEL" -> {
+                long count = 0;
+                for (byte[] key : command.subList(1, command.size())) {
+                    count += get(string(key)) != null ? 1 : 0;
+                    data.remove(string(key));
+                    expiresAt.remove(string(key));
+                }
+                yield integer(count);
+            }
+            case "EVAL" -> eval(string(command.get(1)), command);
+            default -> error("unknown command '" + name + "'");
+        };
+    }
+
+    private byte[] eval(String script, List<byte[]> command) {
+        scripts.add(script);
+        int keyCount = Integer.parseInt(string(command.get(2)));
+        List<String> keys = new ArrayList<>();
+        for (byte[] key : command.subList(3, 3 + keyCount)) {
+            keys.add(string(key));
+        }
+        List<byte[]> args = command.subList(3 + keyCount, command.size());
+
+        switch (script) {
+            case INSERT_PX, INSERT -> {
+                if (get(keys.get(0)) != null) {
+                    return integer(0);
+                }
+                set(keys.get(0), args.get(0), script.equals(INSERT_PX) ? parseLong(args.get(1)) : 0);
+                return integer(1);
+            }
+            case CAS_PX, CAS -> {
+                if (!Arrays.equals(get(keys.get(0)), args.get(0))) {
+                    return integer(0);
+                }
+                set(keys.get(0), args.get(1), script.equals(CAS_PX) ? parseLong(args.get(2)) : 0);
+                return integer(1);
+            }
+            default -> {
+                // a script of RedisRateLimitState
+            }
+        }
+
+        if (script.equals(scriptOf("RECORD_FAILURE"))) {
+            long maxAttempts = parseLong(args.get(0));
+            long freezeMillis = parseLong(args.get(1));
+            long attempts = increment(keys.get(0));
+            expire(keys.get(0), freezeMillis);
+            if (attempts >= maxAttempts && get(keys.get(1)) == null) {
+                set(keys.get(1), args.get(2), freezeMillis);
+            }
+            if (keys.size() > 2) {
+                recordFileFailure(keys.get(2), keys.get(3), maxAttempts, parseLong(args.get(3)));
+            }
+            return integer(attempts);
+        }
+        if (script.equals(scriptOf("RECORD_FILE_FAILURE"))) {
+            return integer(recordFileFailure(keys.get(0), keys.get(1), parseLong(args.get(0)), parseLong(args.get(1))));
+        }
+        if (script.equals(scriptOf("RECORD_GENERATION"))) {
+            long generations = increment(keys.get(0));
+            if (generations == 1) {
+                expire(keys.get(0), parseLong(args.get(0)));
+            }
+            return integer(generations);
+        }
+        unknownScripts.add(script);
+        return error("unknown script");
+    }
+
+    private long recordFileFailure(String attemptsKey, String frozenKey, long maxAttempts, long windowMillis) {
+        long fileAttempts = increment(attemptsKey);
+        expire(attemptsKey, windowMillis);
+        if (fileAttempts >= maxAttempts) {
+            set(frozenKey, "1".getBytes(StandardCharsets.US_ASCII), windowMillis);
+        }
+        return fileAttempts;
+    }
+
+    private byte[] get(String key) {
+        Long expiry = expiresAt.get(key);
+        if (expiry != null && expiry <= System.currentTimeMillis()) {
+            data.remove(key);
+            expiresAt.remove(key);
+        }
+        return data.get(key);
+    }
+
+    private void set(String key, byte[] value, long pxMillis) {
+        data.put(key, value);
+        if (pxMillis > 0) {
+            expiresAt.put(key, System.currentTimeMillis() + pxMillis);
+        } else {
+            expiresAt.remove(key);
+        }
+    }
+
+    private long increment(String key) {
+        byte[] value = get(key);
+        long incremented = value == null ? 1 : parseLong(value) + 1;
+        data.put(key, Long.toString(incremented).getBytes(StandardCharsets.US_ASCII));
+        return incremented;
+    }
+
+    private void expire(String key, long millis) {
+        expiresAt.put(key, System.currentTimeMillis() + millis);
+    }
+
+    // the scripts are private constants of RedisRateLimitState, the fake runs exactly those
+    private static String scriptOf(String constant) {
+        try {
+            var field = RedisRateLimitState.class.getDeclaredField(constant);
+            field.setAccessible(true);
+            return (String) field.get(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("RedisRateLimitState has no script " + constant, e);
+        }
+    }
+
+    private static List<byte[]> readCommand(DataInputStream in) throws IOException {
+        String header = readLine(in);
+        if (header == null) {
+            return null;
+        }
+        int count = Integer.parseInt(header.substring(1));
+        List<byte[]> arguments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] argument = new byte[Integer.parseInt(readLine(in).substring(1))];
+            in.readFully(argument);
+            readLine(in);
+            arguments.add(argument);
+        }
+        return arguments;
+    }
+
+    private static String readLine(DataInputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\r') {
+                in.read();
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+        return null;
+    }
+
+    private static byte[] error(String message) {
+        return ("-ERR " + message + "\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] integer(long value) {
+        return (":" + value + "\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] bulk(byte[] value) {
+        if (value == null) {
+            return "$-1\r\n".getBytes(StandardCharsets.US_ASCII);
+        }
+        ByteArrayOutputStream reply = new ByteArrayOutputStream(value.length + 16);
+        reply.writeBytes(("$" + value.length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        reply.writeBytes(value);
+        reply.writeBytes("\r\n".getBytes(StandardCharsets.US_ASCII));
+        return reply.toByteArray();
+    }
+
+    private static long parseLong(byte[] value) {
+        return Long.parseLong(string(value));
+    }
+
+    private static String string(byte[] value) {
+        return new String(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.pdfconverter.ratelimit;
+
+import com.example.pdfconverter.service.RateLimitService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.example.pdfconverter.service.RateLimitService.FILE_GENERATION_LIMIT;
+import static com.example.pdfconverter.service.RateLimitService.FREE_LIMIT;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Two nodes sharing the fake redis, as two replicas share a real one.
+class RedisRateLimitStateTest {
+    private static final Duration RECONNECT_INTERVAL = Duration.ofMillis(200);
+
+    private FakeRedis redis;
+    private final List<RedisRateLimitState> nodes = new ArrayList<>();
+
+    @BeforeEach
+    void startRedis() throws Exception {
+        redis = new FakeRedis();
+    }
+
+    @AfterEach
+    void stop() throws Exception {
+        nodes.forEach(RedisRateLimitState::stop);
+        redis.close();
+    }
+
+    @Test
+    void nodesShareTheQuota() {
+        RateLimitService first = service(node(Duration.ofSeconds(1)));
+        RateLimitService second = service(node(Duration.ofSeconds(1)));
+
+        int allowed = 0;
+        for (int i = 0; i < FREE_LIMIT + 3; i++) {
+            RateLimitService service = i % 2 == 0 ? first : second;
+            if (service.isAllowed("alice", "FREE", 1024, "file-" + i).allowed()) {
+                allowed++;
+            }
+        }
+        assertEquals(FREE_LIMIT, allowed);
+    }
+
+    @Test
+    void nodesShareTheGenerationCount() {
+        // no near-cache, every check sees what the other node wrote
+        RateLimitService first = service(node(Duration.ofMillis(1)));
+        RateLimitService second = service(node(Duration.ofMillis(1)));
+
+        for (int i = 0; i < FILE_GENERATION_LIMIT; i++) {
+            RateLimitService service = i % 2 == 0 ? first : second;
+            assertTrue(service.isAllowed("user-" + i, "VIP", 1024, "same-file").allowed(), "generation " + (i + 1));
+        }
+        assertFalse(first.isAllowed("another-user", "VIP", 1024, "same-file").allowed());
+        assertFalse(second.isAllowed("another-user", "VIP", 1024, "same-file").allowed());
+    }
+
+    @Test
+    void fallsBackToLocalLimitsWithoutRedis() throws Exception {
+        RateLimitService service = service(node(Duration.ofSeconds(1)));
+        redis.close();
+
+        int allowed = 0;
+        for (int i = 0; i < FREE_LIMIT + 3; i++) {
+            if (service.isAllowed("carol", "FREE", 1024, "file-" + i).allowed()) {
+                allowed++;
+            }
+        }
+        assertEquals(FREE_LIMIT, allowed);
+    }
+
+    @Test
+    void startsWhileRedisIsDownAndConnectsOnceItIsUp() throws Exception {
+        int port = redis.port();
+        redis.close();
+        RedisRateLimitState node = node(Duration.ofSeconds(1));
+
+        assertEquals(0, node.tryConsume("gina", 5, 1));
+
+        redis = new FakeRedis(port);
+        Thread.sleep(RECONNECT_INTERVAL.toMillis() + 50);
+        assertEquals(0, node.tryConsume("gina", 5, 1));
+        assertTrue(redis.exists("ratelimit:{gina}:bucket"));
+    }
+
+    // the fake runs bucket4j's scripts by their text; when a bucket4j upgrade changes them this fails
+    @Test
+    void bucket4jScriptsAreKnown() {
+        RedisRateLimitState node = node(Duration.ofSeconds(1));
+
+        assertEquals(0, node.tryConsume("dave", 5, 1));
+        assertTrue(redis.unknownScripts().isEmpty(), "scripts the fake doesn't know: " + redis.unknownScripts());
+        assertTrue(redis.scripts().contains(FakeRedis.INSERT_PX) || redis.scripts().contains(FakeRedis.INSERT),
+                "scripts run: " + redis.scripts());
+        assertTrue(redis.exists("ratelimit:{dave}:bucket"));
+    }
+
+    // bucket4j before 8.7 read the 'OK' of its insert as a failed insert, retried with compare-and-swap
+    // and so took the first tokens of every new bucket twice
+    @Test
+    void newBucketTakesTheFirstTokensOnce() {
+        RedisRateLimitState node = node(Duration.ofSeconds(1));
+
+        assertEquals(0, node.tryConsume("erin", 5, 2));
+        assertEquals(0, node.tryConsume("erin", 5, 3));
+        assertTrue(node.tryConsume("erin", 5, 1) > 0);
+    }
+
+    @Test
+    void failuresOfTheOtherFilesOfABatchCountPerFile() {
+        RedisRateLimitState node = node(Duration.ofMillis(1));
+
+        for (int i = 0; i < RateLimitService.MAX_ATTEMPTS; i++) {
+            node.recordFileFailure("frank", "second-file");
+        }
+        assertTrue(node.snapshot("frank", "second-file").fileFrozen());
+        assertFalse(node.snapshot("frank", "first-file").fileFrozen());
+        assertEquals(0, node.snapshot("frank", "first-file").userFrozenForNanos());
+    }
+
+    private RedisRateLimitState node(Duration nearCacheTtl) {
+        RedisRateLimitState node = new RedisRateLimitState();
+        ReflectionTestUtils.setField(node, "host", "localhost");
+        ReflectionTestUtils.setField(node, "port", redis.port());
+        ReflectionTestUtils.setField(node, "password", "");
+        ReflectionTestUtils.setField(node, "timeout", Duration.ofMillis(500));
+        ReflectionTestUtils.setField(node, "nearCacheTtl", nearCacheTtl);
+        ReflectionTestUtils.setField(node, "keyPrefix", "ratelimit:");
+        ReflectionTestUtils.setField(node, "reconnectInterval", RECONNECT_INTERVAL);
+        node.start();
+        nodes.add(node);
+        return node;
+    }
+
+    // a limiter that hasn't been started sheds nothing
+    private static RateLimitService service(RateLimitState state) {
+        return new RateLimitService(state, new AdaptiveConcurrencyLimiter(),
+                new ConversionCostModel(Duration.ofSeconds(2)));
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.pdfconverter.service;
+
+import com.example.pdfconverter.exception.BulkheadFullException;
+import com.example.pdfconverter.model.ConversionFormat;
+import com.example.pdfconverter.model.ConversionInput;
+import com.example.pdfconverter.model.Requester;
+import com.example.pdfconverter.model.SubscriptionType;
+import com.example.pdfconverter.ratelimit.AdaptiveConcurrencyLimiter;
+import com.example.pdfconverter.ratelimit.ConversionCostModel;
+import com.example.pdfconverter.ratelimit.LocalRateLimitState;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// One worker and one queue slot for text, so two conversions fill the bulkhead.
+class ConversionBulkheadsTest {
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final ExecutorService clients = Executors.newCachedThreadPool();
+    private ConversionBulkheads bulkheads;
+
+    @BeforeEach
+    void start() {
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("pdf.bulkhead.text.concurrency", "1")
+                .withProperty("pdf.bulkhead.text.queue-length", "1");
+        // a limiter that hasn't been started doesn't limit
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter();
+        bulkheads = new ConversionBulkheads(environment, limiter, new RateLimitService(new LocalRateLimitState(),
+                limiter, new ConversionCostModel(Duration.ofSeconds(2))));
+        bulkheads.start();
+    }
+
+    @AfterEach
+    void stop() {
+        release.countDown();
+        clients.shutdownNow();
+        bulkheads.shutdown();
+    }
+
+    @Test
+    void fullBulkheadIsRefusedBeforeTheConversion() throws Exception {
+        bulkheads.checkCapacity(ConversionFormat.TEXT);
+
+        CountDownLatch running = new CountDownLatch(1);
+        List<Future<?>> conversions = new ArrayList<>();
+        conversions.add(convert(running));
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        // the worker is busy, the queue still has room
+        assertDoesNotThrow(() -> bulkheads.checkCapacity(ConversionFormat.TEXT));
+
+        conversions.add(convert(new CountDownLatch(1)));
+        awaitQueued();
+        BulkheadFullException full = assertThrows(BulkheadFullException.class,
+                () -> bulkheads.checkCapacity(ConversionFormat.TEXT));
+        assertEquals("TEXT", full.getBulkhead());
+        // other formats have their own bulkhead
+        assertDoesNotThrow(() -> bulkheads.checkCapacity(ConversionFormat.IMAGE));
+
+        release.countDown();
+        for (Future<?> conversion : conversions) {
+            conversion.get(5, TimeUnit.SECONDS);
+        }
+        bulkheads.checkCapacity(ConversionFormat.TEXT);
+    }
+
+    private Future<?> convert(CountDownLatch running) {
+        ConversionInput input = new ConversionInput("test.txt", "text/plain", 1024, null, null,
+                new Requester("user-1", SubscriptionType.FREE), null, ConversionFormat.TEXT, null);
+        return clients.submit(() -> bulkheads.execute(ConversionFormat.TEXT, input, () -> {
+            running.countDown();
+            return release.await(5, TimeUnit.SECONDS);
+        }));
+    }
+
+    // the second conversion is submitted from another thread, wait until it sits in the queue
+    private void awaitQueued() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            try {
+                bulkheads.checkCapacity(ConversionFormat.TEXT);
+            } catch (BulkheadFullException e) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.pdfconverter.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.ContentDisposition;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileDownloadServiceTest {
+    @TempDir
+    Path dir;
+
+    private final FileDownloadService service = new FileDownloadService();
+
+    @Test
+    void downloadNameIsEncodedInTheDisposition() throws Exception {
+        MockHttpServletResponse response = serve("отчёт \"final\".pdf");
+
+        String header = response.getHeader("Content-Disposition");
+        assertTrue(header.endsWith("; filename*=UTF-8''%D0%BE%D1%82%D1%87%D1%91%D1%82%20%22final%22.pdf"), header);
+        assertEquals("отчёт \"final\".pdf", ContentDisposition.parse(header).getFilename());
+    }
+
+    @Test
+    void quotesCantEndTheFilenameEarly() throws Exception {
+        MockHttpServletResponse response = serve("a.pdf\"; filename=\"evil.exe");
+
+        assertEquals("a.pdf\"; filename=\"evil.exe",
+                ContentDisposition.parse(response.getHeader("Content-Disposition")).getFilename());
+    }
+
+    private MockHttpServletResponse serve(String downloadName) throws Exception {
+        Path file = Files.writeString(dir.resolve("result.pdf"), "%PDF-1.7");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        service.serve(file, "application/pdf", downloadName, new MockHttpServletRequest("GET", "/"), response);
+        assertEquals(200, response.getStatus());
+        return response;
+    }
+}
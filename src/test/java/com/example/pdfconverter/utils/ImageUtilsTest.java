@@ -0,0 +1,68 @@
+package com.example.pdfconverter.utils;
+
+import com.itextpdf.io.image.ImageData;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// Images ImageIO can't read are only embedded as they are when their header shows a size within the limit.
+class ImageUtilsTest {
+
+    @Test
+    void readableImageIsPrepared() throws Exception {
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(40, 30, BufferedImage.TYPE_INT_ARGB), "png", png);
+
+        ImageData image = ImageUtils.prepare(png.toByteArray(), 150);
+        assertEquals(40, image.getWidth());
+        assertEquals(30, image.getHeight());
+    }
+
+    // lossless jpegs (SOF3) are not supported by ImageIO, the size has to come from the header
+    @Test
+    void unreadableJpegOverThePixelLimitIsRefused() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> ImageUtils.prepare(jpegHeader(0xC3, 20_000, 20_000), 150));
+        assertEquals("Image is too large: 20000x20000 pixels.", e.getMessage());
+    }
+
+    @Test
+    void unreadableImageThatIsNoJpegIsRefused() throws Exception {
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB), "png", png);
+        // the image data is cut off, ImageIO fails on it
+        byte[] truncated = Arrays.copyOf(png.toByteArray(), 40);
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> ImageUtils.prepare(truncated, 150));
+        assertEquals("Unsupported or corrupted image.", e.getMessage());
+    }
+
+    @Test
+    void jpegSizeIsReadFromTheFrameHeader() {
+        assertArrayEquals(new int[] {640, 480}, ImageUtils.jpegSize(jpegHeader(0xC0, 640, 480)));
+        assertArrayEquals(new int[] {20_000, 10_000}, ImageUtils.jpegSize(jpegHeader(0xC2, 20_000, 10_000)));
+        assertNull(ImageUtils.jpegSize(new byte[] {'G', 'I', 'F', '8', '9', 'a'}));
+        // a scan without a frame header before it
+        assertNull(ImageUtils.jpegSize(new byte[] {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xDA, 0, 2}));
+    }
+
+    // SOI, an APP0 segment and a frame header with one component, enough for any header parser
+    private static byte[] jpegHeader(int frameMarker, int width, int height) {
+        return new byte[] {
+                (byte) 0xFF, (byte) 0xD8,
+                (byte) 0xFF, (byte) 0xE0, 0, 16, 'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0,
+                (byte) 0xFF, (byte) frameMarker, 0, 11, 8,
+                (byte) (height >> 8), (byte) height, (byte) (width >> 8), (byte) width,
+                1, 1, 0x11, 0,
+                (byte) 0xFF, (byte) 0xD9
+        };
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.pdfconverter.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// A 4 char buffer, so most lines and line breaks straddle a refill.
+class LineReaderTest {
+
+    @Test
+    void splitsOnLineBreaksAndDropsCarriageReturns() throws IOException {
+        assertEquals(List.of("first line", "", "third", "last without break"),
+                lines("first line\r\n\nthird\nlast without break", 100));
+    }
+
+    @Test
+    void trailingBreakEndsTheLastLine() throws IOException {
+        assertEquals(List.of("one", "two"), lines("one\ntwo\n", 100));
+        assertEquals(List.of(), lines("", 100));
+    }
+
+    @Test
+    void longLinesAreCut() throws IOException {
+        // the break right after a full line still ends a line of its own
+        assertEquals(List.of("abcde", "fghij", "k", "12345", ""), lines("abcdefghijk\n12345\n", 5));
+        assertEquals(List.of("abcde", "f"), lines("ab\rcd\re\rf", 5));
+    }
+
+    private static List<String> lines(String text, int maxLineChars) throws IOException {
+        LineReader reader = new LineReader(new StringReader(text), 4, maxLineChars);
+        List<String> lines = new ArrayList<>();
+        StringBuilder line = new StringBuilder();
+        while (reader.readLine(line)) {
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.pdfconverter.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// A failing stream is detached and the other one gets everything; only when both failed the write fails.
+class TeeOutputStreamTest {
+    private static final byte[] FIRST = "first part, ".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SECOND = "second part".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void failingCacheDoesNotFailTheClient() throws IOException {
+        ByteArrayOutputStream client = new ByteArrayOutputStream();
+        FailingStream cache = new FailingStream(1);
+        TeeOutputStream tee = new TeeOutputStream(client, cache);
+
+        tee.write(FIRST);
+        tee.write(SECOND);
+        tee.flush();
+        tee.close();
+
+        assertArrayEquals("first part, second part".getBytes(StandardCharsets.UTF_8), client.toByteArray());
+        assertSame(cache.failure, tee.getSecondaryFailure());
+        assertNull(tee.getPrimaryFailure());
+        // detached after the failed write, not written to again
+        assertEquals(2, cache.writes);
+    }
+
+    @Test
+    void goneClientDoesNotStopTheCache() throws IOException {
+        FailingStream client = new FailingStream(0);
+        ByteArrayOutputStream cache = new ByteArrayOutputStream();
+        TeeOutputStream tee = new TeeOutputStream(client, cache);
+
+        tee.write(FIRST);
+        tee.write(SECOND);
+
+        assertArrayEquals("first part, second part".getBytes(StandardCharsets.UTF_8), cache.toByteArray());
+        assertSame(client.failure, tee.getPrimaryFailure());
+        assertNull(tee.getSecondaryFailure());
+    }
+
+    @Test
+    void bothFailingStopsTheWriter() throws IOException {
+        FailingStream client = new FailingStream(1);
+        FailingStream cache = new FailingStream(0);
+        TeeOutputStream tee = new TeeOutputStream(client, cache);
+
+        tee.write(FIRST);
+        IOException thrown = assertThrows(IOException.class, () -> tee.write(SECOND));
+        assertSame(client.failure, thrown);
+    }
+
+    // accepts the given number of writes, fails every one after
+    private static class FailingStream extends OutputStream {
+        private final int okWrites;
+        private final IOException failure = new IOException("No space left on device");
+        private int writes;
+
+        FailingStream(int okWrites) {
+            this.okWrites = okWrites;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (writes++ >= okWrites) {
+                throw failure;
+            }
+        }
+    }
+}